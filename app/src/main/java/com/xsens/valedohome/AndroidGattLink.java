@@ -0,0 +1,233 @@
+package com.xsens.valedohome;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+import java.util.UUID;
+
+/**
+ * {@link GattLink} on top of the platform BluetoothGatt, one instance per device.
+ */
+public class AndroidGattLink extends BluetoothGattCallback implements GattLink {
+    private static final String TAG = "AndroidGattLink";
+
+    private final Context mContext;
+    private final BluetoothDevice mDevice;
+    private final int mTraceId;
+
+    private volatile BluetoothGatt mGatt;
+    private volatile Callback mCallback;
+
+    public AndroidGattLink(Context context, BluetoothDevice device) {
+        mContext = context.getApplicationContext();
+        mDevice = device;
+        mTraceId = device.getAddress().hashCode();
+    }
+
+    @Override
+    public String getAddress() {
+        return mDevice.getAddress();
+    }
+
+    @Override
+    public String getName() {
+        return mDevice.getName();
+    }
+
+    @Override
+    public void connect(Callback callback) {
+        mCallback = callback;
+        /*
+         * Make a connection with the device using the special LE-specific
+         * connectGatt() method, passing in a callback for GATT events
+         */
+        mGatt = mDevice.connectGatt(mContext, false, this);
+    }
+
+    @Override
+    public boolean discoverServices() {
+        BluetoothGatt gatt = mGatt;
+        return gatt != null && gatt.discoverServices();
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID service, UUID characteristic) {
+        BluetoothGatt gatt = mGatt;
+        BluetoothGattCharacteristic c = findCharacteristic(gatt, service, characteristic);
+        return c != null && gatt.readCharacteristic(c);
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value) {
+        BluetoothGatt gatt = mGatt;
+        BluetoothGattCharacteristic c = findCharacteristic(gatt, service, characteristic);
+        if (c == null) {
+            return false;
+        }
+        c.setValue(value);
+        return gatt.writeCharacteristic(c);
+    }
+
+    @Override
+    public boolean enableNotifications(UUID service, UUID characteristic) {
+        BluetoothGatt gatt = mGatt;
+        BluetoothGattCharacteristic c = findCharacteristic(gatt, service, characteristic);
+        if (c == null) {
+            return false;
+        }
+        //Enable local notifications
+        gatt.setCharacteristicNotification(c, true);
+        //Enabled remote notifications
+        BluetoothGattDescriptor desc = c.getDescriptor(ValedoProfile.CONFIG_DESCRIPTOR);
+        if (desc == null) {
+            return false;
+        }
+        desc.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        return gatt.writeDescriptor(desc);
+    }
+
+    /*
+     * MTU and connection priority requests only exist from API 21 on, newer than what we
+     * compile against, so they are looked up at runtime
+     */
+    @Override
+    public boolean requestMtu(int mtu) {
+        return invokeGatt("requestMtu", mtu);
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int priority) {
+        return invokeGatt("requestConnectionPriority", priority);
+    }
+
+    private boolean invokeGatt(String name, int arg) {
+        BluetoothGatt gatt = mGatt;
+        if (gatt == null) {
+            return false;
+        }
+        try {
+            Method method = BluetoothGatt.class.getMethod(name, int.class);
+            return (Boolean) method.invoke(gatt, arg);
+        } catch (NoSuchMethodException e) {
+            Log.i(TAG, name + " is not supported on this platform");
+        } catch (Exception e) {
+            Log.w(TAG, name + " failed", e);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean readRemoteRssi() {
+        BluetoothGatt gatt = mGatt;
+        return gatt != null && gatt.readRemoteRssi();
+    }
+
+    @Override
+    public void disconnect() {
+        BluetoothGatt gatt = mGatt;
+        if (gatt != null) {
+            Log.w(TAG, "Disconnecting " + getAddress());
+            gatt.disconnect();
+            gatt.close();
+            mGatt = null;
+        }
+    }
+
+    /*
+     * Takes the gatt the caller read once, disconnect() may clear mGatt from another thread
+     */
+    private BluetoothGattCharacteristic findCharacteristic(BluetoothGatt gatt, UUID service, UUID characteristic) {
+        if (gatt == null) {
+            return null;
+        }
+        BluetoothGattService s = gatt.getService(service);
+        if (s == null) {
+            Log.w(TAG, "Service " + service + " not found on " + getAddress());
+            return null;
+        }
+        return s.getCharacteristic(characteristic);
+    }
+
+    /* BluetoothGattCallback */
+
+    @Override
+    public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+        Log.i(TAG, getAddress() + " connection state change: " + status + " -> " + connectionState(newState));
+        mCallback.onConnectionStateChange(status == BluetoothGatt.GATT_SUCCESS,
+                newState == BluetoothProfile.STATE_CONNECTED);
+    }
+
+    @Override
+    public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+        Log.i(TAG, getAddress() + " services discovered: " + status);
+        mCallback.onServicesDiscovered(status == BluetoothGatt.GATT_SUCCESS);
+    }
+
+    @Override
+    public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+        Log.i(TAG, "onCharacteristicRead");
+        mCallback.onCharacteristicRead(characteristic.getUuid(), characteristic.getValue(),
+                status == BluetoothGatt.GATT_SUCCESS);
+    }
+
+    @Override
+    public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+        if (BuildConfig.TRACE_VERBOSE) {
+            byte[] value = characteristic.getValue();
+            TraceBuffer.GLOBAL.record(TraceBuffer.EVENT_NOTIFY, mTraceId, value == null ? -1 : value.length);
+        }
+        mCallback.onCharacteristicChanged(characteristic.getUuid(), characteristic.getValue());
+    }
+
+    @Override
+    public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+        Log.i(TAG, "onCharacteristicWrite");
+        mCallback.onCharacteristicWrite(characteristic.getUuid(), status == BluetoothGatt.GATT_SUCCESS);
+    }
+
+    @Override
+    public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+        Log.i(TAG, "onDescriptorWrite");
+        mCallback.onDescriptorWrite(descriptor.getCharacteristic().getUuid(),
+                status == BluetoothGatt.GATT_SUCCESS);
+    }
+
+    /*
+     * Overrides the API 21 callback on platforms that have it
+     */
+    public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        Log.i(TAG, getAddress() + " MTU changed: " + mtu);
+        mCallback.onMtuChanged(mtu, status == BluetoothGatt.GATT_SUCCESS);
+    }
+
+    @Override
+    public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
+        if (BuildConfig.TRACE_VERBOSE) {
+            Log.d(TAG, "Remote RSSI: " + rssi);
+        }
+        mCallback.onReadRemoteRssi(rssi, status == BluetoothGatt.GATT_SUCCESS);
+    }
+
+    private static String connectionState(int status) {
+        switch (status) {
+            case BluetoothProfile.STATE_CONNECTED:
+                return "Connected";
+            case BluetoothProfile.STATE_DISCONNECTED:
+                return "Disconnected";
+            case BluetoothProfile.STATE_CONNECTING:
+                return "Connecting";
+            case BluetoothProfile.STATE_DISCONNECTING:
+                return "Disconnecting";
+            default:
+                return String.valueOf(status);
+        }
+    }
+}
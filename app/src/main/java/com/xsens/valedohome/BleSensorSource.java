@@ -0,0 +1,36 @@
+package com.xsens.valedohome;
+
+import android.bluetooth.BluetoothAdapter;
+import android.content.Context;
+
+import java.util.List;
+
+/**
+ * Real ValedoHome sensors over BLE, the ones found by the last scan.
+ */
+public class BleSensorSource implements SensorSource {
+
+    private final Context mContext;
+    private final BluetoothAdapter mAdapter;
+    private final ScanResults mScanResults;
+
+    public BleSensorSource(Context context, BluetoothAdapter adapter, ScanResults scanResults) {
+        mContext = context.getApplicationContext();
+        mAdapter = adapter;
+        mScanResults = scanResults;
+    }
+
+    @Override
+    public List<String> getAddresses() {
+        return mScanResults.getAddresses();
+    }
+
+    /*
+     * Works for any sensor address, also one remembered from an earlier run that wasn't
+     * scanned for this time
+     */
+    @Override
+    public GattLink create(String address) {
+        return new AndroidGattLink(mContext, mAdapter.getRemoteDevice(address));
+    }
+}
@@ -4,63 +4,76 @@ import android.app.Activity;
 import android.app.ProgressDialog;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
+import android.content.ComponentName;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.Message;
+import android.os.IBinder;
 import android.util.Log;
-import android.util.SparseArray;
+import android.view.Choreographer;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
 import android.view.Window;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.UUID;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 
-public class MainActivity extends Activity implements BluetoothAdapter.LeScanCallback {
+public class MainActivity extends Activity implements BluetoothAdapter.LeScanCallback, SensorService.Client {
     private static final String TAG = "BluetoothGattActivity";
 
-    private static final String DEVICE_NAME = "ValedoHome";
-
-    /* Device Configuration */
-    private static final UUID DEVICE_CONFIGURATION         = UUID.fromString("14a1893f-9b14-4b60-a530-97a302993374");
-    private static final UUID POWER_CONTROL                = UUID.fromString("97f6bc36-00f3-4730-aab8-bb33836c14aa");
-    private static final UUID LED_STATE                    = UUID.fromString("ee5159fe-4a05-4aab-833d-9f88b5a42b48");
-    private static final UUID LOCAL_NAME                   = UUID.fromString("69a53fba-f69c-454b-9b3b-fd8d33128dad");
-    private static final UUID SELF_TEST_REPORT             = UUID.fromString("5e8236b8-b94d-4a65-8b9f-2ddaa6d69bb7");
-    private static final UUID HEADING_REDEFINITION_CONTROL = UUID.fromString("4ec79fb8-88bf-4392-84ec-a0475823f8fb");
-
-    /* Awinda Service */
-    private static final UUID AWINDA_SERVICE               = UUID.fromString("e8a68b2a-b616-45c0-b8d0-d9ddf447731e");
-    private static final UUID ORIENTATION                  = UUID.fromString("cf54bf43-3d66-4666-8fd3-7df5788b73c1");
-    private static final UUID HIGH_PASS_VELOCITY           = UUID.fromString("1a431fae-e870-485a-aba3-89b3b525c570");
+    private BluetoothAdapter mBluetoothAdapter;
 
-    /* Client Configuration Descriptor */
-    private static final UUID CONFIG_DESCRIPTOR = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+    /*
+     * Scanning runs until the remembered sensors are found or SCAN_PERIOD_MS passed, the device
+     * menu is rebuilt at most once per MENU_REFRESH_MS however many advertisements come in
+     */
+    private static final long SCAN_PERIOD_MS = 10000;
+    private static final long MENU_REFRESH_MS = 500;
+    private static final int DEVICE_MENU_ID = Menu.FIRST + 1000;
+    private volatile ScanResults mScanResults;
+    private boolean mScanning;
+    private volatile boolean mMenuRefreshPending;
 
+    /* Set while connecting to the sensors of last time, a failure falls back to scanning */
+    private boolean mReconnecting;
+    private boolean mLaunched;
 
-    private BluetoothAdapter mBluetoothAdapter;
-    private SparseArray<BluetoothDevice> mDevices;
-
-    private BluetoothGatt mConnectedGatt;
+    /*
+     * The sensors, their history and the recordings live in the service, so rotating or
+     * leaving the activity doesn't disconnect anything. Null while not bound.
+     */
+    private SensorService mService;
 
-    private TextView mQuatX, mQuatY, mQuatZ, mQuatW;
+    /* Graphs of every sensor, recreated from the service's feeds whenever we attach */
+    private final Map<String, SensorDisplay> mDisplays = new HashMap<String, SensorDisplay>();
+    /* Angles between the first two sensors, above their graphs */
+    private MotionLine mJointLine;
+    private LinearLayout mGraphLayout;
 
     private ProgressDialog mProgress;
 
-    private QuaternionGraph quaternionGraph;
+    /* Sensors added by "Simulate sensors" in debug builds */
+    private static final int SIMULATED_SENSORS = 2;
+    private static final float SIMULATED_RATE = 100f;
+    private static final long SIMULATED_JITTER_NANOS = 2000000;
+    private static final float SIMULATED_LOSS = 0.01f;
+
+    /* Latency overlay, only in builds with PIPELINE_STATS */
+    private static final long OVERLAY_INTERVAL_MS = 500;
+    private TextView mOverlay;
+    private final StringBuilder mReport = new StringBuilder();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -70,19 +83,11 @@ public class MainActivity extends Activity implements BluetoothAdapter.LeScanCal
         setProgressBarIndeterminate(true);
 
         /*
-         * We're goint to create a quaternion graph, showing four values on a single layout
-         */
-        quaternionGraph = new QuaternionGraph();
-        quaternionGraph.showGraph(this, (LinearLayout) findViewById(R.id.graph));
-
-
-        /*
-         * We are going to display the results in some text fields
+         * Every connected sensor gets its own quaternion graph in this layout
          */
-//        mQuatW = (TextView) findViewById(R.id.text_quat_w);
-//        mQuatX = (TextView) findViewById(R.id.text_quat_x);
-//        mQuatY = (TextView) findViewById(R.id.text_quat_y);
-//        mQuatZ = (TextView) findViewById(R.id.text_quat_z);
+        mGraphLayout = (LinearLayout) findViewById(R.id.graph);
+        mOverlay = (TextView) findViewById(R.id.overlay);
+        mOverlay.setVisibility(BuildConfig.PIPELINE_STATS ? View.VISIBLE : View.GONE);
 
         /*
          * Bluetooth in Android 4.3 is accessed via the BluetoothManager, rather than
@@ -91,7 +96,8 @@ public class MainActivity extends Activity implements BluetoothAdapter.LeScanCal
         BluetoothManager manager = (BluetoothManager) getSystemService(BLUETOOTH_SERVICE);
         mBluetoothAdapter = manager.getAdapter();
 
-        mDevices = new SparseArray<BluetoothDevice>();
+        //Only a fresh launch reconnects by itself, not a rotation
+        mLaunched = savedInstanceState != null;
 
         /*
          * A progress dialog will be needed while the connection process is
@@ -102,6 +108,12 @@ public class MainActivity extends Activity implements BluetoothAdapter.LeScanCal
         mProgress.setCancelable(false);
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, SensorService.class), mConnection, BIND_AUTO_CREATE);
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -128,7 +140,10 @@ public class MainActivity extends Activity implements BluetoothAdapter.LeScanCal
             return;
         }
 
-        clearDisplayValues();
+        if (BuildConfig.PIPELINE_STATS) {
+            mHandler.post(mOverlayRunnable);
+        }
+        Choreographer.getInstance().postFrameCallback(mMotionFrame);
     }
 
     @Override
@@ -137,30 +152,76 @@ public class MainActivity extends Activity implements BluetoothAdapter.LeScanCal
         //Make sure dialog is hidden
         mProgress.dismiss();
         //Cancel any scans in progress
-        mHandler.removeCallbacks(mStopRunnable);
         mHandler.removeCallbacks(mStartRunnable);
-        mBluetoothAdapter.stopLeScan(this);
+        mHandler.removeCallbacks(mOverlayRunnable);
+        Choreographer.getInstance().removeFrameCallback(mMotionFrame);
+        stopScan();
     }
 
     @Override
     protected void onStop() {
         super.onStop();
-        //Disconnect from any active tag connection
-        if (mConnectedGatt != null) {
-            Log.w(TAG, "Stoping activity");
-            mConnectedGatt.disconnect();
-            mConnectedGatt = null;
+        /*
+         * Only detach, the sensors keep streaming into the service and the graphs pick up
+         * from its history when we come back
+         */
+        Log.w(TAG, "Stoping activity");
+        mReconnecting = false;
+        if (mService != null) {
+            mService.setClient(null);
+            mService = null;
+            mScanResults = null;
         }
+        unbindService(mConnection);
+        clearDisplayValues();
     }
 
+    private final ServiceConnection mConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            mService = ((SensorService.LocalBinder) binder).getService();
+            mScanResults = mService.getScanResults();
+            mService.setClient(MainActivity.this);
+            for (SensorFeed feed : mService.getFeeds()) {
+                getDisplay(feed);
+            }
+            if (mService.isSettingUp()) {
+                mProgress.show();
+            }
+            invalidateOptionsMenu();
+
+            if (!mLaunched) {
+                mLaunched = true;
+                if (mService.getSessions().isEmpty()) {
+                    reconnectLastSensors();
+                }
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mService = null;
+            mScanResults = null;
+        }
+    };
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Add the "scan" option to the menu
         getMenuInflater().inflate(R.menu.main, menu);
+        menu.findItem(R.id.action_dump_stats).setVisible(BuildConfig.PIPELINE_STATS);
+        menu.findItem(R.id.action_simulate).setVisible(BuildConfig.DEBUG);
+        if (mService == null) {
+            return true;
+        }
+        menu.findItem(R.id.action_show_velocity).setChecked(mService.isShowingVelocity());
+        menu.findItem(R.id.action_persist_heading).setChecked(mService.isPersistingHeading());
+        menu.findItem(R.id.action_record).setTitle(mService.isRecording() ? "Stop recording" : "Record");
         //Add any device elements we've discovered to the overflow menu
-        for (int i=0; i < mDevices.size(); i++) {
-            BluetoothDevice device = mDevices.valueAt(i);
-            menu.add(0, mDevices.keyAt(i), 0, device.getName());
+        List<String> addresses = mScanResults.getAddresses();
+        for (int i = 0; i < addresses.size(); i++) {
+            String address = addresses.get(i);
+            menu.add(0, DEVICE_MENU_ID + i, 0, mScanResults.getName(address) + " " + address);
         }
 
         return true;
@@ -168,36 +229,197 @@ public class MainActivity extends Activity implements BluetoothAdapter.LeScanCal
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
+        if (mService == null) {
+            //Not attached yet, nothing can be done
+            return super.onOptionsItemSelected(item);
+        }
         switch (item.getItemId()) {
             case R.id.action_scan:
-                mDevices.clear();
+                mScanResults.clear();
                 startScan();
                 return true;
+            case R.id.action_dump_stats:
+                reportStats();
+                Log.i(TAG, "Pipeline stats\n" + mReport);
+                return true;
+            case R.id.action_dump_trace:
+                dumpTrace();
+                return true;
+            case R.id.action_record:
+                if (mService.isRecording()) {
+                    mService.stopRecording();
+                } else {
+                    startRecording();
+                }
+                invalidateOptionsMenu();
+                return true;
+            case R.id.action_connect_all:
+                //Every sensor is set up in parallel, on its own connection
+                for (String address : mScanResults.getAddresses()) {
+                    connect(address, mScanResults.getName(address));
+                }
+                return true;
+            case R.id.action_disconnect:
+                mService.disconnectAll();
+                clearDisplayValues();
+                invalidateOptionsMenu();
+                return true;
+            case R.id.action_simulate:
+                mService.connectSimulated(new SyntheticSensorSource(SIMULATED_SENSORS, SIMULATED_RATE)
+                        .setJitter(SIMULATED_JITTER_NANOS).setLoss(SIMULATED_LOSS));
+                attachFeeds();
+                return true;
+            case R.id.action_replay:
+                replaySessions();
+                return true;
+            case R.id.action_show_velocity:
+                showVelocity(!mService.isShowingVelocity());
+                return true;
+            case R.id.action_heading_reset:
+                mService.resetHeading();
+                return true;
+            case R.id.action_reset_motion:
+                mService.resetMotion();
+                return true;
+            case R.id.action_persist_heading:
+                mService.setPersistHeading(!mService.isPersistingHeading());
+                invalidateOptionsMenu();
+                return true;
             default:
                 //Obtain the discovered device to connect with
-                BluetoothDevice device = mDevices.get(item.getItemId());
-                if (device == null) //device not available anymore
+                List<String> addresses = mScanResults.getAddresses();
+                int index = item.getItemId() - DEVICE_MENU_ID;
+                if (index < 0 || index >= addresses.size()) //device not available anymore
                     return false;
 
-                Log.i(TAG, "Connecting to "+device.getName());
-                /*
-                 * Make a connection with the device using the special LE-specific
-                 * connectGatt() method, passing in a callback for GATT events
-                 */
-                mConnectedGatt = device.connectGatt(this, false, mGattCallback);
-                //Display progress UI
-                mHandler.sendMessage(Message.obtain(null, MSG_PROGRESS, "Connecting to "+device.getName()+"..."));
-                Toast.makeText(this, "Connecting to "+device.getName()+"...", Toast.LENGTH_LONG);
-
+                String address = addresses.get(index);
+                connect(address, mScanResults.getName(address));
                 return super.onOptionsItemSelected(item);
         }
     }
 
+    private void connect(String address, String name) {
+        getDisplay(mService.connect(address, name));
+    }
+
+    /* Graphs for every feed the service has, also ones connected without going through us */
+    private void attachFeeds() {
+        for (SensorFeed feed : mService.getFeeds()) {
+            getDisplay(feed);
+        }
+    }
+
+    /*
+     * Graphs of a sensor, created on first use. They draw straight from the feed's history, so
+     * they start out with everything received before we attached.
+     */
+    private SensorDisplay getDisplay(SensorFeed feed) {
+        SensorDisplay display = mDisplays.get(feed.getAddress());
+        if (display != null) {
+            return display;
+        }
+        TextView motion = new TextView(this);
+        mGraphLayout.addView(motion, new LinearLayout.LayoutParams(
+                LinearLayout.LayoutParams.MATCH_PARENT, LinearLayout.LayoutParams.WRAP_CONTENT));
+        QuaternionGraph graph = new QuaternionGraph(feed.getOrientation());
+        graph.showGraph(this, mGraphLayout, feed.getName() + " " + feed.getAddress());
+        graph.setStats(feed.getStats());
+        VelocityGraph velocity = new VelocityGraph(feed.getVelocity());
+        velocity.showGraph(this, mGraphLayout, feed.getName() + " velocity");
+        velocity.setVisible(mService.isShowingVelocity());
+        display = new SensorDisplay(graph, velocity, new MotionLine(motion, feed.getAnalytics(), ""));
+        mDisplays.put(feed.getAddress(), display);
+        return display;
+    }
+
+    /*
+     * Hides or shows the velocity graphs. Sensors connected from now on only subscribe to
+     * velocity while it is shown.
+     */
+    private void showVelocity(boolean show) {
+        mService.setShowVelocity(show);
+        for (SensorDisplay display : mDisplays.values()) {
+            display.velocityGraph.setVisible(show);
+        }
+        invalidateOptionsMenu();
+    }
+
+    private void replaySessions() {
+        File[] files = mService.getSessionDir().listFiles();
+        List<File> sessions = new ArrayList<File>();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(SessionHeader.EXTENSION)) {
+                    sessions.add(file);
+                }
+            }
+        }
+        if (sessions.isEmpty()) {
+            Toast.makeText(this, "No recorded sessions", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        try {
+            mService.connectSimulated(new ReplaySensorSource(sessions, 1f));
+            attachFeeds();
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot replay sessions", e);
+            Toast.makeText(this, "Cannot replay: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void startRecording() {
+        try {
+            if (mService.startRecording() == 0) {
+                Toast.makeText(this, "No sensor is streaming", Toast.LENGTH_SHORT).show();
+            }
+        } catch (IOException e) {
+            Toast.makeText(this, e.getMessage(), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /*
+     * Formats the trace ring to logcat, in chunks since logcat truncates long messages
+     */
+    private void dumpTrace() {
+        StringBuilder trace = new StringBuilder();
+        TraceBuffer.GLOBAL.dump(trace);
+        Log.i(TAG, "Trace, " + TraceBuffer.GLOBAL.count() + " events recorded");
+        for (int start = 0; start < trace.length(); start += 3000) {
+            Log.i(TAG, trace.substring(start, Math.min(trace.length(), start + 3000)));
+        }
+    }
+
+    private void reportStats() {
+        mReport.setLength(0);
+        if (mService == null) {
+            return;
+        }
+        for (SensorSession session : mService.getSessions()) {
+            PipelineStats stats = session.getStats();
+            if (stats != null) {
+                mReport.append(session.getName()).append(' ').append(session.getAddress()).append('\n');
+                stats.report(mReport);
+                session.getLinkMonitor().report(mReport);
+            }
+        }
+    }
+
+    private Runnable mOverlayRunnable = new Runnable() {
+        @Override
+        public void run() {
+            reportStats();
+            mOverlay.setText(mReport);
+            mHandler.postDelayed(this, OVERLAY_INTERVAL_MS);
+        }
+    };
+
     private void clearDisplayValues() {
-//        mQuatW.setText("---");
-//        mQuatX.setText("---");
-//        mQuatY.setText("---");
-//        mQuatZ.setText("---");
+        if (mDisplays.isEmpty()) {
+            return;
+        }
+        mGraphLayout.removeAllViews();
+        mDisplays.clear();
+        mJointLine = null;
     }
 
 
@@ -207,6 +429,13 @@ public class MainActivity extends Activity implements BluetoothAdapter.LeScanCal
             stopScan();
         }
     };
+    private Runnable mRefreshMenuRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mMenuRefreshPending = false;
+            invalidateOptionsMenu();
+        }
+    };
     private Runnable mStartRunnable = new Runnable() {
         @Override
         public void run() {
@@ -215,278 +444,194 @@ public class MainActivity extends Activity implements BluetoothAdapter.LeScanCal
     };
 
     private void startScan() {
-        mBluetoothAdapter.startLeScan(this);
-        setProgressBarIndeterminateVisibility(true);
-
-        mHandler.postDelayed(mStopRunnable, 2500);
+        if (mScanning || mService == null) {
+            return;
+        }
+        mScanResults.setExpected(mService.getLastSensors());
+        /*
+         * Not using the service UUID filter of startLeScan, it fails to match 128 bit UUIDs
+         * on some 4.3 and 4.4 stacks; the scan record is filtered in onLeScan instead
+         */
+        mScanning = mBluetoothAdapter.startLeScan(this);
+        setProgressBarIndeterminateVisibility(mScanning);
+        if (mScanning) {
+            mHandler.postDelayed(mStopRunnable, SCAN_PERIOD_MS);
+        }
     }
 
     private void stopScan() {
+        mHandler.removeCallbacks(mStopRunnable);
+        if (!mScanning) {
+            return;
+        }
+        mScanning = false;
         mBluetoothAdapter.stopLeScan(this);
         setProgressBarIndeterminateVisibility(false);
+        mHandler.removeCallbacks(mRefreshMenuRunnable);
+        mMenuRefreshPending = false;
+        invalidateOptionsMenu();
     }
 
-    /* BluetoothAdapter.LeScanCallback */
+    /* BluetoothAdapter.LeScanCallback, called on a binder thread */
 
     @Override
     public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
-        Log.i(TAG, "New LE Device: " + device.getName() + " @ " + rssi);
+        ScanResults results = mScanResults;
+        if (results == null) {
+            //Detached, the scan is being stopped
+            return;
+        }
         /*
-         * We are looking for SensorTag devices only, so validate the name
-         * that each device reports before adding it to our collection
+         * Only ValedoHome sensors are kept, each once however often it advertises. Nothing
+         * here asks the device for anything, its name comes from the scan record.
          */
-        if (DEVICE_NAME.equals(device.getName())) {
-            mDevices.put(device.hashCode(), device);
-            //Update the overflow menu
-            invalidateOptionsMenu();
+        boolean found = results.offer(device.getAddress(), rssi, scanRecord);
+        if (BuildConfig.TRACE_VERBOSE) {
+            TraceBuffer.GLOBAL.record(TraceBuffer.EVENT_SCAN, rssi, found ? 1 : 0);
+        }
+        if (!found) {
+            return;
+        }
+        if (results.isComplete()) {
+            //Everything we were looking for is there, no need to keep the radio busy
+            mHandler.post(mStopRunnable);
+        } else if (!mMenuRefreshPending) {
+            //Update the overflow menu, coalescing everything found until then
+            mMenuRefreshPending = true;
+            mHandler.postDelayed(mRefreshMenuRunnable, MENU_REFRESH_MS);
         }
     }
 
     /*
-     * In this callback, we've created a bit of a state machine to enforce that only
-     * one characteristic be read or written at a time until all of our sensors
-     * are enabled and we are registered to get notifications.
+     * Connects straight to the sensors of last time, skipping the scan. Should one of them not
+     * answer, a scan for them starts instead.
      */
-    private BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
-
-        /* State Machine Tracking */
-        private int mState = 0;
-
-        private void reset() { mState = 0; }
-
-        private void advance() { mState++; }
-
-        /*
-         * Read the data characteristic's value for each sensor explicitly
-         */
-        private void readNextSensor(BluetoothGatt gatt) {
-            BluetoothGattCharacteristic characteristic;
-            Log.i(TAG, "readNextSensor: "+ mState);
-            switch (mState) {
-                case 0:
-                    Log.d(TAG, "Reading orientation");
-                    characteristic = gatt.getService(AWINDA_SERVICE)
-                            .getCharacteristic(ORIENTATION);
-                    break;
-                case 1:
-                    Log.d(TAG, "Reading velocity");
-                    characteristic = gatt.getService(AWINDA_SERVICE)
-                            .getCharacteristic(HIGH_PASS_VELOCITY);
-                    break;
-                default:
-                    mHandler.sendEmptyMessage(MSG_DISMISS);
-                    Log.i(TAG, "All Sensors Enabled");
-                    return;
+    private void reconnectLastSensors() {
+        for (String address : mService.getLastSensors()) {
+            if (BluetoothAdapter.checkBluetoothAddress(address)) {
+                mReconnecting = true;
+                connect(address, ValedoProfile.DEVICE_NAME);
             }
-
-            gatt.readCharacteristic(characteristic);
         }
+    }
 
-        /*
-         * Enable notification of changes on the data characteristic for each sensor
-         * by writing the ENABLE_NOTIFICATION_VALUE flag to that characteristic's
-         * configuration descriptor.
-         */
-        private void setNotifyNextSensor(BluetoothGatt gatt) {
-            Log.i(TAG, "setNotifyNextSensor, mState = " + mState);
-            BluetoothGattCharacteristic characteristic;
-            switch (mState) {
-                case 0:
-                    Log.d(TAG, "Set notify orientation");
-                    characteristic = gatt.getService(AWINDA_SERVICE)
-                            .getCharacteristic(ORIENTATION);
-                    break;
-                case 1:
-                    Log.d(TAG, "Set notify velocity");
-                    characteristic = gatt.getService(AWINDA_SERVICE)
-                            .getCharacteristic(HIGH_PASS_VELOCITY);
-                    break;
-                default:
-                    mHandler.sendEmptyMessage(MSG_DISMISS);
-                    Log.i(TAG, "All Sensors Enabled");
-                    return;
-            }
-
-            //Enable local notifications
-            gatt.setCharacteristicNotification(characteristic, true);
-            //Enabled remote notifications
-            BluetoothGattDescriptor desc = characteristic.getDescriptor(CONFIG_DESCRIPTOR);
-            desc.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-            gatt.writeDescriptor(desc);
-        }
+    /* SensorService.Client, called on the main thread */
 
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            Log.i(TAG, "Connection State Change: "+status+" -> "+connectionState(newState));
-            if (status == BluetoothGatt.GATT_SUCCESS && newState == BluetoothProfile.STATE_CONNECTED) {
-                /*
-                 * Once successfully connected, we must next discover all the services on the
-                 * device before we can read and write their characteristics.
-                 */
-                gatt.discoverServices();
-                mHandler.sendMessage(Message.obtain(null, MSG_PROGRESS, "Discovering Services..."));
-            } else if (status == BluetoothGatt.GATT_SUCCESS && newState == BluetoothProfile.STATE_DISCONNECTED) {
-                /*
-                 * If at any point we disconnect, send a message to clear the weather values
-                 * out of the UI
-                 */
-                mHandler.sendEmptyMessage(MSG_CLEAR);
-            } else if (status != BluetoothGatt.GATT_SUCCESS) {
-                /*
-                 * If there is a failure at any stage, simply disconnect
-                 */
-                Log.w(TAG, "onConnectionStateChange: status != GATT_SUCCESS");
-                gatt.disconnect();
+    @Override
+    public void onSessionStateChanged(SensorSession session, int state, String message) {
+        String text = session.getName() + ": " + message;
+        //Keep the progress UI up while any of the sensors is still being set up
+        if (mService.isSettingUp()) {
+            mProgress.setMessage(text);
+            if (!mProgress.isShowing()) {
+                mProgress.show();
             }
+        } else {
+            mProgress.hide();
         }
-
-        @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            Log.i(TAG, "Success: Services Discovered: "+status);
-
-            mHandler.sendMessage(Message.obtain(null, MSG_PROGRESS, "Reading Sensors..."));
-            /*
-             * With services discovered, we are going to reset our state machine and start
-             * working through the sensors we need to read
-             */
-            reset();
-            //readNextSensor(gatt); //option 1
-            setNotifyNextSensor(gatt); //option 2
+        if (state == SensorSession.STATE_STREAMING) {
+            mReconnecting = false;
         }
-
-        @Override
-        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            //For each read, pass the data up to the UI thread to update the display
-            Log.i(TAG, "onCharacteristicRead");
-            if (ORIENTATION.equals(characteristic.getUuid())) {
-                Log.d(TAG, "Sending orientation to handler");
-                mHandler.sendMessage(Message.obtain(null, MSG_ORIENTATION, characteristic));
-            }
-            if (HIGH_PASS_VELOCITY.equals(characteristic.getUuid())) {
-                Log.d(TAG, "Sending high pass velocity to handler");
-                mHandler.sendMessage(Message.obtain(null, MSG_HIGH_PASS_VELOCITY, characteristic));
+        if (state == SensorSession.STATE_DISCONNECTED) {
+            Toast.makeText(this, text, Toast.LENGTH_SHORT).show();
+            if (mReconnecting) {
+                mReconnecting = false;
+                startScan();
             }
-
-            //After reading the initial value, next we enable notifications
-            setNotifyNextSensor(gatt);
         }
+    }
 
-        @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            //After writing the enable flag, next we read the initial value
-            Log.i(TAG, "onCharacteristicWrite");
-            readNextSensor(gatt);
-        }
+    @Override
+    public void onLinkQualityChanged(SensorSession session, boolean degraded, int reasons) {
+        String text = degraded ? session.getName() + ": weak link, " + LinkMonitor.describe(reasons)
+                : session.getName() + ": link recovered";
+        Toast.makeText(this, text, Toast.LENGTH_SHORT).show();
+    }
 
-        @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            /*
-             * After notifications are enabled, all updates from the device on characteristic
-             * value changes will be posted here.  Similar to read, we hand these up to the
-             * UI thread to update the display.
-             */
-
-            Log.i(TAG, "onCharacteristicChanged");
-            if (ORIENTATION.equals(characteristic.getUuid())) {
-                mHandler.sendMessage(Message.obtain(null, MSG_ORIENTATION, characteristic));
-            }
-            if (HIGH_PASS_VELOCITY.equals(characteristic.getUuid())) {
-                mHandler.sendMessage(Message.obtain(null, MSG_HIGH_PASS_VELOCITY, characteristic));
-            }
+    @Override
+    public void onSamplesAppended(SensorFeed feed, long arrival) {
+        SensorDisplay display = getDisplay(feed);
+        display.graph.onSamplesAppended(arrival);
+        if (mService.isShowingVelocity()) {
+            display.velocityGraph.onSamplesAppended(0);
         }
+    }
 
-        @Override
-        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-            Log.i(TAG, "onDescriptorWrite");
-            //Once notifications are enabled, we move to the next sensor and start over with enable
-            advance();
-            //readNextSensor(gatt); //option 1
-            setNotifyNextSensor(gatt); //option 2
-        }
+    /*
+     * We have a Handler to run the scan and overlay timers on the main thread
+     */
+    private Handler mHandler = new Handler();
 
+    /*
+     * Shows the newest analytics of every sensor, once per frame. All the math happened on
+     * the analytics threads already, this only formats the numbers.
+     */
+    private final Choreographer.FrameCallback mMotionFrame = new Choreographer.FrameCallback() {
         @Override
-        public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
-            Log.d(TAG, "Remote RSSI: "+rssi);
-        }
-
-        private String connectionState(int status) {
-            switch (status) {
-                case BluetoothProfile.STATE_CONNECTED:
-                    return "Connected";
-                case BluetoothProfile.STATE_DISCONNECTED:
-                    return "Disconnected";
-                case BluetoothProfile.STATE_CONNECTING:
-                    return "Connecting";
-                case BluetoothProfile.STATE_DISCONNECTING:
-                    return "Disconnecting";
-                default:
-                    return String.valueOf(status);
+        public void doFrame(long frameTimeNanos) {
+            JointTracker joint = mService != null ? mService.getJoint() : null;
+            if (joint != null && mJointLine == null && !mDisplays.isEmpty()) {
+                TextView view = new TextView(MainActivity.this);
+                mGraphLayout.addView(view, 0, new LinearLayout.LayoutParams(
+                        LinearLayout.LayoutParams.MATCH_PARENT, LinearLayout.LayoutParams.WRAP_CONTENT));
+                mJointLine = new MotionLine(view, joint.getAnalytics(), "Joint ");
             }
+            if (mJointLine != null) {
+                mJointLine.update();
+            }
+            for (SensorDisplay display : mDisplays.values()) {
+                display.motion.update();
+            }
+            Choreographer.getInstance().postFrameCallback(this);
         }
     };
 
     /*
-     * We have a Handler to process event results on the main thread
+     * Graphs and analytics line of one sensor, only touched on the UI thread
      */
-
-    private static final int MSG_ORIENTATION = 101;
-    private static final int MSG_HIGH_PASS_VELOCITY = 102;
-    private static final int MSG_PROGRESS = 201;
-    private static final int MSG_DISMISS = 202;
-    private static final int MSG_CLEAR = 301;
-    private Handler mHandler = new Handler() {
-        @Override
-        public void handleMessage(Message msg) {
-            Log.i(TAG, "handleMessage: "+msg.toString());
-            BluetoothGattCharacteristic characteristic;
-            switch (msg.what) {
-                case MSG_ORIENTATION:
-                    characteristic = (BluetoothGattCharacteristic) msg.obj;
-                    if (characteristic.getValue() == null) {
-                        Log.w(TAG, "Error obtaining humidity value");
-                        return;
-                    }
-                    updateOrientationValues(characteristic);
-                    break;
-                case MSG_PROGRESS:
-                    mProgress.setMessage((String) msg.obj);
-                    if (!mProgress.isShowing()) {
-                        mProgress.show();
-                    }
-                    break;
-                case MSG_DISMISS:
-                    mProgress.hide();
-                    break;
-                case MSG_CLEAR:
-                    clearDisplayValues();
-                    break;
-            }
+    private static class SensorDisplay {
+        final QuaternionGraph graph;
+        final VelocityGraph velocityGraph;
+        final MotionLine motion;
+
+        SensorDisplay(QuaternionGraph graph, VelocityGraph velocityGraph, MotionLine motion) {
+            this.graph = graph;
+            this.velocityGraph = velocityGraph;
+            this.motion = motion;
         }
-    };
-
-    /* Methods to extract sensor data and update the UI */
-
-    private void updateOrientationValues(BluetoothGattCharacteristic characteristic) {
-//        long time = System.nanoTime();
-        byte[] bytes = characteristic.getValue();
-
-        float w = ByteBuffer.wrap(bytes, 0, 4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        float x = ByteBuffer.wrap(bytes, 4, 4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        float y = ByteBuffer.wrap(bytes, 8, 4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        float z = ByteBuffer.wrap(bytes, 12, 4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-
-        //Add the new datapoint to the graph, and it will handle the presentation
-        quaternionGraph.addDataPoint(w, x, y, z);
-
-        //testing string parse time
-//        Log.d("Float time", Long.toString(time - System.nanoTime()));
+    }
 
-//        mQuatW.setText(Float.toString(w));
-//        mQuatX.setText(Float.toString(x));
-//        mQuatY.setText(Float.toString(y));
-//        mQuatZ.setText(Float.toString(z));
+    /*
+     * Newest snapshot of one MotionAnalytics as text, only touched on the UI thread
+     */
+    private static class MotionLine {
+        final TextView view;
+        final MotionAnalytics analytics;
+        final String label;
+        final MotionSnapshot snapshot = new MotionSnapshot();
+        final StringBuilder text = new StringBuilder();
+
+        MotionLine(TextView view, MotionAnalytics analytics, String label) {
+            this.view = view;
+            this.analytics = analytics;
+            this.label = label;
+        }
 
-        //trying to figure out if printing the values is causing the 0.5s lag.
-//        Log.d("Parse time", Long.toString(time - System.nanoTime()));
+        void update() {
+            if (!analytics.read(snapshot)) {
+                return;
+            }
+            MotionSnapshot s = snapshot;
+            text.setLength(0);
+            text.append(label);
+            for (int a = 0; a < MotionStats.ANGLES; a++) {
+                text.append(MotionStats.NAMES[a]).append(' ').append(Math.round(s.angles[a])).append("\u00b0  ");
+            }
+            text.append(Math.round(s.angularSpeed)).append("\u00b0/s (peak ").append(Math.round(s.peakSpeed)).append(")\n");
+            int dominant = s.dominantAngle;
+            text.append("ROM ").append(MotionStats.NAMES[dominant]).append(' ').append(Math.round(s.ranges[dominant]))
+                    .append("\u00b0, ").append(s.repetitions[dominant]).append(" reps");
+            view.setText(text);
+        }
     }
 }
@@ -0,0 +1,272 @@
+package com.xsens.valedohome;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+/**
+ * Lightweight multi channel line plot drawing straight from a {@link HistoryBuffer}.
+ *
+ * The visible range is summarized into one min/max column per horizontal pixel, so the cost
+ * of a frame is bounded by the view width and not by how much history is shown. Every channel
+ * is drawn with a single Canvas.drawLines call from preallocated float arrays, and the Y axis
+ * is fixed, so nothing is allocated or rescanned while drawing.
+ *
+ * Dragging scrolls back through the history, pinching zooms; scrolling back to the newest
+ * sample makes the plot follow the live data again.
+ */
+public class PlotView extends View {
+    private static final int NUM_Y_LABELS = 5;
+
+    public interface OnFrameDrawnListener {
+        /*
+         * Called at the end of every onDraw
+         */
+        void onFrameDrawn(PlotView view);
+    }
+
+    private final float mDensity;
+    private final Paint mLinePaint = new Paint();
+    private final Paint mGridPaint = new Paint();
+    private final Paint mTextPaint = new Paint();
+
+    private final GestureDetector mScrollDetector;
+    private final ScaleGestureDetector mScaleDetector;
+
+    private HistoryBuffer mHistory;
+    private OnFrameDrawnListener mFrameDrawnListener;
+    private String mTitle;
+    private String[] mNames = new String[0];
+    private int[] mColors = new int[0];
+
+    private float mMinY = -1f;
+    private float mMaxY = 1f;
+    private String[] mYLabels;
+
+    /* Visible range in samples, and the sample it ends at when scrolled back (-1 follows live) */
+    private long mViewportSize;
+    private long mEnd = -1;
+
+    /* Per column summaries and line segments, sized to the view width */
+    private float[] mColumnMin = new float[0];
+    private float[] mColumnMax = new float[0];
+    private float[] mLines = new float[0];
+
+    public PlotView(Context context) {
+        this(context, null);
+    }
+
+    public PlotView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mDensity = context.getResources().getDisplayMetrics().density;
+
+        mLinePaint.setAntiAlias(true);
+        mLinePaint.setStrokeWidth(2 * mDensity);
+        mGridPaint.setColor(Color.LTGRAY);
+        mGridPaint.setStrokeWidth(mDensity);
+        mTextPaint.setAntiAlias(true);
+        mTextPaint.setColor(Color.DKGRAY);
+        mTextPaint.setTextSize(12 * mDensity);
+
+        mScrollDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                scrollBy(distanceX);
+                return true;
+            }
+        });
+        mScaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                setViewportSize((long) (mViewportSize / detector.getScaleFactor()));
+                return true;
+            }
+        });
+
+        setYRange(-1f, 1f);
+        setViewportSize(100);
+    }
+
+    /*
+     * The history is read on the UI thread while drawing, only append to it from there too
+     */
+    public void setHistory(HistoryBuffer history, String[] names, int[] colors) {
+        if (names.length != history.channels() || colors.length != history.channels()) {
+            throw new IllegalArgumentException("Need a name and color for each of the " + history.channels() + " channels");
+        }
+        mHistory = history;
+        mNames = names;
+        mColors = colors;
+        invalidate();
+    }
+
+    public void setOnFrameDrawnListener(OnFrameDrawnListener listener) {
+        mFrameDrawnListener = listener;
+    }
+
+    public void setTitle(String title) {
+        mTitle = title;
+        invalidate();
+    }
+
+    public void setYRange(float min, float max) {
+        if (!(max > min)) {
+            throw new IllegalArgumentException("Empty Y range " + min + ".." + max);
+        }
+        mMinY = min;
+        mMaxY = max;
+        mYLabels = new String[NUM_Y_LABELS];
+        for (int i = 0; i < NUM_Y_LABELS; i++) {
+            mYLabels[i] = String.format("%.2f", max - (max - min) * i / (NUM_Y_LABELS - 1));
+        }
+        invalidate();
+    }
+
+    /*
+     * Number of samples spread over the width of the view
+     */
+    public void setViewportSize(long samples) {
+        mViewportSize = Math.max(2, samples);
+        invalidate();
+    }
+
+    public long getViewportSize() {
+        return mViewportSize;
+    }
+
+    /*
+     * Jump back to the newest sample and keep following it
+     */
+    public void followLive() {
+        mEnd = -1;
+        invalidate();
+    }
+
+    private void scrollBy(float pixels) {
+        if (mHistory == null || getWidth() == 0) {
+            return;
+        }
+        long count = mHistory.count();
+        long end = mEnd < 0 ? count : mEnd;
+        end += (long) (pixels * mViewportSize / getWidth());
+        end = Math.max(end, Math.min(count, mHistory.oldest() + mViewportSize));
+        //Hitting the newest sample resumes following the live data
+        mEnd = end >= count ? -1 : end;
+        invalidate();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean handled = mScaleDetector.onTouchEvent(event);
+        handled |= mScrollDetector.onTouchEvent(event);
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        int columns = Math.max(2, w);
+        mColumnMin = new float[columns];
+        mColumnMax = new float[columns];
+        mLines = new float[columns * 8];
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        drawPlot(canvas);
+        if (mFrameDrawnListener != null) {
+            mFrameDrawnListener.onFrameDrawn(this);
+        }
+    }
+
+    private void drawPlot(Canvas canvas) {
+        float textHeight = mTextPaint.getTextSize();
+        float left = getPaddingLeft() + mTextPaint.measureText("-0.00 ");
+        float right = getWidth() - getPaddingRight();
+        float top = getPaddingTop() + textHeight * 2;
+        float bottom = getHeight() - getPaddingBottom() - textHeight / 2;
+        if (right <= left || bottom <= top) {
+            return;
+        }
+
+        //Title and legend share the first line, the grid and labels come below
+        float x = getPaddingLeft();
+        if (mTitle != null) {
+            mTextPaint.setColor(Color.DKGRAY);
+            canvas.drawText(mTitle, x, getPaddingTop() + textHeight, mTextPaint);
+            x += mTextPaint.measureText(mTitle) + textHeight;
+        }
+        for (int c = 0; c < mNames.length; c++) {
+            mTextPaint.setColor(mColors[c]);
+            canvas.drawText(mNames[c], x, getPaddingTop() + textHeight, mTextPaint);
+            x += mTextPaint.measureText(mNames[c]) + textHeight;
+        }
+
+        mTextPaint.setColor(Color.DKGRAY);
+        for (int i = 0; i < NUM_Y_LABELS; i++) {
+            float y = top + (bottom - top) * i / (NUM_Y_LABELS - 1);
+            canvas.drawLine(left, y, right, y, mGridPaint);
+            canvas.drawText(mYLabels[i], getPaddingLeft(), y + textHeight / 3, mTextPaint);
+        }
+
+        HistoryBuffer history = mHistory;
+        if (history == null) {
+            return;
+        }
+
+        /*
+         * One column per pixel over the whole viewport (or per sample when zoomed in further),
+         * the newest sample sits on the right edge. Before the history fills the viewport only
+         * the right part of the columns is used.
+         */
+        long to = mEnd < 0 ? history.count() : mEnd;
+        long start = Math.max(to - mViewportSize, history.oldest());
+        int columns = (int) Math.min(Math.min(mColumnMin.length, (int) (right - left)), mViewportSize);
+        int used = (int) ((to - start) * columns / mViewportSize);
+        if (columns < 2 || used < 2) {
+            return;
+        }
+        float stepX = (right - left) / (columns - 1);
+        float scaleY = (bottom - top) / (mMaxY - mMinY);
+
+        canvas.save();
+        canvas.clipRect(left, top, right, bottom);
+        for (int c = 0; c < history.channels(); c++) {
+            int count = history.query(c, start, to, used, mColumnMin, mColumnMax);
+            float startX = right - (count - 1) * stepX;
+            float prevX = 0;
+            float prevY = 0;
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                //A vertical stroke covering the column's range, joined to the previous column
+                float px = startX + i * stepX;
+                float minY = bottom - (mColumnMin[i] - mMinY) * scaleY;
+                float maxY = bottom - (mColumnMax[i] - mMinY) * scaleY;
+                float midY = (minY + maxY) / 2;
+                if (i > 0) {
+                    mLines[n++] = prevX;
+                    mLines[n++] = prevY;
+                    mLines[n++] = px;
+                    mLines[n++] = midY;
+                }
+                if (minY != maxY) {
+                    mLines[n++] = px;
+                    mLines[n++] = minY;
+                    mLines[n++] = px;
+                    mLines[n++] = maxY;
+                }
+                prevX = px;
+                prevY = midY;
+            }
+            mLinePaint.setColor(mColors[c]);
+            canvas.drawLines(mLines, 0, n, mLinePaint);
+        }
+        canvas.restore();
+    }
+}
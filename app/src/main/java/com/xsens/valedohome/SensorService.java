@@ -0,0 +1,513 @@
+package com.xsens.valedohome;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothManager;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Message;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Owns the sensor connections, their sample history and the recordings, so they survive the
+ * activity being rotated, covered or sent to the background.
+ *
+ * Activities bind to the service and attach a {@link Client} while they are started; detaching
+ * leaves every sensor streaming. The service runs in the foreground while any sensor is
+ * connected, and stops itself once nothing is connected and nobody is bound.
+ *
+ * Everything but the session callbacks runs on the main thread, samples are drained into the
+ * {@link SensorFeed}s right there whether or not a graph is showing them.
+ */
+public class SensorService extends Service implements SensorSession.Listener {
+    private static final String TAG = "SensorService";
+
+    private static final int NOTIFICATION_ID = 1;
+
+    /* Sensors that streamed last time, reconnected at launch without a scan */
+    private static final String PREFS = "sensors";
+    private static final String PREF_LAST_SENSORS = "last_sensors";
+
+    /*
+     * Attached activity, told about everything on the main thread
+     */
+    public interface Client {
+        void onSessionStateChanged(SensorSession session, int state, String message);
+
+        /* New samples were appended to feed, arrival is that of the oldest or 0 */
+        void onSamplesAppended(SensorFeed feed, long arrival);
+
+        /* reasons are LinkMonitor.REASON_* flags, 0 on recovery */
+        void onLinkQualityChanged(SensorSession session, boolean degraded, int reasons);
+    }
+
+    public class LocalBinder extends Binder {
+        public SensorService getService() {
+            return SensorService.this;
+        }
+    }
+
+    private final IBinder mBinder = new LocalBinder();
+    private Client mClient;
+    private boolean mBound;
+    private boolean mForeground;
+
+    private BluetoothAdapter mBluetoothAdapter;
+    private final ScanResults mScanResults = new ScanResults(ValedoProfile.AWINDA_SERVICE, ValedoProfile.DEVICE_NAME);
+    private BleSensorSource mBleSource;
+    /* Synthetic or replayed sensors, connected next to the real ones */
+    private SensorSource mSimulatedSource;
+    private SessionManager mSessions;
+    private final Map<String, SensorFeed> mFeeds = new LinkedHashMap<String, SensorFeed>();
+
+    /* Joint between the first two sensors connected, the first is the reference */
+    private JointTracker mJoint;
+
+    /* Session files being written, one per streaming sensor */
+    private final Map<String, SessionRecorder> mRecorders = new HashMap<String, SessionRecorder>();
+
+    /* Velocity is only subscribed to and kept while it is shown */
+    private boolean mShowVelocity = true;
+
+    /* Whether heading resets are also written to the sensors */
+    private boolean mPersistHeading;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        BluetoothManager manager = (BluetoothManager) getSystemService(BLUETOOTH_SERVICE);
+        mBluetoothAdapter = manager.getAdapter();
+
+        mBleSource = new BleSensorSource(this, mBluetoothAdapter, mScanResults);
+        mSessions = new SessionManager(new SessionManager.LinkFactory() {
+            @Override
+            public GattLink create(String address) {
+                SensorSource simulated = mSimulatedSource;
+                if (simulated != null && simulated.getAddresses().contains(address)) {
+                    return simulated.create(address);
+                }
+                return mBleSource.create(address);
+            }
+        }, this);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        //Nothing to resume after being killed, the sensors have to be connected again anyway
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        mBound = true;
+        return mBinder;
+    }
+
+    @Override
+    public void onRebind(Intent intent) {
+        mBound = true;
+    }
+
+    @Override
+    public boolean onUnbind(Intent intent) {
+        mBound = false;
+        mClient = null;
+        stopIfIdle();
+        return true;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacksAndMessages(null);
+        stopRecording();
+        mSessions.close();
+        closeAnalytics();
+    }
+
+    /*
+     * Attaches the activity that shows the sensors, null detaches it
+     */
+    public void setClient(Client client) {
+        mClient = client;
+    }
+
+    public ScanResults getScanResults() {
+        return mScanResults;
+    }
+
+    public List<SensorSession> getSessions() {
+        return mSessions.getSessions();
+    }
+
+    public boolean isSettingUp() {
+        return mSessions.isSettingUp();
+    }
+
+    /* Every sensor connected since the service started, in connect order */
+    public List<SensorFeed> getFeeds() {
+        return new ArrayList<SensorFeed>(mFeeds.values());
+    }
+
+    public SensorFeed connect(String address, String name) {
+        Log.i(TAG, "Connecting to "+name+", trace id "+address.hashCode());
+        SensorFeed feed = mFeeds.get(address);
+        if (feed == null) {
+            feed = new SensorFeed(address, name);
+            feed.setAnalytics(new MotionAnalytics(address));
+            mFeeds.put(address, feed);
+        }
+        //Stay alive and bound to nothing but the notification while the activity is away
+        startService(new Intent(this, SensorService.class));
+        SensorSession session = mSessions.connect(address);
+        session.setAnalytics(feed.getAnalytics());
+        if (mJoint == null && mFeeds.size() == 2) {
+            Iterator<String> addresses = mFeeds.keySet().iterator();
+            mJoint = new JointTracker(addresses.next(), addresses.next());
+            SensorSession reference = mSessions.get(mJoint.getReferenceAddress());
+            if (reference != null) {
+                reference.setJoint(mJoint.getSide(mJoint.getReferenceAddress()));
+            }
+        }
+        session.setJoint(mJoint != null ? mJoint.getSide(address) : null);
+        final SensorSession monitored = session;
+        session.getLinkMonitor().setListener(new LinkMonitor.Listener() {
+            @Override
+            public void onLinkQualityChanged(LinkMonitor monitor, boolean degraded, int reasons) {
+                mHandler.sendMessage(Message.obtain(null, MSG_LINK_QUALITY, degraded ? 1 : 0, reasons, monitored));
+            }
+        });
+        if (BuildConfig.PIPELINE_STATS && session.getStats() == null) {
+            PipelineStats stats = feed.getStats();
+            if (stats == null) {
+                stats = new PipelineStats();
+                feed.setStats(stats);
+            }
+            session.setStats(stats);
+        }
+        updateForeground();
+        return feed;
+    }
+
+    /*
+     * Connects every sensor of a synthetic or replay source, through the same sessions and
+     * feeds as real ones
+     */
+    public void connectSimulated(SensorSource source) {
+        mSimulatedSource = source;
+        for (String address : source.getAddresses()) {
+            connect(address, "Simulated");
+        }
+    }
+
+    /*
+     * Disconnects every sensor and forgets their history
+     */
+    public void disconnectAll() {
+        stopRecording();
+        mSessions.disconnectAll();
+        closeAnalytics();
+        mFeeds.clear();
+        updateForeground();
+    }
+
+    private void closeAnalytics() {
+        for (SensorFeed feed : mFeeds.values()) {
+            feed.getAnalytics().close();
+        }
+        if (mJoint != null) {
+            Log.i(TAG, "Joint " + mJoint.describe());
+            mJoint.close();
+            mJoint = null;
+        }
+    }
+
+    /*
+     * Starts range of motion and repetitions over, from the sensors' current orientation
+     */
+    public void resetMotion() {
+        for (SensorFeed feed : mFeeds.values()) {
+            feed.getAnalytics().requestReset();
+        }
+        if (mJoint != null) {
+            mJoint.getAnalytics().requestReset();
+        }
+    }
+
+    /* Joint between the first two sensors, null until two are connected */
+    public JointTracker getJoint() {
+        return mJoint;
+    }
+
+    /*
+     * Sensors connected from now on only subscribe to velocity while it is shown, which saves
+     * radio time and battery on both ends.
+     */
+    public void setShowVelocity(boolean show) {
+        mShowVelocity = show;
+        if (show) {
+            mSessions.setStreams(SensorSession.ALL_STREAMS);
+        } else {
+            mSessions.setStreams(ValedoProfile.ORIENTATION);
+        }
+    }
+
+    public boolean isShowingVelocity() {
+        return mShowVelocity;
+    }
+
+    /*
+     * Makes the current heading of every streaming sensor 0. Takes effect with the next
+     * sample, the write to the sensors (if enabled) goes on in the background.
+     */
+    public void resetHeading() {
+        for (SensorSession session : mSessions.getSessions()) {
+            session.resetHeading(mPersistHeading);
+        }
+    }
+
+    public void setPersistHeading(boolean persist) {
+        mPersistHeading = persist;
+    }
+
+    public boolean isPersistingHeading() {
+        return mPersistHeading;
+    }
+
+    public File getSessionDir() {
+        File dir = getExternalFilesDir("sessions");
+        return dir != null ? dir : new File(getFilesDir(), "sessions");
+    }
+
+    public boolean isRecording() {
+        return !mRecorders.isEmpty();
+    }
+
+    /*
+     * Starts a session file for every sensor that is streaming, in the app's external files
+     * so they can be pulled off the device
+     *
+     * @return the number of sensors being recorded
+     */
+    public int startRecording() throws IOException {
+        File dir = getSessionDir();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        String time = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        for (SensorSession session : mSessions.getSessions()) {
+            if (session.getState() != SensorSession.STATE_STREAMING) {
+                continue;
+            }
+            SessionHeader header = SessionHeader.forSensor(session.getAddress(), System.currentTimeMillis(),
+                    getStreamRate(session)).compressed();
+            File file = new File(dir, time + "-" + session.getAddress().replace(":", "") + SessionHeader.EXTENSION);
+            try {
+                SessionRecorder recorder = new SessionRecorder(file, header);
+                mRecorders.put(session.getAddress(), recorder);
+                session.setRecorder(recorder);
+                Log.i(TAG, "Recording " + session.getName() + " to " + file);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot record to " + file, e);
+            }
+        }
+        updateForeground();
+        return mRecorders.size();
+    }
+
+    /*
+     * Samples per second for the recording header, 0 if not known yet. The pipeline stats
+     * only exist in builds with PIPELINE_STATS.
+     */
+    private static float getStreamRate(SensorSession session) {
+        LinkMonitor monitor = session.getLinkMonitor();
+        float rate = monitor.getNominalRate();
+        if (rate == 0) {
+            rate = monitor.getSampleRate();
+        }
+        if (rate == 0 && BuildConfig.PIPELINE_STATS && session.getStats() != null) {
+            rate = session.getStats().getRate();
+        }
+        return rate;
+    }
+
+    public void stopRecording() {
+        for (SensorSession session : mSessions.getSessions()) {
+            session.setRecorder(null);
+        }
+        for (Map.Entry<String, SessionRecorder> entry : mRecorders.entrySet()) {
+            SessionRecorder recorder = entry.getValue();
+            try {
+                recorder.close();
+                Log.i(TAG, "Recorded " + recorder.getWritten() + " samples of " + entry.getKey()
+                        + ", " + recorder.getDropped() + " dropped");
+            } catch (IOException e) {
+                Log.e(TAG, "Recording of " + entry.getKey() + " failed", e);
+            }
+        }
+        mRecorders.clear();
+        updateForeground();
+    }
+
+    public Set<String> getLastSensors() {
+        return getSharedPreferences(PREFS, MODE_PRIVATE).getStringSet(PREF_LAST_SENSORS, Collections.<String>emptySet());
+    }
+
+    /*
+     * Remembers the real sensors that are streaming, for the next launch
+     */
+    private void rememberStreamingSensors() {
+        SensorSource simulated = mSimulatedSource;
+        Set<String> streaming = new HashSet<String>();
+        for (SensorSession session : mSessions.getSessions()) {
+            if (session.getState() == SensorSession.STATE_STREAMING
+                    && (simulated == null || !simulated.getAddresses().contains(session.getAddress()))) {
+                streaming.add(session.getAddress());
+            }
+        }
+        if (!streaming.isEmpty()) {
+            getSharedPreferences(PREFS, MODE_PRIVATE).edit().putStringSet(PREF_LAST_SENSORS, streaming).apply();
+        }
+    }
+
+    /*
+     * In the foreground, with a notification, for as long as any sensor is connected
+     */
+    private void updateForeground() {
+        int connected = 0;
+        for (SensorSession session : mSessions.getSessions()) {
+            if (session.getState() != SensorSession.STATE_DISCONNECTED) {
+                connected++;
+            }
+        }
+        if (connected == 0) {
+            if (mForeground) {
+                stopForeground(true);
+                mForeground = false;
+            }
+            stopIfIdle();
+            return;
+        }
+
+        PendingIntent open = PendingIntent.getActivity(this, 0,
+                new Intent(this, MainActivity.class).setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP), 0);
+        Notification notification = new Notification.Builder(this)
+                .setSmallIcon(R.drawable.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(connected + (connected == 1 ? " sensor" : " sensors")
+                        + (isRecording() ? ", recording" : " connected"))
+                .setContentIntent(open)
+                .setOngoing(true)
+                .build();
+        //Also just updates the notification when already in the foreground
+        startForeground(NOTIFICATION_ID, notification);
+        mForeground = true;
+    }
+
+    private void stopIfIdle() {
+        if (!mBound && !mForeground) {
+            stopSelf();
+        }
+    }
+
+    /* SensorSession.Listener, called on binder threads */
+
+    @Override
+    public void onSessionStateChanged(SensorSession session, int state, String message) {
+        Log.i(TAG, session.getAddress() + ": " + message);
+        TraceBuffer.GLOBAL.record(TraceBuffer.EVENT_STATE, session.getAddress().hashCode(), state);
+        mHandler.sendMessage(Message.obtain(null, MSG_SESSION_STATE, state, 0, new Object[] {session, message}));
+    }
+
+    @Override
+    public void onSamplesAvailable(SensorSession session) {
+        mHandler.sendMessage(Message.obtain(null, MSG_SAMPLES, session));
+    }
+
+    private static final int MSG_SAMPLES = 101;
+    private static final int MSG_SESSION_STATE = 201;
+    private static final int MSG_LINK_QUALITY = 301;
+    private Handler mHandler = new Handler() {
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_SAMPLES:
+                    drain((SensorSession) msg.obj);
+                    break;
+                case MSG_SESSION_STATE:
+                    Object[] args = (Object[]) msg.obj;
+                    SensorSession session = (SensorSession) args[0];
+                    if (msg.arg1 == SensorSession.STATE_STREAMING) {
+                        rememberStreamingSensors();
+                    }
+                    if (msg.arg1 == SensorSession.STATE_STREAMING || msg.arg1 == SensorSession.STATE_DISCONNECTED) {
+                        updateForeground();
+                    }
+                    if (mClient != null) {
+                        mClient.onSessionStateChanged(session, msg.arg1, (String) args[1]);
+                    }
+                    break;
+                case MSG_LINK_QUALITY:
+                    onLinkQualityChanged((SensorSession) msg.obj, msg.arg1 != 0, msg.arg2);
+                    break;
+            }
+        }
+    };
+
+    /*
+     * A degraded link first gets the short connection interval asked for again, which is
+     * all we can do from this end before samples get lost
+     */
+    private void onLinkQualityChanged(SensorSession session, boolean degraded, int reasons) {
+        if (degraded) {
+            Log.w(TAG, session.getAddress() + " link degraded: " + LinkMonitor.describe(reasons));
+            session.requestHighPriority();
+        } else {
+            Log.i(TAG, session.getAddress() + " link recovered");
+        }
+        if (mClient != null) {
+            mClient.onLinkQualityChanged(session, degraded, reasons);
+        }
+    }
+
+    private void drain(SensorSession session) {
+        SensorFeed feed = mFeeds.get(session.getAddress());
+        if (feed == null) {
+            //Disconnected and forgotten while the message was on its way
+            session.drain(null, null);
+            return;
+        }
+        //Both streams in one go, the graphs redraw once on the next frame
+        int drained = feed.drain(session, mShowVelocity);
+        if (BuildConfig.TRACE_VERBOSE) {
+            TraceBuffer.GLOBAL.record(TraceBuffer.EVENT_DRAIN, session.getAddress().hashCode(), drained);
+        }
+        long dropped = feed.takeNewDrops(session);
+        if (dropped > 0) {
+            TraceBuffer.GLOBAL.record(TraceBuffer.EVENT_DROPPED, session.getAddress().hashCode(), dropped);
+            Log.w(TAG, "Dropped " + dropped + " samples from " + session.getAddress() + ", main thread is falling behind");
+        }
+        if (mClient != null) {
+            mClient.onSamplesAppended(feed, feed.getLastArrival());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.xsens.valedohome;
+
+import android.app.Activity;
+import android.view.Choreographer;
+import android.view.View;
+import android.widget.LinearLayout;
+
+/**
+ * Live graph of one multi channel sample stream of a sensor, see {@link QuaternionGraph} and
+ * {@link VelocityGraph}.
+ *
+ * The graph draws a history it doesn't own, normally one of a {@link SensorFeed} kept by
+ * {@link SensorService}, so a new graph shows what came in before it was created.
+ */
+public class StreamGraph implements Choreographer.FrameCallback, PlotView.OnFrameDrawnListener {
+
+    private final String[] names;
+    private final int[] colors;
+    private PlotView plotView;
+
+    /*
+     * Samples are appended to the history when they arrive, the graph is redrawn at most once
+     * per frame no matter how many samples came in since the last one.
+     */
+    private final HistoryBuffer history;
+    private boolean frameScheduled;
+
+    /* Arrival time of the oldest sample not drawn yet, 0 when there is none */
+    private PipelineStats stats;
+    private long undrawnArrival;
+
+    private final int viewportSize;
+    private float minY = -1f;
+    private float maxY = 1f;
+
+    /*
+     * @param names        one per channel, in sample order
+     * @param colors       one per channel
+     * @param viewportSize number of most recent samples shown initially, pinch to change
+     * @param history      samples to draw, with one channel per name
+     */
+    public StreamGraph(String[] names, int[] colors, int viewportSize, HistoryBuffer history) {
+        if (history.channels() != names.length) {
+            throw new IllegalArgumentException("History has " + history.channels() + " channels");
+        }
+        this.names = names;
+        this.colors = colors;
+        this.viewportSize = viewportSize;
+        this.history = history;
+    }
+
+    /*
+     * Y axis bounds, -1..1 by default
+     */
+    public void setYRange(float min, float max) {
+        minY = min;
+        maxY = max;
+        if (plotView != null) {
+            plotView.setYRange(min, max);
+        }
+    }
+
+    /*
+     * Optional latency instrumentation, records when samples make it to the screen
+     */
+    public void setStats(PipelineStats stats) {
+        this.stats = stats;
+    }
+
+    /*
+     * Adds the graph to layout, sharing its height with any graphs already in there
+     */
+    public void showGraph(Activity activity, LinearLayout layout, String title) {
+        plotView = new PlotView(activity);
+        plotView.setTitle(title);
+        plotView.setHistory(history, names, colors);
+        plotView.setViewportSize(viewportSize);
+        plotView.setYRange(minY, maxY);
+        plotView.setOnFrameDrawnListener(this);
+
+        layout.addView(plotView, new LinearLayout.LayoutParams(
+                LinearLayout.LayoutParams.MATCH_PARENT, 0, 1f));
+    }
+
+    public void setVisible(boolean visible) {
+        if (plotView != null) {
+            plotView.setVisibility(visible ? View.VISIBLE : View.GONE);
+        }
+    }
+
+    /*
+     * Samples were appended to the history, must be called on the UI thread. arrival is the
+     * System.nanoTime() the oldest of them arrived at for latency stats, or 0.
+     */
+    public void onSamplesAppended(long arrival) {
+        if (undrawnArrival == 0) {
+            undrawnArrival = arrival;
+        }
+
+        if (!frameScheduled) {
+            frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        if (plotView != null) {
+            plotView.invalidate();
+        }
+    }
+
+    @Override
+    public void onFrameDrawn(PlotView view) {
+        if (stats != null && undrawnArrival != 0) {
+            stats.record(PipelineStats.DISPLAY, System.nanoTime() - undrawnArrival);
+        }
+        undrawnArrival = 0;
+    }
+}
@@ -0,0 +1,20 @@
+package com.xsens.valedohome;
+
+/**
+ * Graph of the HIGH_PASS_VELOCITY stream, an x, y, z vector.
+ */
+public class VelocityGraph extends StreamGraph {
+    private static final String[] NAMES = {"X", "Y", "Z"};
+    private static final int[] COLORS = {0xffff0000, 0xff00ff00, 0xff0000ff};
+
+    public VelocityGraph(HistoryBuffer history) {
+        this(100, history);
+    }
+
+    /*
+     * @param viewportSize number of most recent samples shown initially, pinch to change
+     */
+    public VelocityGraph(int viewportSize, HistoryBuffer history) {
+        super(NAMES, COLORS, viewportSize, history);
+    }
+}
@@ -0,0 +1,101 @@
+package com.xsens.valedohome.bench;
+
+import com.xsens.valedohome.JointTracker;
+import com.xsens.valedohome.OrientationAligner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aligning two synthetic 100 Hz streams the way a JointTracker does, per added sample. The
+ * segment samples 3.7 ms after the reference, arrivals jitter by up to jitterMs and lossPercent
+ * of each stream's samples never arrive.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AlignBenchmark {
+
+    private static final int SAMPLES = 8192;
+    private static final long PERIOD = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SKEW = TimeUnit.MICROSECONDS.toNanos(3700);
+
+    @Param({"0", "8"})
+    public int jitterMs;
+
+    @Param({"0", "5"})
+    public int lossPercent;
+
+    /* Arrival order of both streams, interleaved */
+    private final int[] mStreams = new int[SAMPLES];
+    private final long[] mTimes = new long[SAMPLES];
+    private final float[] mValues = new float[SAMPLES * 4];
+    private int mCount;
+    private int mIndex;
+    private long mBase;
+    private long mSpan;
+
+    private OrientationAligner mAligner;
+    private float mSink;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        long jitter = TimeUnit.MILLISECONDS.toNanos(jitterMs);
+        long t = 0;
+        mCount = 0;
+        while (mCount < SAMPLES - 1) {
+            for (int stream = 0; stream < 2; stream++) {
+                if (random.nextInt(100) < lossPercent) {
+                    continue;
+                }
+                long time = t + (stream == OrientationAligner.SEGMENT ? SKEW : 0);
+                if (jitter > 0) {
+                    time += (long) (random.nextDouble() * jitter);
+                }
+                double angle = Math.toRadians(time * 1e-8 * (stream + 1)) / 2;
+                mStreams[mCount] = stream;
+                mTimes[mCount] = time;
+                mValues[mCount * 4] = (float) Math.cos(angle);
+                mValues[mCount * 4 + 1 + stream] = (float) Math.sin(angle);
+                mCount++;
+            }
+            t += PERIOD;
+        }
+        mSpan = t + PERIOD;
+        mAligner = new OrientationAligner(JointTracker.PERIOD_NANOS, JointTracker.MAX_LATENCY_NANOS,
+                JointTracker.MAX_GAP_NANOS, new OrientationAligner.Listener() {
+                    @Override
+                    public void onAligned(long timestamp, float[] relative, int offset, boolean held) {
+                        mSink += relative[offset];
+                    }
+                });
+    }
+
+    @Benchmark
+    public float add() {
+        int i = mIndex;
+        mAligner.add(mStreams[i], mBase + mTimes[i], mValues, i * 4);
+        if (++mIndex == mCount) {
+            //Go around again, later
+            mIndex = 0;
+            mBase += mSpan;
+        }
+        return mSink;
+    }
+}
@@ -0,0 +1,87 @@
+package com.xsens.valedohome.bench;
+
+import com.xsens.valedohome.HeadingCorrection;
+import com.xsens.valedohome.SampleCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding one ORIENTATION payload into four floats, the way the app used to (a ByteBuffer
+ * per field), with a single ByteBuffer, through a FloatBuffer view and with the shifts
+ * SampleCodec uses. Every variant writes into the same preallocated array.
+ *
+ * shiftsCorrected adds the heading correction the session applies to every sample, its
+ * difference to shifts is the cost of a reset heading.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+    private byte[] mPayload;
+    private final float[] mOut = new float[SampleCodec.ORIENTATION_FLOATS];
+    private final HeadingCorrection mHeading = new HeadingCorrection();
+
+    @Setup
+    public void setup() {
+        mPayload = new byte[SampleCodec.ORIENTATION_SIZE];
+        SampleCodec.encode(new float[] {0.7071f, 0f, 0.7071f, 0f}, 0, SampleCodec.ORIENTATION_FLOATS, mPayload);
+        float[] turned = {0.9239f, 0f, 0f, 0.3827f};
+        mHeading.requestReset();
+        mHeading.applyToOrientation(turned, 0);
+    }
+
+    @Benchmark
+    public float[] wrapPerField() {
+        byte[] bytes = mPayload;
+        mOut[0] = ByteBuffer.wrap(bytes, 0, 4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+        mOut[1] = ByteBuffer.wrap(bytes, 4, 4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+        mOut[2] = ByteBuffer.wrap(bytes, 8, 4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+        mOut[3] = ByteBuffer.wrap(bytes, 12, 4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+        return mOut;
+    }
+
+    @Benchmark
+    public float[] wrapOnce() {
+        ByteBuffer buffer = ByteBuffer.wrap(mPayload).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < SampleCodec.ORIENTATION_FLOATS; i++) {
+            mOut[i] = buffer.getFloat();
+        }
+        return mOut;
+    }
+
+    @Benchmark
+    public float[] floatView() {
+        ByteBuffer.wrap(mPayload).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(mOut);
+        return mOut;
+    }
+
+    @Benchmark
+    public float[] shifts() {
+        SampleCodec.decodeOrientation(mPayload, mOut, 0);
+        return mOut;
+    }
+
+    @Benchmark
+    public float[] shiftsCorrected() {
+        SampleCodec.decodeOrientation(mPayload, mOut, 0);
+        mHeading.applyToOrientation(mOut, 0);
+        return mOut;
+    }
+}
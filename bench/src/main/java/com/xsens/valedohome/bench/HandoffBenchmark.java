@@ -0,0 +1,128 @@
+package com.xsens.valedohome.bench;
+
+import com.xsens.valedohome.SampleCodec;
+import com.xsens.valedohome.SampleRingBuffer;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handing decoded samples from the callback thread to the UI thread: one producer thread
+ * decodes payloads, one consumer drains them.
+ *
+ * "ring" is what SensorSession does, decode straight into a SampleRingBuffer slot and drain
+ * in batches. "queue" allocates an array per sample and passes it through a blocking queue,
+ * like posting a message per sample does. Both drop when the consumer falls behind, the
+ * producer's published and dropped counters show how much got through.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandoffBenchmark {
+
+    private static final int CAPACITY = 1024;
+
+    @State(Scope.Group)
+    public static class Channel {
+        SampleRingBuffer ring;
+        ArrayBlockingQueue<float[]> queue;
+        final byte[] payload = new byte[SampleCodec.ORIENTATION_SIZE];
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            ring = new SampleRingBuffer(CAPACITY, SampleCodec.ORIENTATION_FLOATS);
+            queue = new ArrayBlockingQueue<float[]>(CAPACITY);
+            SampleCodec.encode(new float[] {1f, 0f, 0f, 0f}, 0, SampleCodec.ORIENTATION_FLOATS, payload);
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Produced {
+        public long published;
+        public long dropped;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            published = 0;
+            dropped = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Drain implements SampleRingBuffer.Reader {
+        Blackhole blackhole;
+
+        @Override
+        public void onSample(long timestamp, float[] values, int offset) {
+            blackhole.consume(values[offset]);
+        }
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    public void ringProduce(Channel channel, Produced produced) {
+        SampleRingBuffer ring = channel.ring;
+        int offset = ring.claim();
+        if (offset < 0) {
+            produced.dropped++;
+            return;
+        }
+        SampleCodec.decodeOrientation(channel.payload, ring.values(), offset);
+        ring.publish(System.nanoTime());
+        produced.published++;
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    public int ringConsume(Channel channel, Drain drain, Blackhole blackhole) {
+        drain.blackhole = blackhole;
+        return channel.ring.drain(drain, CAPACITY);
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public void queueProduce(Channel channel, Produced produced) {
+        float[] sample = new float[SampleCodec.ORIENTATION_FLOATS];
+        SampleCodec.decodeOrientation(channel.payload, sample, 0);
+        if (channel.queue.offer(sample)) {
+            produced.published++;
+        } else {
+            produced.dropped++;
+        }
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public int queueConsume(Channel channel, Blackhole blackhole) {
+        int count = 0;
+        float[] sample;
+        while (count < CAPACITY && (sample = channel.queue.poll()) != null) {
+            blackhole.consume(sample[0]);
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,106 @@
+package com.xsens.valedohome.bench;
+
+import com.xsens.valedohome.HistoryBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The UI thread's share of the work per 60 Hz frame: appending the samples that arrived since
+ * the last frame to every sensor's history, and decimating a 10 s viewport of all four
+ * channels into one min/max pair per column of a 1080 pixel wide plot.
+ *
+ * Sizes match SensorFeed, histories are filled before measuring so every level is in use.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HistoryBenchmark {
+
+    private static final int CHANNELS = 4;
+    private static final int COLUMNS = 1080;
+    private static final int FRAMES_PER_SECOND = 60;
+    private static final int VIEWPORT_SECONDS = 10;
+
+    @Param({"100", "500", "1000", "2000"})
+    public int rate;
+
+    @Param({"1", "2", "4", "8"})
+    public int sensors;
+
+    private HistoryBuffer[] mHistories;
+    private final float[] mSample = new float[CHANNELS];
+    private final float[] mMin = new float[COLUMNS];
+    private final float[] mMax = new float[COLUMNS];
+
+    /* Samples due per frame, carrying the fraction over */
+    private int mPerFrame;
+    private int mRemainder;
+    private int mFraction;
+    private long mIndex;
+
+    @Setup
+    public void setup() {
+        mHistories = new HistoryBuffer[sensors];
+        for (int s = 0; s < sensors; s++) {
+            mHistories[s] = new HistoryBuffer(CHANNELS, 4096, 8);
+        }
+        mPerFrame = rate / FRAMES_PER_SECOND;
+        mRemainder = rate % FRAMES_PER_SECOND;
+        for (int i = 0; i < 4096 * 64; i++) {
+            appendAll();
+        }
+    }
+
+    private void appendAll() {
+        double t = mIndex++ * 0.01;
+        mSample[0] = (float) Math.cos(t);
+        mSample[1] = (float) Math.sin(t);
+        mSample[2] = (float) Math.sin(t * 0.3);
+        mSample[3] = (float) Math.cos(t * 0.7);
+        for (HistoryBuffer history : mHistories) {
+            history.append(mSample, 0);
+        }
+    }
+
+    @Benchmark
+    public long append() {
+        int count = mPerFrame;
+        mFraction += mRemainder;
+        if (mFraction >= FRAMES_PER_SECOND) {
+            mFraction -= FRAMES_PER_SECOND;
+            count++;
+        }
+        for (int i = 0; i < count; i++) {
+            appendAll();
+        }
+        return mIndex;
+    }
+
+    @Benchmark
+    public int decimate() {
+        int columns = 0;
+        for (HistoryBuffer history : mHistories) {
+            long to = history.count();
+            long from = to - (long) rate * VIEWPORT_SECONDS;
+            for (int c = 0; c < CHANNELS; c++) {
+                columns += history.query(c, from, to, COLUMNS, mMin, mMax);
+            }
+        }
+        return columns;
+    }
+}
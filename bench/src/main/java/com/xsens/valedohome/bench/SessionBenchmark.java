@@ -0,0 +1,137 @@
+package com.xsens.valedohome.bench;
+
+import com.xsens.valedohome.BlockWriter;
+import com.xsens.valedohome.SessionHeader;
+import com.xsens.valedohome.SessionReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compressed sessions: encoding a record into blocks and writing them out (the recorder's
+ * writer thread, per record), decoding a whole 30 minute session of one sensor at 100 Hz
+ * (replaying it into the plot), and seeking to a random minute and reading on from there.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SessionBenchmark {
+
+    private static final long MS = 1000000L;
+    private static final int SESSION_SAMPLES = 30 * 60 * 100;
+    /* Encoding starts over at the front of the file after this many records */
+    private static final int ENCODE_RECORDS = 1 << 17;
+
+    private SessionHeader mHeader;
+    private File mEncoded;
+    private RandomAccessFile mEncodedFile;
+    private BlockWriter mWriter;
+    private int mIndex;
+
+    private final float[] mOrientations = new float[1024 * 4];
+    private final float[] mVelocities = new float[1024 * 3];
+
+    private File mSession;
+    private SessionReader mReader;
+    private final Random mRandom = new Random(1);
+    private float mSink;
+
+    private final SessionReader.Callback mSum = new SessionReader.Callback() {
+        @Override
+        public void onRecord(int stream, long timestamp, float[] values, int offset) {
+            mSink += values[offset];
+        }
+    };
+
+    @Setup
+    public void setup() throws IOException {
+        mHeader = SessionHeader.forSensor("00:11:22:33:44:55", 0, 100f).compressed();
+        Random random = new Random(42);
+        for (int i = 0; i < 1024; i++) {
+            //A slow turn with some noise on top, like a sensor worn during exercises
+            double half = Math.toRadians(i * 0.3 + random.nextGaussian()) / 2;
+            mOrientations[i * 4] = (float) Math.cos(half);
+            mOrientations[i * 4 + 1] = (float) (Math.sin(half) * 0.6);
+            mOrientations[i * 4 + 3] = (float) (Math.sin(half) * 0.8);
+            for (int j = 0; j < 3; j++) {
+                mVelocities[i * 3 + j] = (float) (random.nextGaussian() * 0.5);
+            }
+        }
+
+        mEncoded = File.createTempFile("encode", SessionHeader.EXTENSION);
+        mEncodedFile = new RandomAccessFile(mEncoded, "rw");
+        mEncodedFile.getChannel().write(mHeader.encode(), 0);
+
+        mSession = File.createTempFile("session", SessionHeader.EXTENSION);
+        RandomAccessFile raf = new RandomAccessFile(mSession, "rw");
+        try {
+            raf.getChannel().write(mHeader.encode(), 0);
+            BlockWriter writer = new BlockWriter(raf.getChannel(), mHeader);
+            for (int i = 0; i < SESSION_SAMPLES; i++) {
+                int sample = i & 1023;
+                writer.append(SessionHeader.STREAM_ORIENTATION, i * 10 * MS, mOrientations, sample * 4);
+                writer.append(SessionHeader.STREAM_VELOCITY, i * 10 * MS + 3 * MS, mVelocities, sample * 3);
+            }
+            writer.finish();
+        } finally {
+            raf.close();
+        }
+        mReader = new SessionReader(mSession);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mEncodedFile.close();
+        mEncoded.delete();
+        mSession.delete();
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        if (mIndex % ENCODE_RECORDS == 0) {
+            mWriter = new BlockWriter(mEncodedFile.getChannel(), mHeader);
+        }
+        int i = mIndex++;
+        int sample = (i >> 1) & 1023;
+        if ((i & 1) == 0) {
+            mWriter.append(SessionHeader.STREAM_ORIENTATION, i * 5 * MS, mOrientations, sample * 4);
+        } else {
+            mWriter.append(SessionHeader.STREAM_VELOCITY, i * 5 * MS, mVelocities, sample * 3);
+        }
+        return mWriter.getWritten();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public float replay() {
+        mReader.read(mSum);
+        return mSink;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public float seek() {
+        long minute = mRandom.nextInt(30) * 60000 * MS;
+        //Both streams of the slack before it and the second after it
+        mReader.read(mReader.seek(minute), 400, mSum);
+        return mSink;
+    }
+}
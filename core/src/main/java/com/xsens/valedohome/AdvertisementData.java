@@ -0,0 +1,105 @@
+package com.xsens.valedohome;
+
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+/**
+ * Reads the parts of a BLE advertisement (the raw scan record) needed to recognize a sensor.
+ *
+ * The record is a sequence of length, type, data structures. Matching a service UUID walks the
+ * raw bytes without allocating, so it is cheap enough to run on every advertisement received
+ * while scanning.
+ */
+public final class AdvertisementData {
+
+    private static final int TYPE_UUID128_INCOMPLETE = 0x06;
+    private static final int TYPE_UUID128_COMPLETE = 0x07;
+    private static final int TYPE_NAME_SHORT = 0x08;
+    private static final int TYPE_NAME_COMPLETE = 0x09;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private AdvertisementData() {
+    }
+
+    /*
+     * True if the record lists service among its 128 bit service UUIDs
+     */
+    public static boolean hasService(byte[] record, UUID service) {
+        if (record == null) {
+            return false;
+        }
+        long msb = service.getMostSignificantBits();
+        long lsb = service.getLeastSignificantBits();
+        int position = 0;
+        while (position + 1 < record.length) {
+            int length = record[position] & 0xff;
+            if (length == 0 || position + 1 + length > record.length) {
+                break;
+            }
+            int type = record[position + 1] & 0xff;
+            if (type == TYPE_UUID128_INCOMPLETE || type == TYPE_UUID128_COMPLETE) {
+                for (int uuid = position + 2; uuid + 16 <= position + 1 + length; uuid += 16) {
+                    //Little endian, least significant half first
+                    if (readLong(record, uuid) == lsb && readLong(record, uuid + 8) == msb) {
+                        return true;
+                    }
+                }
+            }
+            position += 1 + length;
+        }
+        return false;
+    }
+
+    /*
+     * True if the advertised local name is name, given in UTF-8
+     */
+    public static boolean hasLocalName(byte[] record, byte[] name) {
+        int position = findName(record);
+        if (position < 0 || (record[position] & 0xff) - 1 != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (record[position + 2 + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * The advertised local name, complete or shortened, null if there is none
+     */
+    public static String getLocalName(byte[] record) {
+        int position = findName(record);
+        return position < 0 ? null : new String(record, position + 2, (record[position] & 0xff) - 1, UTF8);
+    }
+
+    /* Start of the name structure, -1 if there is none */
+    private static int findName(byte[] record) {
+        if (record == null) {
+            return -1;
+        }
+        int position = 0;
+        while (position + 1 < record.length) {
+            int length = record[position] & 0xff;
+            if (length == 0 || position + 1 + length > record.length) {
+                break;
+            }
+            int type = record[position + 1] & 0xff;
+            if (type == TYPE_NAME_COMPLETE || type == TYPE_NAME_SHORT) {
+                return position;
+            }
+            position += 1 + length;
+        }
+        return -1;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = value << 8 | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+}
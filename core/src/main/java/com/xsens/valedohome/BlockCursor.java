@@ -0,0 +1,231 @@
+package com.xsens.valedohome;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Decodes the blocks of a compressed session for {@link SessionReader}.
+ *
+ * The block index comes from the end of the file, or when the session was never closed from
+ * the block headers up to the first block that fails its checksum. Records are addressed by
+ * their index in the session like the records of an uncompressed one. Decoding keeps a cursor
+ * in the current block, so reading on from where the last read stopped costs nothing extra;
+ * anything else starts over at the beginning of the block that holds the record.
+ */
+final class BlockCursor {
+
+    private final ByteBuffer mMap;
+    private final boolean[] mQuaternion;
+    private final int[] mFloats;
+    private final int[] mPayload;
+    private final float[] mValues = new float[SessionHeader.RECORD_FLOATS];
+
+    private int mBlocks;
+    private boolean mIndexed;
+    private long[] mEarliest;
+    /* Index of the first record per block, and the record count at the end */
+    private int[] mStart;
+
+    /* The cursor: block, record index and byte position of the next record */
+    private int mBlock = -1;
+    private int mIndex;
+    private int mPosition;
+    private final long[] mPrevious;
+
+    BlockCursor(SessionHeader header, ByteBuffer map, long length) {
+        mMap = map;
+        int streams = header.getStreamCount();
+        mQuaternion = new boolean[streams];
+        mFloats = new int[streams];
+        mPayload = new int[streams];
+        mPrevious = new long[streams];
+        for (int i = 0; i < streams; i++) {
+            mQuaternion[i] = header.isQuaternion(i);
+            mFloats[i] = header.getStreamFloats(i);
+            mPayload[i] = mQuaternion[i] ? CompactCodec.QUATERNION_SIZE : mFloats[i] * CompactCodec.HALF_SIZE;
+        }
+        mIndexed = loadIndex(length);
+        if (!mIndexed) {
+            scan(length);
+        }
+    }
+
+    private boolean loadIndex(long length) {
+        long trailer = length - BlockWriter.TRAILER_SIZE;
+        if (trailer < SessionHeader.SIZE || mMap.getInt((int) trailer + 8) != BlockWriter.INDEX_MAGIC) {
+            return false;
+        }
+        int blocks = mMap.getInt((int) trailer);
+        if (blocks < 0 || blocks > (trailer - SessionHeader.SIZE) / (BlockWriter.BLOCK_SIZE + BlockWriter.INDEX_ENTRY_SIZE)) {
+            return false;
+        }
+        int index = (int) trailer - blocks * BlockWriter.INDEX_ENTRY_SIZE;
+        if (index != SessionHeader.SIZE + (long) blocks * BlockWriter.BLOCK_SIZE
+                || mMap.getInt((int) trailer + 4) != SessionHeader.checksum(mMap, index, (int) trailer + 4)) {
+            return false;
+        }
+        mEarliest = new long[blocks];
+        mStart = new int[blocks + 1];
+        for (int i = 0; i < blocks; i++) {
+            int entry = index + i * BlockWriter.INDEX_ENTRY_SIZE;
+            mEarliest[i] = mMap.getLong(entry);
+            mStart[i + 1] = mStart[i] + mMap.getInt(entry + 8);
+        }
+        mBlocks = blocks;
+        return true;
+    }
+
+    private void scan(long length) {
+        int available = (int) ((length - SessionHeader.SIZE) / BlockWriter.BLOCK_SIZE);
+        mEarliest = new long[available];
+        mStart = new int[available + 1];
+        int blocks = 0;
+        while (blocks < available && isValid(blocks)) {
+            int block = SessionHeader.SIZE + blocks * BlockWriter.BLOCK_SIZE;
+            mEarliest[blocks] = mMap.getLong(block + 16);
+            mStart[blocks + 1] = mStart[blocks] + mMap.getInt(block + 24);
+            blocks++;
+        }
+        mBlocks = blocks;
+    }
+
+    private boolean isValid(int sequence) {
+        int block = SessionHeader.SIZE + sequence * BlockWriter.BLOCK_SIZE;
+        if (mMap.getInt(block) != BlockWriter.BLOCK_MAGIC || mMap.getInt(block + 4) != sequence) {
+            return false;
+        }
+        int count = mMap.getInt(block + 24);
+        int used = mMap.getInt(block + 28);
+        if (count < 1 || used < BlockWriter.BLOCK_HEADER_SIZE || used > BlockWriter.RECORDS_END) {
+            return false;
+        }
+        int end = block + BlockWriter.RECORDS_END;
+        return mMap.getInt(end) == SessionHeader.checksum(mMap, block, end);
+    }
+
+    /* The file ends in a block index, the session was closed properly */
+    boolean isIndexed() {
+        return mIndexed;
+    }
+
+    int getBlockCount() {
+        return mBlocks;
+    }
+
+    int getRecordCount() {
+        return mStart[mBlocks];
+    }
+
+    /* Length of the header, the valid blocks and the index if there is one */
+    long getValidLength() {
+        long length = SessionHeader.SIZE + (long) mBlocks * BlockWriter.BLOCK_SIZE;
+        if (mIndexed) {
+            length += mBlocks * BlockWriter.INDEX_ENTRY_SIZE + BlockWriter.TRAILER_SIZE;
+        }
+        return length;
+    }
+
+    /* Writes the index of the valid blocks right after them */
+    void writeIndex(FileChannel channel) throws IOException {
+        int[] counts = new int[mBlocks];
+        for (int i = 0; i < mBlocks; i++) {
+            counts[i] = mStart[i + 1] - mStart[i];
+        }
+        BlockWriter.writeIndex(channel, SessionHeader.SIZE + (long) mBlocks * BlockWriter.BLOCK_SIZE,
+                mEarliest, counts, mBlocks);
+    }
+
+    /*
+     * First record of the last block that starts at or before timestamp, in ns, 0 if there is
+     * none. The blocks are in write order, which only roughly follows the timestamps.
+     */
+    int seek(long timestamp) {
+        long micros = timestamp / 1000;
+        int low = 0;
+        int high = mBlocks - 1;
+        int found = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (mEarliest[middle] <= micros) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return mStart[found];
+    }
+
+    long getTimestamp(int index) {
+        moveTo(index);
+        int saved = mPosition;
+        int stream = mMap.get(mPosition++) & 0xff;
+        long timestamp = mPrevious[stream] + CompactCodec.unzigzag(varint());
+        mPosition = saved;
+        return timestamp * 1000;
+    }
+
+    int read(int from, int max, SessionReader.Callback callback) {
+        int end = (int) Math.min(getRecordCount(), (long) from + max);
+        if (from >= end) {
+            return 0;
+        }
+        moveTo(from);
+        for (int i = from; i < end; i++) {
+            if (mIndex == mStart[mBlock + 1]) {
+                enter(mBlock + 1);
+            }
+            int stream = mMap.get(mPosition++) & 0xff;
+            long timestamp = mPrevious[stream] + CompactCodec.unzigzag(varint());
+            mPrevious[stream] = timestamp;
+            if (mQuaternion[stream]) {
+                long packed = (mMap.getShort(mPosition) & 0xffffL) | (mMap.getInt(mPosition + 2) & 0xffffffffL) << 16;
+                CompactCodec.unpackQuaternion(packed, mValues, 0);
+            } else {
+                for (int j = 0; j < mFloats[stream]; j++) {
+                    mValues[j] = CompactCodec.fromHalf(mMap.getShort(mPosition + j * CompactCodec.HALF_SIZE));
+                }
+            }
+            mPosition += mPayload[stream];
+            mIndex++;
+            callback.onRecord(stream, timestamp * 1000, mValues, 0);
+        }
+        return end - from;
+    }
+
+    private void moveTo(int index) {
+        if (mBlock < 0 || index < mIndex || index >= mStart[mBlock + 1]) {
+            //Last block starting at or before index, no block is empty
+            int block = Arrays.binarySearch(mStart, 0, mBlocks, index);
+            enter(block < 0 ? -block - 2 : block);
+        }
+        while (mIndex < index) {
+            int stream = mMap.get(mPosition++) & 0xff;
+            mPrevious[stream] += CompactCodec.unzigzag(varint());
+            mPosition += mPayload[stream];
+            mIndex++;
+        }
+    }
+
+    private void enter(int block) {
+        int position = SessionHeader.SIZE + block * BlockWriter.BLOCK_SIZE;
+        mBlock = block;
+        mIndex = mStart[block];
+        mPosition = position + BlockWriter.BLOCK_HEADER_SIZE;
+        Arrays.fill(mPrevious, mMap.getLong(position + 8));
+    }
+
+    private long varint() {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = mMap.get(mPosition++);
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
@@ -0,0 +1,203 @@
+package com.xsens.valedohome;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Encodes the records of a compressed session into fixed size blocks and writes them through
+ * a file channel after the header, see {@link SessionHeader} for the layout.
+ *
+ * A block is written once it is full, and again in place by every {@link #flush()} while it
+ * is still filling, so the file is readable up to the last flush. {@link #finish()} appends
+ * the block index that lets a reader seek without decoding. Records are encoded into a single
+ * reused direct buffer; apart from growing the index now and then, appending does not
+ * allocate. Not thread safe, {@link SessionRecorder} calls it from its writer thread.
+ */
+public final class BlockWriter {
+
+    public static final int BLOCK_SIZE = 4096;
+    public static final int BLOCK_MAGIC = 0x31424856; // "VHB1"
+    public static final int INDEX_MAGIC = 0x31584856; // "VHX1"
+
+    static final int BLOCK_HEADER_SIZE = 32;
+    static final int INDEX_ENTRY_SIZE = 12;
+    static final int TRAILER_SIZE = 12;
+
+    /* Records end where the block checksum starts */
+    static final int RECORDS_END = BLOCK_SIZE - 4;
+
+    /* Stream index, timestamp varint and the largest payload, four half floats */
+    private static final int MAX_RECORD_SIZE = 1 + CompactCodec.MAX_VARINT_SIZE
+            + Math.max(CompactCodec.QUATERNION_SIZE, SessionHeader.RECORD_FLOATS * CompactCodec.HALF_SIZE);
+
+    private final FileChannel mChannel;
+    private final boolean[] mQuaternion;
+    private final int[] mFloats;
+    private final ByteBuffer mBlock = ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    /* Previous timestamp per stream in the current block, us */
+    private final long[] mPrevious;
+
+    private int mSequence;
+    private int mCount;
+    private long mFirst;
+    private long mEarliest;
+    private boolean mDirty;
+
+    private long[] mIndexEarliest = new long[64];
+    private int[] mIndexCount = new int[64];
+
+    private long mAppended;
+    private long mWritten;
+
+    /**
+     * Blocks go right after the header, which the caller has written.
+     */
+    public BlockWriter(FileChannel channel, SessionHeader header) {
+        if (!header.isCompressed()) {
+            throw new IllegalArgumentException("Not a compressed session");
+        }
+        mChannel = channel;
+        int streams = header.getStreamCount();
+        mQuaternion = new boolean[streams];
+        mFloats = new int[streams];
+        mPrevious = new long[streams];
+        for (int i = 0; i < streams; i++) {
+            mQuaternion[i] = header.isQuaternion(i);
+            mFloats[i] = header.getStreamFloats(i);
+        }
+        startBlock(0);
+    }
+
+    /**
+     * Encodes a record, writing the current block first if it is full.
+     *
+     * @param timestamp ns since the start of the session, stored in us
+     */
+    public void append(int stream, long timestamp, float[] values, int offset) throws IOException {
+        if (mBlock.position() + MAX_RECORD_SIZE > RECORDS_END) {
+            writeBlock();
+            startBlock(mSequence + 1);
+        }
+        long micros = timestamp / 1000;
+        if (mCount == 0) {
+            mFirst = micros;
+            mEarliest = micros;
+            Arrays.fill(mPrevious, micros);
+        } else if (micros < mEarliest) {
+            mEarliest = micros;
+        }
+        mBlock.put((byte) stream);
+        CompactCodec.putVarint(mBlock, CompactCodec.zigzag(micros - mPrevious[stream]));
+        mPrevious[stream] = micros;
+        if (mQuaternion[stream]) {
+            long packed = CompactCodec.packQuaternion(values, offset);
+            mBlock.putShort((short) packed);
+            mBlock.putInt((int) (packed >>> 16));
+        } else {
+            for (int i = 0; i < mFloats[stream]; i++) {
+                mBlock.putShort(CompactCodec.toHalf(values[offset + i]));
+            }
+        }
+        mCount++;
+        mAppended++;
+        mDirty = true;
+    }
+
+    /**
+     * Writes the block that is still filling, in place. Forcing it to storage is up to the
+     * caller.
+     */
+    public void flush() throws IOException {
+        if (mDirty) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Writes the last block and the block index. Nothing may be appended after it.
+     */
+    public void finish() throws IOException {
+        flush();
+        int blocks = mCount > 0 ? mSequence + 1 : mSequence;
+        writeIndex(mChannel, SessionHeader.SIZE + (long) blocks * BLOCK_SIZE, mIndexEarliest, mIndexCount, blocks);
+    }
+
+    /* Records appended so far */
+    public long getAppended() {
+        return mAppended;
+    }
+
+    /* Records in blocks written to the channel */
+    public long getWritten() {
+        return mWritten;
+    }
+
+    public int getBlockCount() {
+        return mCount > 0 ? mSequence + 1 : mSequence;
+    }
+
+    private void startBlock(int sequence) {
+        mBlock.clear();
+        while (mBlock.hasRemaining()) {
+            mBlock.putLong(0);
+        }
+        mBlock.position(BLOCK_HEADER_SIZE);
+        mSequence = sequence;
+        mCount = 0;
+        mDirty = false;
+    }
+
+    private void writeBlock() throws IOException {
+        int used = mBlock.position();
+        mBlock.putInt(0, BLOCK_MAGIC);
+        mBlock.putInt(4, mSequence);
+        mBlock.putLong(8, mFirst);
+        mBlock.putLong(16, mEarliest);
+        mBlock.putInt(24, mCount);
+        mBlock.putInt(28, used);
+        mBlock.putInt(RECORDS_END, SessionHeader.checksum(mBlock, 0, RECORDS_END));
+
+        long position = SessionHeader.SIZE + (long) mSequence * BLOCK_SIZE;
+        mBlock.clear();
+        try {
+            while (mBlock.hasRemaining()) {
+                mChannel.write(mBlock, position + mBlock.position());
+            }
+        } finally {
+            mBlock.clear();
+            mBlock.position(used);
+        }
+
+        if (mSequence == mIndexCount.length) {
+            mIndexEarliest = Arrays.copyOf(mIndexEarliest, mSequence * 2);
+            mIndexCount = Arrays.copyOf(mIndexCount, mSequence * 2);
+        }
+        mIndexEarliest[mSequence] = mEarliest;
+        mIndexCount[mSequence] = mCount;
+        mWritten = mAppended;
+        mDirty = false;
+    }
+
+    /*
+     * Writes the index of the first blocks at position, which is where they end
+     */
+    static void writeIndex(FileChannel channel, long position, long[] earliest, int[] counts, int blocks)
+            throws IOException {
+        ByteBuffer index = ByteBuffer.allocate(blocks * INDEX_ENTRY_SIZE + TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < blocks; i++) {
+            index.putLong(earliest[i]);
+            index.putInt(counts[i]);
+        }
+        index.putInt(blocks);
+        index.putInt(SessionHeader.checksum(index, 0, index.position()));
+        index.putInt(INDEX_MAGIC);
+        index.flip();
+        while (index.hasRemaining()) {
+            channel.write(index, position + index.position());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.xsens.valedohome;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Lossy packing of samples for compressed session files, see {@link BlockWriter}.
+ *
+ * A unit quaternion is stored as its three smallest components: the largest one is made
+ * positive (q and -q are the same orientation) and recomputed from the others, which all lie
+ * within +-1/sqrt(2). Each of the three gets 15 bits, plus 2 bits for which one was dropped,
+ * 47 bits in all and well below a hundredth of a degree of error. Other samples are stored as
+ * IEEE half floats, three significant digits. Timestamps are varints of zigzagged deltas.
+ */
+public final class CompactCodec {
+
+    /* Bytes of a packed quaternion */
+    public static final int QUATERNION_SIZE = 6;
+    public static final int HALF_SIZE = 2;
+
+    /* Longest varint of a long */
+    public static final int MAX_VARINT_SIZE = 10;
+
+    private static final int COMPONENT_BITS = 15;
+    private static final int COMPONENT_MAX = (1 << COMPONENT_BITS) - 1;
+    private static final float SQRT2 = (float) Math.sqrt(2);
+
+    private CompactCodec() {
+    }
+
+    /**
+     * Packs the w, x, y, z quaternion at q[offset..] into the low 47 bits. It is normalized
+     * first, a zero or broken quaternion is stored as the identity.
+     */
+    public static long packQuaternion(float[] q, int offset) {
+        int largest = 0;
+        float norm = 0;
+        for (int i = 0; i < 4; i++) {
+            float c = q[offset + i];
+            norm += c * c;
+            if (Math.abs(c) > Math.abs(q[offset + largest])) {
+                largest = i;
+            }
+        }
+        norm = (float) Math.sqrt(norm);
+        if (!(norm > 0) || Float.isInfinite(norm)) {
+            return packIdentity();
+        }
+        float scale = (q[offset + largest] < 0 ? -SQRT2 : SQRT2) / norm;
+        long packed = largest;
+        for (int i = 0; i < 4; i++) {
+            if (i != largest) {
+                //[-1/sqrt(2), 1/sqrt(2)] onto [0, COMPONENT_MAX]
+                int v = Math.round((q[offset + i] * scale + 1f) * 0.5f * COMPONENT_MAX);
+                packed = packed << COMPONENT_BITS | Math.max(0, Math.min(COMPONENT_MAX, v));
+            }
+        }
+        return packed;
+    }
+
+    private static long packIdentity() {
+        long middle = (COMPONENT_MAX + 1) / 2;
+        return ((middle << COMPONENT_BITS | middle) << COMPONENT_BITS) | middle;
+    }
+
+    /**
+     * Unpacks a quaternion of {@link #packQuaternion} into out[offset..offset+3], unit length
+     * with a positive largest component.
+     */
+    public static void unpackQuaternion(long packed, float[] out, int offset) {
+        int largest = (int) (packed >>> 3 * COMPONENT_BITS) & 3;
+        int shift = 2 * COMPONENT_BITS;
+        float sum = 0;
+        for (int i = 0; i < 4; i++) {
+            if (i != largest) {
+                int v = (int) (packed >>> shift) & COMPONENT_MAX;
+                float c = (v * (2f / COMPONENT_MAX) - 1f) / SQRT2;
+                out[offset + i] = c;
+                sum += c * c;
+                shift -= COMPONENT_BITS;
+            }
+        }
+        out[offset + largest] = (float) Math.sqrt(Math.max(0f, 1f - sum));
+    }
+
+    /**
+     * Nearest half float, rounding halfway cases up. Values beyond the half range saturate at
+     * +-65504, NaN stays NaN.
+     */
+    public static short toHalf(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xff;
+        int mantissa = bits & 0x7fffff;
+        if (exponent == 0xff) {
+            return (short) (sign | (mantissa != 0 ? 0x7e00 : 0x7bff));
+        }
+        int e = exponent - 127 + 15;
+        if (e >= 0x1f) {
+            return (short) (sign | 0x7bff);
+        }
+        if (e <= 0) {
+            //Subnormal, or too small for anything but 0
+            if (e < -10) {
+                return (short) sign;
+            }
+            mantissa |= 0x800000;
+            int shift = 14 - e;
+            int half = mantissa >> shift;
+            if ((mantissa >> (shift - 1) & 1) != 0) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = e << 10 | mantissa >> 13;
+        if ((mantissa & 0x1000) != 0) {
+            //A carry into the exponent is still the right rounding
+            half++;
+        }
+        return (short) (sign | Math.min(half, 0x7bff));
+    }
+
+    public static float fromHalf(short half) {
+        int sign = (half & 0x8000) << 16;
+        int exponent = (half >>> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        if (exponent == 0) {
+            float value = mantissa * 5.9604645e-8f; // 2^-24
+            return sign != 0 ? -value : value;
+        }
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | mantissa << 13);
+        }
+        return Float.intBitsToFloat(sign | (exponent + 112) << 23 | mantissa << 13);
+    }
+
+    /* Small magnitudes of either sign onto small unsigned values */
+    public static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes value in 7 bit groups, low first, the top bit set on all but the last byte.
+     */
+    public static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) (value | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+}
@@ -0,0 +1,67 @@
+package com.xsens.valedohome;
+
+import java.util.UUID;
+
+/**
+ * The GATT operations a {@link SensorSession} needs from one connection.
+ *
+ * On the phone this is backed by a BluetoothGatt (see {@link AndroidGattLink}), tests use a
+ * scripted fake. Operations are asynchronous, their outcome is reported to the Callback,
+ * usually on a binder thread. Only one operation may be outstanding at a time, see
+ * {@link GattOperationQueue}.
+ */
+public interface GattLink {
+
+    interface Callback {
+        void onConnectionStateChange(boolean success, boolean connected);
+
+        void onServicesDiscovered(boolean success);
+
+        void onCharacteristicRead(UUID characteristic, byte[] value, boolean success);
+
+        void onCharacteristicWrite(UUID characteristic, boolean success);
+
+        void onDescriptorWrite(UUID characteristic, boolean success);
+
+        void onMtuChanged(int mtu, boolean success);
+
+        void onCharacteristicChanged(UUID characteristic, byte[] value);
+
+        void onReadRemoteRssi(int rssi, boolean success);
+    }
+
+    String getAddress();
+
+    String getName();
+
+    /*
+     * Starts connecting, all events of this link go to callback from then on
+     */
+    void connect(Callback callback);
+
+    boolean discoverServices();
+
+    boolean readCharacteristic(UUID service, UUID characteristic);
+
+    boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value);
+
+    /*
+     * Enables notifications locally and writes the client configuration descriptor,
+     * completion is reported through onDescriptorWrite
+     */
+    boolean enableNotifications(UUID service, UUID characteristic);
+
+    /*
+     * Both return false where the platform does not support them
+     */
+    boolean requestMtu(int mtu);
+
+    boolean requestConnectionPriority(int priority);
+
+    /*
+     * Signal strength of the connection, reported through onReadRemoteRssi
+     */
+    boolean readRemoteRssi();
+
+    void disconnect();
+}
@@ -0,0 +1,179 @@
+package com.xsens.valedohome;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One GATT request run by a {@link GattOperationQueue}, doubling as its completion future.
+ *
+ * Create one with the static factories, optionally tune the timeout and retries, and hand it
+ * to the queue. Completion can be waited for with {@link #await} or observed with a Listener,
+ * which is called on whatever thread completed the operation.
+ */
+public final class GattOperation {
+
+    public static final int DISCOVER_SERVICES = 0;
+    public static final int READ = 1;
+    public static final int WRITE = 2;
+    public static final int ENABLE_NOTIFICATIONS = 3;
+    public static final int REQUEST_MTU = 4;
+    public static final int CONNECTION_PRIORITY = 5;
+    public static final int READ_RSSI = 6;
+
+    private static final String[] TYPE_NAMES = {
+            "discover services", "read", "write", "enable notifications", "request MTU", "connection priority",
+            "read RSSI"
+    };
+
+    public static final long DEFAULT_TIMEOUT_MS = 5000;
+    public static final int DEFAULT_RETRIES = 1;
+
+    public interface Listener {
+        void onComplete(GattOperation operation);
+    }
+
+    final int mType;
+    final UUID mService;
+    final UUID mCharacteristic;
+    final byte[] mValue;
+    final int mArg;
+
+    long mTimeoutMs = DEFAULT_TIMEOUT_MS;
+    int mRetries = DEFAULT_RETRIES;
+    private Listener mListener;
+
+    /* Book keeping of the queue, guarded by the queue */
+    int mAttempts;
+    long mStartNanos;
+
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private volatile boolean mSuccess;
+    private volatile byte[] mResult;
+    private volatile int mResultArg;
+    private volatile long mLatencyNanos;
+
+    private GattOperation(int type, UUID service, UUID characteristic, byte[] value, int arg) {
+        mType = type;
+        mService = service;
+        mCharacteristic = characteristic;
+        mValue = value;
+        mArg = arg;
+    }
+
+    public static GattOperation discoverServices() {
+        return new GattOperation(DISCOVER_SERVICES, null, null, null, 0);
+    }
+
+    public static GattOperation read(UUID service, UUID characteristic) {
+        return new GattOperation(READ, service, characteristic, null, 0);
+    }
+
+    public static GattOperation write(UUID service, UUID characteristic, byte[] value) {
+        return new GattOperation(WRITE, service, characteristic, value, 0);
+    }
+
+    public static GattOperation enableNotifications(UUID service, UUID characteristic) {
+        return new GattOperation(ENABLE_NOTIFICATIONS, service, characteristic, null, 0);
+    }
+
+    public static GattOperation requestMtu(int mtu) {
+        return new GattOperation(REQUEST_MTU, null, null, null, mtu);
+    }
+
+    /*
+     * priority is one of the platform's BluetoothGatt.CONNECTION_PRIORITY_* values
+     */
+    public static GattOperation connectionPriority(int priority) {
+        return new GattOperation(CONNECTION_PRIORITY, null, null, null, priority);
+    }
+
+    public static GattOperation readRssi() {
+        return new GattOperation(READ_RSSI, null, null, null, 0);
+    }
+
+    public GattOperation setTimeout(long timeoutMs) {
+        mTimeoutMs = timeoutMs;
+        return this;
+    }
+
+    /* Number of extra attempts after a failure or timeout */
+    public GattOperation setRetries(int retries) {
+        mRetries = retries;
+        return this;
+    }
+
+    public GattOperation setListener(Listener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public UUID getCharacteristic() {
+        return mCharacteristic;
+    }
+
+    /* Records the outcome, the queue calls complete() once it let go of its lock */
+    void setOutcome(boolean success, byte[] result, int resultArg, long endNanos) {
+        mSuccess = success;
+        mResult = result;
+        mResultArg = resultArg;
+        mLatencyNanos = endNanos - mStartNanos;
+    }
+
+    void complete() {
+        mDone.countDown();
+        if (mListener != null) {
+            mListener.onComplete(this);
+        }
+    }
+
+    public boolean isDone() {
+        return mDone.getCount() == 0;
+    }
+
+    /**
+     * Waits for the operation to finish.
+     *
+     * @return false if it did not finish in time
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return mDone.await(timeout, unit);
+    }
+
+    public boolean isSuccess() {
+        return mSuccess;
+    }
+
+    /* Value of a completed read */
+    public byte[] getValue() {
+        return mResult;
+    }
+
+    /* MTU granted by a completed MTU request */
+    public int getMtu() {
+        return mResultArg;
+    }
+
+    /* Signal strength of a completed RSSI read, dBm */
+    public int getRssi() {
+        return mResultArg;
+    }
+
+    public int getAttempts() {
+        return mAttempts;
+    }
+
+    /* Time from the first attempt being started until completion, retries included */
+    public long getLatencyNanos() {
+        return mLatencyNanos;
+    }
+
+    @Override
+    public String toString() {
+        return mCharacteristic == null ? TYPE_NAMES[mType] : TYPE_NAMES[mType] + " " + mCharacteristic;
+    }
+}
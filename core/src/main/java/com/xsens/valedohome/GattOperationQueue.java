@@ -0,0 +1,238 @@
+package com.xsens.valedohome;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the GATT operations of one connection strictly one after the other.
+ *
+ * The platform only allows a single outstanding request per connection and silently drops
+ * anything issued before the previous one completed. Operations wait here until the link
+ * reports completion of the one before; an operation whose callback never arrives times out
+ * and is retried, and only fails once its retries are used up. Failures don't stop the
+ * queue, whoever enqueued an operation decides what a failure means.
+ *
+ * Listeners are called after the queue let go of its lock, so they may enqueue or clear
+ * from inside onComplete. The link's callbacks must be forwarded to the on* methods.
+ */
+public class GattOperationQueue {
+
+    private final GattLink mLink;
+    private final ScheduledExecutorService mScheduler;
+
+    private final ArrayDeque<GattOperation> mPending = new ArrayDeque<GattOperation>();
+    /* Finished under the lock, waiting for their listeners to be called outside it */
+    private final ArrayDeque<GattOperation> mFinished = new ArrayDeque<GattOperation>();
+    private GattOperation mCurrent;
+    /* clear() calls still calling listeners, nothing new is started meanwhile */
+    private int mClearing;
+    private ScheduledFuture<?> mTimeout;
+    private final int mTraceId;
+
+    public GattOperationQueue(GattLink link, ScheduledExecutorService scheduler) {
+        mLink = link;
+        mScheduler = scheduler;
+        mTraceId = link.getAddress().hashCode();
+    }
+
+    public GattOperation enqueue(GattOperation operation) {
+        synchronized (this) {
+            mPending.add(operation);
+            startNext();
+        }
+        deliver();
+        return operation;
+    }
+
+    /* Operations waiting or running */
+    public synchronized int size() {
+        return mPending.size() + (mCurrent == null ? 0 : 1);
+    }
+
+    /**
+     * Fails the running operation and everything waiting, e.g. after a disconnect. Operations
+     * enqueued by the failed ones' listeners are only started once all of them were called.
+     */
+    public void clear() {
+        ArrayList<GattOperation> cleared = new ArrayList<GattOperation>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (mCurrent != null) {
+                cancelTimeout();
+                mCurrent.setOutcome(false, null, 0, now);
+                cleared.add(mCurrent);
+                mCurrent = null;
+            }
+            for (GattOperation operation : mPending) {
+                operation.mStartNanos = now;
+                operation.setOutcome(false, null, 0, now);
+                cleared.add(operation);
+            }
+            mPending.clear();
+            mClearing++;
+        }
+        try {
+            for (GattOperation operation : cleared) {
+                operation.complete();
+            }
+        } finally {
+            synchronized (this) {
+                mClearing--;
+                startNext();
+            }
+        }
+        deliver();
+    }
+
+    private void startNext() {
+        while (mClearing == 0 && mCurrent == null && !mPending.isEmpty()) {
+            GattOperation operation = mPending.poll();
+            mCurrent = operation;
+            operation.mStartNanos = System.nanoTime();
+            attempt(operation);
+        }
+    }
+
+    private void attempt(final GattOperation operation) {
+        final int attempt = ++operation.mAttempts;
+        TraceBuffer.GLOBAL.record(TraceBuffer.EVENT_GATT_OP, mTraceId, operation.mType);
+        boolean started = dispatch(operation);
+        if (mCurrent != operation || operation.mAttempts != attempt) {
+            //Answered (or retried) synchronously, nothing left to wait for here
+            return;
+        }
+        if (!started) {
+            failed(operation);
+            return;
+        }
+        if (operation.mType == GattOperation.CONNECTION_PRIORITY) {
+            //There is no callback for this one, being accepted is all we get
+            finish(operation, true, null, operation.mArg);
+            return;
+        }
+        mTimeout = mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (GattOperationQueue.this) {
+                    if (mCurrent == operation && operation.mAttempts == attempt) {
+                        failed(operation);
+                        startNext();
+                    }
+                }
+                deliver();
+            }
+        }, operation.mTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean dispatch(GattOperation operation) {
+        switch (operation.mType) {
+            case GattOperation.DISCOVER_SERVICES:
+                return mLink.discoverServices();
+            case GattOperation.READ:
+                return mLink.readCharacteristic(operation.mService, operation.mCharacteristic);
+            case GattOperation.WRITE:
+                return mLink.writeCharacteristic(operation.mService, operation.mCharacteristic, operation.mValue);
+            case GattOperation.ENABLE_NOTIFICATIONS:
+                return mLink.enableNotifications(operation.mService, operation.mCharacteristic);
+            case GattOperation.REQUEST_MTU:
+                return mLink.requestMtu(operation.mArg);
+            case GattOperation.CONNECTION_PRIORITY:
+                return mLink.requestConnectionPriority(operation.mArg);
+            case GattOperation.READ_RSSI:
+                return mLink.readRemoteRssi();
+            default:
+                return false;
+        }
+    }
+
+    private void failed(GattOperation operation) {
+        if (operation.mAttempts <= operation.mRetries) {
+            cancelTimeout();
+            attempt(operation);
+        } else {
+            finish(operation, false, null, 0);
+        }
+    }
+
+    private void finish(GattOperation operation, boolean success, byte[] result, int resultArg) {
+        cancelTimeout();
+        mCurrent = null;
+        operation.setOutcome(success, result, resultArg, System.nanoTime());
+        mFinished.add(operation);
+    }
+
+    /*
+     * Calls the listeners of the finished operations, outside the lock. A link answering
+     * synchronously calls back in while the lock is held, the outermost caller delivers then.
+     */
+    private void deliver() {
+        if (Thread.holdsLock(this)) {
+            return;
+        }
+        while (true) {
+            GattOperation operation;
+            synchronized (this) {
+                operation = mFinished.poll();
+            }
+            if (operation == null) {
+                return;
+            }
+            operation.complete();
+        }
+    }
+
+    private void cancelTimeout() {
+        if (mTimeout != null) {
+            mTimeout.cancel(false);
+            mTimeout = null;
+        }
+    }
+
+    private void onResult(int type, UUID characteristic, boolean success, byte[] result, int resultArg) {
+        synchronized (this) {
+            GattOperation operation = mCurrent;
+            if (operation == null || operation.mType != type
+                    || (characteristic != null && !characteristic.equals(operation.mCharacteristic))) {
+                //Late answer to an operation that already timed out, or not ours at all
+                return;
+            }
+            if (success) {
+                finish(operation, true, result, resultArg);
+            } else {
+                failed(operation);
+            }
+            startNext();
+        }
+        deliver();
+    }
+
+    /* Link callbacks */
+
+    public void onServicesDiscovered(boolean success) {
+        onResult(GattOperation.DISCOVER_SERVICES, null, success, null, 0);
+    }
+
+    public void onCharacteristicRead(UUID characteristic, byte[] value, boolean success) {
+        onResult(GattOperation.READ, characteristic, success, value, 0);
+    }
+
+    public void onCharacteristicWrite(UUID characteristic, boolean success) {
+        onResult(GattOperation.WRITE, characteristic, success, null, 0);
+    }
+
+    public void onDescriptorWrite(UUID characteristic, boolean success) {
+        onResult(GattOperation.ENABLE_NOTIFICATIONS, characteristic, success, null, 0);
+    }
+
+    public void onMtuChanged(int mtu, boolean success) {
+        onResult(GattOperation.REQUEST_MTU, null, success, null, mtu);
+    }
+
+    public void onReadRemoteRssi(int rssi, boolean success) {
+        onResult(GattOperation.READ_RSSI, null, success, null, rssi);
+    }
+}
@@ -0,0 +1,118 @@
+package com.xsens.valedohome;
+
+/**
+ * Local heading reset, applied to every sample as it is decoded.
+ *
+ * A reset takes the heading (yaw about the vertical z axis) of the next orientation sample
+ * and from then on rotates every orientation back by it, so the sensor points at heading 0
+ * right away instead of after a GATT write and the sensor settling. Velocity vectors are
+ * rotated by the same angle, to stay in the same frame as the orientation.
+ *
+ * Once the same reset was written to the sensor, {@link #handOver()} ends the local
+ * correction as soon as the sensor's own output reads heading 0. Samples still in flight
+ * carry the old heading, and the sensor takes a moment to settle, so clearing right away
+ * would turn the display back by the old heading.
+ *
+ * The correction is a rotation about z only, so applying it is 8 multiplications for a
+ * quaternion and 4 for a vector, one volatile read and no allocation. requestReset() may be
+ * called from any thread, the apply methods only from the decoding thread.
+ */
+public final class HeadingCorrection {
+
+    /* a, b of the correction quaternion (a, 0, 0, b), then cos and sin of its angle */
+    private static final float[] IDENTITY = {1f, 0f, 1f, 0f};
+    /* Marker, the next orientation sample sets the correction */
+    private static final float[] RESET_PENDING = {1f, 0f, 1f, 0f};
+
+    /* How close to 0 the sensor's heading has to be for its own reset to count as taken */
+    private static final double HAND_OVER_TOLERANCE = Math.toRadians(2);
+
+    private volatile float[] mCorrection = IDENTITY;
+    private volatile boolean mHandOver;
+
+    /*
+     * The next orientation sample becomes heading 0
+     */
+    public void requestReset() {
+        mHandOver = false;
+        mCorrection = RESET_PENDING;
+    }
+
+    /*
+     * The sensor was told to reset its heading, clear the correction once its output shows it
+     */
+    public void handOver() {
+        mHandOver = true;
+    }
+
+    /* Back to the sensor's own heading */
+    public void clear() {
+        mHandOver = false;
+        mCorrection = IDENTITY;
+    }
+
+    /* Heading that is taken off every sample, in radians */
+    public float getOffset() {
+        float[] c = mCorrection;
+        return (float) -Math.atan2(c[3], c[2]);
+    }
+
+    /**
+     * Corrects the w, x, y, z quaternion at q[offset..offset+3] in place.
+     */
+    public void applyToOrientation(float[] q, int offset) {
+        float[] c = mCorrection;
+        if (c == RESET_PENDING) {
+            c = fromHeading(heading(q, offset));
+            mCorrection = c;
+        }
+        if (mHandOver && Math.abs(heading(q, offset)) < HAND_OVER_TOLERANCE) {
+            mHandOver = false;
+            c = IDENTITY;
+            mCorrection = c;
+        }
+        float a = c[0];
+        float b = c[1];
+        float w = q[offset];
+        float x = q[offset + 1];
+        float y = q[offset + 2];
+        float z = q[offset + 3];
+        //(a, 0, 0, b) * (w, x, y, z)
+        q[offset] = a * w - b * z;
+        q[offset + 1] = a * x - b * y;
+        q[offset + 2] = a * y + b * x;
+        q[offset + 3] = a * z + b * w;
+    }
+
+    /**
+     * Rotates the x, y, z vector at v[offset..offset+2] in place.
+     */
+    public void applyToVector(float[] v, int offset) {
+        float[] c = mCorrection;
+        float cos = c[2];
+        float sin = c[3];
+        float x = v[offset];
+        float y = v[offset + 1];
+        v[offset] = cos * x - sin * y;
+        v[offset + 1] = sin * x + cos * y;
+    }
+
+    /*
+     * Heading of a z up quaternion, the first angle of its z-y-x Euler decomposition
+     */
+    public static double heading(float[] q, int offset) {
+        double w = q[offset];
+        double x = q[offset + 1];
+        double y = q[offset + 2];
+        double z = q[offset + 3];
+        return Math.atan2(2 * (w * z + x * y), 1 - 2 * (y * y + z * z));
+    }
+
+    private static float[] fromHeading(double heading) {
+        double half = -heading / 2;
+        return new float[] {
+                (float) Math.cos(half), (float) Math.sin(half),
+                (float) Math.cos(-heading), (float) Math.sin(-heading)
+        };
+    }
+}
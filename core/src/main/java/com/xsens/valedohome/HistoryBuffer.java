@@ -0,0 +1,187 @@
+package com.xsens.valedohome;
+
+/**
+ * Multi resolution min/max history of a multi channel series.
+ *
+ * Level 0 keeps the raw samples, every next level keeps min/max buckets of {@link #FACTOR}
+ * buckets of the level below. Each level is a ring of the same number of buckets, so coarse
+ * levels reach much further back in time than the raw one. Buckets are completed
+ * incrementally while appending (amortized O(1), no allocation), and {@link #query} picks the
+ * level matching the requested resolution, so the cost of a query depends on the number of
+ * columns asked for and not on how much history is covered.
+ *
+ * Not thread safe, meant to be used from the UI thread only.
+ */
+public final class HistoryBuffer {
+    public static final int FACTOR = 4;
+
+    private final int mChannels;
+    private final int mCapacity;
+
+    /* Completed buckets per level, slot * channels + channel */
+    private final float[][] mMin;
+    private final float[][] mMax;
+    private final long[] mBuckets;
+
+    /* Bucket being filled per level (unused for level 0) */
+    private final float[][] mPartialMin;
+    private final float[][] mPartialMax;
+    private final int[] mPartialCount;
+
+    private long mCount;
+
+    /**
+     * @param channels values per sample
+     * @param capacity buckets kept per level
+     * @param levels   number of levels, level l has buckets of FACTOR^l samples
+     */
+    public HistoryBuffer(int channels, int capacity, int levels) {
+        if (channels <= 0 || capacity <= 0 || levels <= 0 || levels > 16) {
+            throw new IllegalArgumentException("Invalid history size");
+        }
+        mChannels = channels;
+        mCapacity = capacity;
+        mMin = new float[levels][capacity * channels];
+        mMax = new float[levels][capacity * channels];
+        mBuckets = new long[levels];
+        mPartialMin = new float[levels][channels];
+        mPartialMax = new float[levels][channels];
+        mPartialCount = new int[levels];
+    }
+
+    public int channels() {
+        return mChannels;
+    }
+
+    public int levels() {
+        return mBuckets.length;
+    }
+
+    /* Total number of samples ever appended, the newest one has index count() - 1 */
+    public long count() {
+        return mCount;
+    }
+
+    /* Index of the oldest sample that is still (coarsely) available */
+    public long oldest() {
+        int top = mBuckets.length - 1;
+        return Math.max(0, (mBuckets[top] - mCapacity) * bucketSize(top));
+    }
+
+    public static long bucketSize(int level) {
+        return 1L << (2 * level);
+    }
+
+    public void clear() {
+        mCount = 0;
+        for (int l = 0; l < mBuckets.length; l++) {
+            mBuckets[l] = 0;
+            mPartialCount[l] = 0;
+        }
+    }
+
+    /**
+     * Appends one sample, values[offset..offset+channels-1] holds a value per channel.
+     */
+    public void append(float[] values, int offset) {
+        mCount++;
+        push(0, values, offset, values, offset);
+    }
+
+    private void push(int level, float[] min, int minOffset, float[] max, int maxOffset) {
+        int base = (int) (mBuckets[level] % mCapacity) * mChannels;
+        System.arraycopy(min, minOffset, mMin[level], base, mChannels);
+        System.arraycopy(max, maxOffset, mMax[level], base, mChannels);
+        mBuckets[level]++;
+
+        int next = level + 1;
+        if (next == mBuckets.length) {
+            return;
+        }
+        float[] partialMin = mPartialMin[next];
+        float[] partialMax = mPartialMax[next];
+        if (mPartialCount[next] == 0) {
+            System.arraycopy(min, minOffset, partialMin, 0, mChannels);
+            System.arraycopy(max, maxOffset, partialMax, 0, mChannels);
+        } else {
+            for (int c = 0; c < mChannels; c++) {
+                partialMin[c] = Math.min(partialMin[c], min[minOffset + c]);
+                partialMax[c] = Math.max(partialMax[c], max[maxOffset + c]);
+            }
+        }
+        if (++mPartialCount[next] == FACTOR) {
+            mPartialCount[next] = 0;
+            push(next, partialMin, 0, partialMax, 0);
+        }
+    }
+
+    /**
+     * Raw value of a recent sample, only the last capacity samples are kept at full resolution.
+     */
+    public float get(int channel, long sample) {
+        if (sample < mCount - mCapacity || sample >= mCount || sample < 0) {
+            throw new IndexOutOfBoundsException("Sample " + sample + " is not held at full resolution");
+        }
+        return mMin[0][(int) (sample % mCapacity) * mChannels + channel];
+    }
+
+    /**
+     * Summarizes samples [from, to) of one channel into at most columns min/max pairs, each
+     * column covering an equal share of the range. When the range holds fewer samples than
+     * columns, one column per sample is returned. The range is clamped to what is available.
+     *
+     * @return the number of columns written to outMin and outMax
+     */
+    public int query(int channel, long from, long to, int columns, float[] outMin, float[] outMax) {
+        from = Math.max(from, oldest());
+        to = Math.min(to, mCount);
+        if (to <= from || columns <= 0) {
+            return 0;
+        }
+        long span = to - from;
+        if (span < columns) {
+            columns = (int) span;
+        }
+
+        //Coarsest level that still resolves a column, but coarser if that one was overwritten
+        long perColumn = span / columns;
+        int level = 0;
+        while (level + 1 < mBuckets.length && bucketSize(level + 1) <= perColumn) {
+            level++;
+        }
+        while (level + 1 < mBuckets.length && (mBuckets[level] - mCapacity) * bucketSize(level) > from) {
+            level++;
+        }
+
+        long size = bucketSize(level);
+        long firstBucket = Math.max(0, mBuckets[level] - mCapacity);
+        float[] mins = mMin[level];
+        float[] maxs = mMax[level];
+        for (int i = 0; i < columns; i++) {
+            long start = from + span * i / columns;
+            long end = from + span * (i + 1) / columns;
+            long b0 = Math.max(start / size, firstBucket);
+            long b1 = (end + size - 1) / size;
+
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (long b = b0; b < b1 && b < mBuckets[level]; b++) {
+                int index = (int) (b % mCapacity) * mChannels + channel;
+                min = Math.min(min, mins[index]);
+                max = Math.max(max, maxs[index]);
+            }
+            if (b1 > mBuckets[level]) {
+                //The newest samples are still spread over the partial buckets of lower levels
+                for (int l = level; l > 0; l--) {
+                    if (mPartialCount[l] > 0) {
+                        min = Math.min(min, mPartialMin[l][channel]);
+                        max = Math.max(max, mPartialMax[l][channel]);
+                    }
+                }
+            }
+            outMin[i] = min;
+            outMax[i] = max;
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,95 @@
+package com.xsens.valedohome;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The joint between two sensors: their orientation streams are aligned by an
+ * {@link OrientationAligner} and the relative orientation goes into a {@link MotionAnalytics}
+ * of its own, so the joint gets the same angles, range of motion and repetitions as a single
+ * sensor.
+ *
+ * Each sensor's session records through its {@link Side}, on whatever thread its callbacks
+ * come in. Aligning a sample is a couple of slerps, so the two sides simply take turns on a
+ * lock instead of handing off to another thread.
+ */
+public final class JointTracker {
+
+    /* 100 Hz, what the sensors stream at */
+    public static final long PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /* A couple of connection intervals, the jitter between two sensors' notifications */
+    public static final long MAX_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(60);
+
+    /* Interpolated over a few lost samples, beyond that a stream counts as missing */
+    public static final long MAX_GAP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * One sensor's input of the joint
+     */
+    public final class Side {
+        private final int mStream;
+
+        private Side(int stream) {
+            mStream = stream;
+        }
+
+        public void record(long timestamp, float[] values, int offset) {
+            synchronized (JointTracker.this) {
+                mAligner.add(mStream, timestamp, values, offset);
+            }
+        }
+    }
+
+    private final String mReferenceAddress;
+    private final String mSegmentAddress;
+    private final MotionAnalytics mAnalytics;
+    private final OrientationAligner mAligner;
+    private final Side mReference = new Side(OrientationAligner.REFERENCE);
+    private final Side mSegment = new Side(OrientationAligner.SEGMENT);
+
+    public JointTracker(String referenceAddress, String segmentAddress) {
+        mReferenceAddress = referenceAddress;
+        mSegmentAddress = segmentAddress;
+        mAnalytics = new MotionAnalytics(referenceAddress + "-" + segmentAddress);
+        mAligner = new OrientationAligner(PERIOD_NANOS, MAX_LATENCY_NANOS, MAX_GAP_NANOS,
+                new OrientationAligner.Listener() {
+                    @Override
+                    public void onAligned(long timestamp, float[] relative, int offset, boolean held) {
+                        mAnalytics.record(timestamp, relative, offset);
+                    }
+                });
+    }
+
+    public String getReferenceAddress() {
+        return mReferenceAddress;
+    }
+
+    public String getSegmentAddress() {
+        return mSegmentAddress;
+    }
+
+    /* The side of the sensor with address, null if it isn't part of this joint */
+    public Side getSide(String address) {
+        if (mReferenceAddress.equals(address)) {
+            return mReference;
+        }
+        if (mSegmentAddress.equals(address)) {
+            return mSegment;
+        }
+        return null;
+    }
+
+    public MotionAnalytics getAnalytics() {
+        return mAnalytics;
+    }
+
+    public synchronized String describe() {
+        OrientationAligner a = mAligner;
+        return "emitted " + a.getEmitted() + ", held " + a.getHeld() + ", skipped " + a.getSkipped()
+                + ", late " + a.getLate() + ", out of order " + a.getOutOfOrder() + ", overflow " + a.getOverflow();
+    }
+
+    public void close() {
+        mAnalytics.close();
+    }
+}
@@ -0,0 +1,91 @@
+package com.xsens.valedohome;
+
+/**
+ * Fixed memory histogram of durations, from 1 us up to well over a day.
+ *
+ * Values are bucketed log-linearly in microseconds: exact below 16 us, above that 8 buckets
+ * per power of two, so any reported percentile is within 12.5% of the real value. Recording
+ * is a few shifts and an array increment, nothing is allocated.
+ *
+ * Meant for a single writer; reading from another thread gives a slightly stale picture,
+ * which is fine for statistics.
+ */
+public final class LatencyHistogram {
+    private static final int LINEAR = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 36;
+
+    private final long[] mCounts = new long[LINEAR + (MAX_EXPONENT - 3) * SUB_BUCKETS];
+    private long mCount;
+    private long mMax;
+
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        mCounts[index(micros)]++;
+        mCount++;
+        if (nanos > mMax) {
+            mMax = nanos;
+        }
+    }
+
+    private static int index(long micros) {
+        if (micros < LINEAR) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return LINEAR + (MAX_EXPONENT - 3) * SUB_BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+    /* Upper bound of a bucket, in nanoseconds */
+    private static long upperBound(int index) {
+        if (index < LINEAR) {
+            return (index + 1) * 1000L;
+        }
+        int exponent = (index - LINEAR) / SUB_BUCKETS + 4;
+        int sub = (index - LINEAR) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((1L << exponent) + (sub + 1) * width) * 1000L;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    /* Largest value recorded, exact */
+    public long getMaxNanos() {
+        return mMax;
+    }
+
+    /**
+     * @param percentile 0..100
+     * @return the value below which that share of the recorded values fall, 0 when empty
+     */
+    public long getPercentileNanos(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(mCount * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank && seen > 0) {
+                //The last bucket also holds everything out of range
+                return i == mCounts.length - 1 ? mMax : Math.min(upperBound(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mMax = 0;
+    }
+}
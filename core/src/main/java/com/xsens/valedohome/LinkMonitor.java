@@ -0,0 +1,289 @@
+package com.xsens.valedohome;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Quality of one sensor connection, as seen from the notifications that make it through.
+ *
+ * Every ORIENTATION notification is recorded with its arrival time and the number of samples
+ * it carried. Per one second window that gives the notification and sample rate; the nominal
+ * sample rate is learned as the best rate sustained over two windows in a row, so a catch-up
+ * burst doesn't count. Notifications much further apart than usual are gaps, a long run of
+ * back to back notifications is a burst (the sensor flushing what it couldn't send), and
+ * whatever falls short of the nominal rate is the estimate of dropped samples. RSSI comes from
+ * polling, see {@link SensorSession}.
+ *
+ * The link is degraded while a window lost samples or had a gap, nothing arrived for
+ * {@link #STALL_NANOS} or the RSSI is weak, and recovers after {@link #RECOVERY_NANOS}
+ * without any of that. Memory is fixed and recording a notification does not allocate.
+ * Notifications are recorded by the binder thread, RSSI and {@link #check} may come from
+ * another one.
+ */
+public final class LinkMonitor {
+
+    public interface Listener {
+        /*
+         * Called on whichever thread noticed the change, don't block it. reasons is 0 on
+         * recovery.
+         */
+        void onLinkQualityChanged(LinkMonitor monitor, boolean degraded, int reasons);
+    }
+
+    public static final int REASON_LOSS = 1;
+    public static final int REASON_GAPS = 2;
+    public static final int REASON_RSSI = 4;
+    public static final int REASON_STALL = 8;
+
+    public static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    public static final long STALL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    public static final long RECOVERY_NANOS = TimeUnit.SECONDS.toNanos(3);
+
+    /* A window below this fraction of the nominal rate lost samples */
+    public static final float MIN_RATE_FRACTION = 0.9f;
+
+    /* A gap is this many typical intervals without a notification, and never shorter than the minimum */
+    private static final int GAP_FACTOR = 4;
+    public static final long MIN_GAP_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /*
+     * Notifications closer than this came in the same connection event. A normal event
+     * carries a few of them, longer runs are the sensor catching up.
+     */
+    private static final long BACK_TO_BACK_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    public static final int BURST_LENGTH = 8;
+
+    /* dBm, with a few dB of hysteresis before it counts as good again */
+    public static final int WEAK_RSSI = -85;
+    private static final int RSSI_HYSTERESIS = 5;
+
+    private volatile Listener mListener;
+
+    /* Arrival thread only */
+    private double mTypicalInterval;
+    private int mRun;
+    private long mWindowStart;
+    private int mWindowNotifications;
+    private int mWindowSamples;
+    private int mWindowGaps;
+    private int mWindows;
+    private float mPreviousRate;
+    private double mExpected;
+    private long mCounted;
+
+    private volatile long mLastArrival;
+    private volatile long mReceived;
+    private volatile float mNotificationRate;
+    private volatile float mSampleRate;
+    private volatile float mNominalRate;
+    private volatile long mGaps;
+    private volatile long mLongestGap;
+    private volatile long mBursts;
+    private volatile long mDropped;
+    private volatile int mWindowReasons;
+
+    /* Guarded by this */
+    private int mRssi;
+    private float mSmoothedRssi;
+    private boolean mHasRssi;
+    private boolean mDegraded;
+    private int mReasons;
+    private long mLastBad;
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * A notification with samples samples arrived (System.nanoTime()).
+     */
+    public void recordNotification(long arrival, int samples) {
+        long last = mLastArrival;
+        if (last == 0) {
+            mWindowStart = arrival;
+            mRun = 1;
+        } else {
+            long interval = arrival - last;
+            long gap = Math.max(MIN_GAP_NANOS, (long) (GAP_FACTOR * mTypicalInterval));
+            if (mTypicalInterval > 0 && interval > gap) {
+                mGaps++;
+                mWindowGaps++;
+                mLongestGap = Math.max(mLongestGap, interval);
+            } else {
+                mTypicalInterval = mTypicalInterval == 0 ? interval : mTypicalInterval + (interval - mTypicalInterval) / 16;
+            }
+            if (interval < BACK_TO_BACK_NANOS) {
+                if (++mRun == BURST_LENGTH) {
+                    mBursts++;
+                }
+            } else {
+                mRun = 1;
+            }
+        }
+        mLastArrival = arrival;
+        mReceived += samples;
+
+        if (arrival - mWindowStart >= WINDOW_NANOS) {
+            closeWindow(arrival);
+        }
+        mWindowNotifications++;
+        mWindowSamples += samples;
+    }
+
+    private void closeWindow(long now) {
+        double seconds = (now - mWindowStart) / 1e9;
+        float rate = (float) (mWindowSamples / seconds);
+        mNotificationRate = (float) (mWindowNotifications / seconds);
+        mSampleRate = rate;
+        if (mWindows++ > 0) {
+            mNominalRate = Math.max(mNominalRate, Math.min(rate, mPreviousRate));
+        }
+        mPreviousRate = rate;
+
+        int reasons = 0;
+        float nominal = mNominalRate;
+        if (nominal > 0) {
+            mExpected += nominal * seconds;
+            mCounted += mWindowSamples;
+            mDropped = Math.max(0, Math.round(mExpected - mCounted));
+            if (rate < MIN_RATE_FRACTION * nominal) {
+                reasons |= REASON_LOSS;
+            }
+        }
+        if (mWindowGaps > 0) {
+            reasons |= REASON_GAPS;
+        }
+        mWindowReasons = reasons;
+
+        mWindowStart = now;
+        mWindowNotifications = 0;
+        mWindowSamples = 0;
+        mWindowGaps = 0;
+        evaluate(now);
+    }
+
+    /**
+     * A polled RSSI reading, dBm. now is System.nanoTime().
+     */
+    public void recordRssi(int rssi, long now) {
+        synchronized (this) {
+            mRssi = rssi;
+            mSmoothedRssi = mHasRssi ? mSmoothedRssi + (rssi - mSmoothedRssi) / 4 : rssi;
+            mHasRssi = true;
+        }
+        evaluate(now);
+    }
+
+    /**
+     * Notices a link that went quiet, call it periodically. now is System.nanoTime().
+     */
+    public void check(long now) {
+        evaluate(now);
+    }
+
+    private void evaluate(long now) {
+        boolean degraded;
+        int reasons;
+        synchronized (this) {
+            reasons = mWindowReasons;
+            long last = mLastArrival;
+            if (last != 0 && now - last > STALL_NANOS) {
+                reasons |= REASON_STALL;
+            }
+            if (mHasRssi) {
+                int limit = (mReasons & REASON_RSSI) != 0 ? WEAK_RSSI + RSSI_HYSTERESIS : WEAK_RSSI;
+                if (mSmoothedRssi < limit) {
+                    reasons |= REASON_RSSI;
+                }
+            }
+            if (reasons != 0) {
+                mLastBad = now;
+            }
+            degraded = reasons != 0 || (mDegraded && now - mLastBad < RECOVERY_NANOS);
+            mReasons = reasons;
+            if (degraded == mDegraded) {
+                return;
+            }
+            mDegraded = degraded;
+        }
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onLinkQualityChanged(this, degraded, reasons);
+        }
+    }
+
+    public synchronized boolean isDegraded() {
+        return mDegraded;
+    }
+
+    /* REASON_* flags of the last evaluation */
+    public synchronized int getReasons() {
+        return mReasons;
+    }
+
+    /* Samples per second over the last complete window */
+    public float getSampleRate() {
+        return mSampleRate;
+    }
+
+    public float getNotificationRate() {
+        return mNotificationRate;
+    }
+
+    /* Learned rate the sensor streams at, 0 until two windows are complete */
+    public float getNominalRate() {
+        return mNominalRate;
+    }
+
+    public long getReceived() {
+        return mReceived;
+    }
+
+    /* Samples short of the nominal rate since it was learned */
+    public long getDropped() {
+        return mDropped;
+    }
+
+    public long getGaps() {
+        return mGaps;
+    }
+
+    public long getLongestGapNanos() {
+        return mLongestGap;
+    }
+
+    public long getBursts() {
+        return mBursts;
+    }
+
+    /* Last RSSI reading in dBm, 0 before the first */
+    public synchronized int getRssi() {
+        return mRssi;
+    }
+
+    /**
+     * Appends a one line summary. Allocates, keep it off the sample path.
+     */
+    public void report(StringBuilder out) {
+        out.append(String.format("link %.1f of %.1f Hz, %.1f notifications/s, %d gaps (longest %d ms), %d bursts, ~%d dropped, RSSI %d%s\n",
+                mSampleRate, mNominalRate, mNotificationRate, mGaps, TimeUnit.NANOSECONDS.toMillis(mLongestGap),
+                mBursts, mDropped, getRssi(), isDegraded() ? ", degraded" : ""));
+    }
+
+    /* Names of the REASON_* flags in reasons, for messages */
+    public static String describe(int reasons) {
+        StringBuilder out = new StringBuilder();
+        if ((reasons & REASON_LOSS) != 0) {
+            out.append("losing samples, ");
+        }
+        if ((reasons & REASON_GAPS) != 0) {
+            out.append("gaps, ");
+        }
+        if ((reasons & REASON_RSSI) != 0) {
+            out.append("weak signal, ");
+        }
+        if ((reasons & REASON_STALL) != 0) {
+            out.append("stalled, ");
+        }
+        return out.length() == 0 ? "ok" : out.substring(0, out.length() - 2);
+    }
+}
@@ -0,0 +1,152 @@
+package com.xsens.valedohome;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Joint angle, angular velocity, range of motion and repetition analytics of one sensor.
+ *
+ * Like {@link SessionRecorder}, the producer only copies each orientation sample into a ring.
+ * A worker thread drains the ring every {@link #PUBLISH_INTERVAL_MS} into a
+ * {@link MotionTracker}, which converts whole batches to Euler angles and updates the running
+ * {@link MotionStats}, and publishes a {@link MotionSnapshot}. Snapshots go through a triple buffer: the worker
+ * and the reader each own one, and swap with the third, so neither ever waits for the other
+ * and nothing is allocated after construction.
+ *
+ * The angle to the reference is the full rotation away from the first sample after start or
+ * {@link #requestReset()}, which makes it the joint angle of a segment whose other end holds
+ * still.
+ */
+public final class MotionAnalytics {
+
+    /* About once per frame */
+    public static final long PUBLISH_INTERVAL_MS = 16;
+
+    private static final int BUFFER_SIZE = 1024;
+    private static final int FLOATS = SampleCodec.ORIENTATION_FLOATS;
+
+    private final SampleRingBuffer mRing = new SampleRingBuffer(BUFFER_SIZE, FLOATS);
+    private final Thread mWorker;
+    private volatile boolean mClosing;
+    private volatile boolean mResetRequested;
+
+    /* Triple buffer, the middle one is shared */
+    private final AtomicReference<MotionSnapshot> mMiddle = new AtomicReference<MotionSnapshot>(new MotionSnapshot());
+    private MotionSnapshot mBack = new MotionSnapshot();
+    private MotionSnapshot mFront = new MotionSnapshot();
+
+    /* Worker thread only */
+    private final MotionTracker mTracker = new MotionTracker();
+    private long mSequence;
+
+    private final SampleRingBuffer.Reader mCollector = new SampleRingBuffer.Reader() {
+        @Override
+        public void onSample(long timestamp, float[] values, int offset) {
+            if (mResetRequested) {
+                mResetRequested = false;
+                mTracker.reset();
+            }
+            mTracker.add(timestamp, values, offset);
+        }
+    };
+
+    public MotionAnalytics(String name) {
+        mWorker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                workLoop();
+            }
+        }, "MotionAnalytics " + name);
+        mWorker.setPriority(Thread.NORM_PRIORITY - 1);
+        mWorker.start();
+    }
+
+    /**
+     * Producer side, one thread: copies a w, x, y, z sample for the worker.
+     *
+     * @return false if it was dropped because the worker fell behind
+     */
+    public boolean record(long timestamp, float[] values, int offset) {
+        int slot = mRing.claim();
+        if (slot < 0) {
+            return false;
+        }
+        System.arraycopy(values, offset, mRing.values(), slot, FLOATS);
+        mRing.publish(timestamp);
+        return true;
+    }
+
+    public long getDropped() {
+        return mRing.getDropped();
+    }
+
+    /*
+     * Starts over: ranges and repetitions are cleared and the next sample becomes the reference
+     */
+    public void requestReset() {
+        mResetRequested = true;
+    }
+
+    /**
+     * Reader side, one thread (normally the UI): copies the newest snapshot into out.
+     *
+     * @return false if there was nothing newer than what out holds
+     */
+    public boolean read(MotionSnapshot out) {
+        if (mMiddle.get().sequence > mFront.sequence) {
+            mFront = mMiddle.getAndSet(mFront);
+        }
+        if (mFront.sequence <= out.sequence) {
+            return false;
+        }
+        out.copyFrom(mFront);
+        return true;
+    }
+
+    /**
+     * Stops the worker, blocks until it is done.
+     */
+    public void close() {
+        mClosing = true;
+        LockSupport.unpark(mWorker);
+        boolean interrupted = false;
+        while (mWorker.isAlive()) {
+            try {
+                mWorker.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void workLoop() {
+        while (!mClosing) {
+            if (mRing.drain(mCollector, BUFFER_SIZE) > 0) {
+                mTracker.flush();
+                publish();
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(PUBLISH_INTERVAL_MS));
+        }
+    }
+
+    private void publish() {
+        MotionStats stats = mTracker.getStats();
+        MotionSnapshot snapshot = mBack;
+        snapshot.sequence = ++mSequence;
+        snapshot.timestamp = mTracker.getTimestamp();
+        snapshot.samples = stats.getCount();
+        for (int a = 0; a < MotionStats.ANGLES; a++) {
+            snapshot.angles[a] = mTracker.getAngle(a);
+            snapshot.ranges[a] = stats.getRange(a);
+            snapshot.repetitions[a] = stats.getRepetitions(a);
+        }
+        snapshot.dominantAngle = stats.getDominantAngle();
+        snapshot.angularSpeed = mTracker.getSpeed();
+        snapshot.peakSpeed = stats.getPeakSpeed();
+        mBack = mMiddle.getAndSet(snapshot);
+    }
+}
@@ -0,0 +1,35 @@
+package com.xsens.valedohome;
+
+/**
+ * What {@link MotionAnalytics} publishes about one sensor, a fixed size copy the UI can keep
+ * around and overwrite every frame. Angles in degrees, speeds in degrees per second.
+ */
+public final class MotionSnapshot {
+
+    /* Increases with every publication, 0 before the first */
+    public long sequence;
+    /* System.nanoTime() of the newest sample included */
+    public long timestamp;
+    public long samples;
+
+    /* Roll, pitch, yaw (unwrapped) and angle to the reference, see MotionStats */
+    public final float[] angles = new float[MotionStats.ANGLES];
+    public final float[] ranges = new float[MotionStats.ANGLES];
+    public final int[] repetitions = new int[MotionStats.ANGLES];
+    public int dominantAngle;
+
+    public float angularSpeed;
+    public float peakSpeed;
+
+    public void copyFrom(MotionSnapshot other) {
+        sequence = other.sequence;
+        timestamp = other.timestamp;
+        samples = other.samples;
+        System.arraycopy(other.angles, 0, angles, 0, angles.length);
+        System.arraycopy(other.ranges, 0, ranges, 0, ranges.length);
+        System.arraycopy(other.repetitions, 0, repetitions, 0, repetitions.length);
+        dominantAngle = other.dominantAngle;
+        angularSpeed = other.angularSpeed;
+        peakSpeed = other.peakSpeed;
+    }
+}
@@ -0,0 +1,100 @@
+package com.xsens.valedohome;
+
+/**
+ * Range of motion and repetitions of one sensor, updated in O(1) per sample.
+ *
+ * Tracked per angle: roll, pitch and yaw (unwrapped, so turning past 180 degrees doesn't look
+ * like a full swing) and the angle to the reference orientation. A repetition is counted each
+ * time an angle goes above 70% of its range so far and comes back below 30%, ranges under
+ * {@link #MIN_REPETITION_RANGE} degrees don't count as movement.
+ */
+public final class MotionStats {
+
+    public static final int ROLL = QuaternionMath.ROLL;
+    public static final int PITCH = QuaternionMath.PITCH;
+    public static final int YAW = QuaternionMath.YAW;
+    public static final int ANGLE = 3;
+    public static final int ANGLES = 4;
+
+    /* Of the angles above, for reports */
+    public static final String[] NAMES = {"roll", "pitch", "yaw", "angle"};
+
+    public static final float MIN_REPETITION_RANGE = 10f;
+    private static final float HIGH = 0.7f;
+    private static final float LOW = 0.3f;
+
+    private final float[] mMin = new float[ANGLES];
+    private final float[] mMax = new float[ANGLES];
+    private final int[] mRepetitions = new int[ANGLES];
+    private final boolean[] mHigh = new boolean[ANGLES];
+    private long mCount;
+    private float mPeakSpeed;
+
+    public void reset() {
+        mCount = 0;
+        mPeakSpeed = 0;
+        for (int a = 0; a < ANGLES; a++) {
+            mRepetitions[a] = 0;
+            mHigh[a] = false;
+        }
+    }
+
+    /**
+     * @param angles roll, pitch, yaw and the angle to the reference at angles[offset..], degrees
+     * @param speed  angular speed, degrees per second
+     */
+    public void update(float[] angles, int offset, float speed) {
+        boolean first = mCount++ == 0;
+        for (int a = 0; a < ANGLES; a++) {
+            float value = angles[offset + a];
+            if (first) {
+                mMin[a] = value;
+                mMax[a] = value;
+                continue;
+            }
+            float min = Math.min(mMin[a], value);
+            float max = Math.max(mMax[a], value);
+            mMin[a] = min;
+            mMax[a] = max;
+            float range = max - min;
+            if (range < MIN_REPETITION_RANGE) {
+                continue;
+            }
+            if (!mHigh[a] && value > min + HIGH * range) {
+                mHigh[a] = true;
+            } else if (mHigh[a] && value < min + LOW * range) {
+                mHigh[a] = false;
+                mRepetitions[a]++;
+            }
+        }
+        mPeakSpeed = Math.max(mPeakSpeed, speed);
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    /* Degrees between the lowest and highest value of angle */
+    public float getRange(int angle) {
+        return mCount == 0 ? 0 : mMax[angle] - mMin[angle];
+    }
+
+    public int getRepetitions(int angle) {
+        return mRepetitions[angle];
+    }
+
+    /* The angle that moved the most, the one repetitions are normally reported for */
+    public int getDominantAngle() {
+        int dominant = 0;
+        for (int a = 1; a < ANGLES; a++) {
+            if (getRange(a) > getRange(dominant)) {
+                dominant = a;
+            }
+        }
+        return dominant;
+    }
+
+    public float getPeakSpeed() {
+        return mPeakSpeed;
+    }
+}
@@ -0,0 +1,126 @@
+package com.xsens.valedohome;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Joint angle, angular velocity, range of motion and repetitions of one orientation stream,
+ * computed on the caller's thread.
+ *
+ * Samples are collected into batches of {@link #BATCH} and each batch is converted to Euler
+ * angles in one pass over primitive arrays before updating the running {@link MotionStats}.
+ * Yaw is unwrapped, and the angle to the reference is the full rotation away from the first
+ * sample after construction or {@link #reset()}. Memory is fixed and nothing is allocated per
+ * sample. Not thread safe: {@link MotionAnalytics} runs one on its worker thread, a batch
+ * report runs one per session.
+ */
+public final class MotionTracker {
+
+    public static final int BATCH = 128;
+
+    /* Angular speed is smoothed over roughly this long */
+    private static final long SPEED_SMOOTHING_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static final int FLOATS = SampleCodec.ORIENTATION_FLOATS;
+
+    private final float[] mBatch = new float[BATCH * FLOATS];
+    private final long[] mTimes = new long[BATCH];
+    private final float[] mEuler = new float[BATCH * 3];
+    private int mBatchCount;
+
+    private final float[] mAngles = new float[MotionStats.ANGLES];
+    private final float[] mReference = new float[FLOATS];
+    private final float[] mPrevious = new float[FLOATS];
+    private final MotionStats mStats = new MotionStats();
+    private long mPreviousTime;
+    private float mLastYaw;
+    private float mYawTurns;
+    private float mSpeed;
+
+    /**
+     * Adds a w, x, y, z sample, processing the batch once it is full.
+     */
+    public void add(long timestamp, float[] values, int offset) {
+        System.arraycopy(values, offset, mBatch, mBatchCount * FLOATS, FLOATS);
+        mTimes[mBatchCount++] = timestamp;
+        if (mBatchCount == BATCH) {
+            flush();
+        }
+    }
+
+    /**
+     * Processes the samples added since the last full batch, call it before reading results.
+     */
+    public void flush() {
+        if (mBatchCount > 0) {
+            process(mBatchCount);
+            mBatchCount = 0;
+        }
+    }
+
+    /*
+     * Starts over: ranges and repetitions are cleared and the next sample becomes the reference
+     */
+    public void reset() {
+        flush();
+        mStats.reset();
+    }
+
+    private void process(int count) {
+        QuaternionMath.toEuler(mBatch, 0, mEuler, 0, count);
+        for (int i = 0; i < count; i++) {
+            int q = i * FLOATS;
+            long time = mTimes[i];
+            if (mStats.getCount() == 0) {
+                System.arraycopy(mBatch, q, mReference, 0, FLOATS);
+                mYawTurns = 0;
+                mLastYaw = mEuler[i * 3 + QuaternionMath.YAW];
+                mSpeed = 0;
+            } else {
+                long interval = time - mPreviousTime;
+                if (interval > 0) {
+                    float speed = QuaternionMath.angleBetween(mPrevious, 0, mBatch, q) * 1e9f / interval;
+                    float alpha = Math.min(1f, (float) interval / SPEED_SMOOTHING_NANOS);
+                    mSpeed += alpha * (speed - mSpeed);
+                }
+            }
+
+            //Unwrapped yaw, a turn past 180 degrees continues instead of jumping to -180
+            float yaw = mEuler[i * 3 + QuaternionMath.YAW];
+            float step = yaw - mLastYaw;
+            if (step > 180f) {
+                mYawTurns -= 360f;
+            } else if (step < -180f) {
+                mYawTurns += 360f;
+            }
+            mLastYaw = yaw;
+
+            mAngles[MotionStats.ROLL] = mEuler[i * 3 + QuaternionMath.ROLL];
+            mAngles[MotionStats.PITCH] = mEuler[i * 3 + QuaternionMath.PITCH];
+            mAngles[MotionStats.YAW] = yaw + mYawTurns;
+            mAngles[MotionStats.ANGLE] = QuaternionMath.angleBetween(mReference, 0, mBatch, q);
+            mStats.update(mAngles, 0, mSpeed);
+
+            System.arraycopy(mBatch, q, mPrevious, 0, FLOATS);
+            mPreviousTime = time;
+        }
+    }
+
+    /* Ranges, repetitions and peak speed of the samples processed so far */
+    public MotionStats getStats() {
+        return mStats;
+    }
+
+    /* Angle of the newest processed sample, MotionStats.ROLL to ANGLE, degrees */
+    public float getAngle(int angle) {
+        return mAngles[angle];
+    }
+
+    /* Smoothed angular speed at the newest processed sample, degrees per second */
+    public float getSpeed() {
+        return mSpeed;
+    }
+
+    public long getTimestamp() {
+        return mPreviousTime;
+    }
+}
@@ -0,0 +1,247 @@
+package com.xsens.valedohome;
+
+/**
+ * Joins the orientation streams of two sensors onto one clock and emits the orientation of
+ * the segment sensor relative to the reference sensor, for example the trunk relative to
+ * the pelvis.
+ *
+ * Samples come in with the timestamps the sessions give them: arrival time, dated back by
+ * the sensor's own clock for packed payloads. Every {@code period} both streams are slerped
+ * to the same instant. The output waits for the stream that is behind, but at most
+ * {@code maxLatency}; after that the stream's newest sample is held so the other one doesn't
+ * stall. A stream with no sample within {@code maxGap} of an instant is missing and nothing
+ * is emitted for that instant; when both are missing the clock skips to where data resumes.
+ *
+ * Each stream keeps at most {@link #CAPACITY} samples and nothing is allocated after
+ * construction. Not thread safe, see {@link JointTracker}.
+ */
+public final class OrientationAligner {
+
+    public interface Listener {
+        /**
+         * @param relative conj(reference) * segment at relative[offset..], only valid during the call
+         * @param held     one of the streams had no samples around timestamp, its nearest was used
+         */
+        void onAligned(long timestamp, float[] relative, int offset, boolean held);
+    }
+
+    public static final int REFERENCE = 0;
+    public static final int SEGMENT = 1;
+
+    /* Samples kept per stream, a power of two. 1.2 s at 100 Hz, well past any sane latency bound. */
+    public static final int CAPACITY = 128;
+
+    private static final int MASK = CAPACITY - 1;
+    private static final int FLOATS = SampleCodec.ORIENTATION_FLOATS;
+
+    private static final int MISSING = 0;
+    private static final int HELD = 1;
+    private static final int FRESH = 2;
+
+    private final long mPeriod;
+    private final long mMaxLatency;
+    private final long mMaxGap;
+    private final Listener mListener;
+
+    private final long[][] mTimes = new long[2][CAPACITY];
+    private final float[][] mValues = new float[2][CAPACITY * FLOATS];
+    private final int[] mFirst = new int[2];
+    private final int[] mCount = new int[2];
+    private final long[] mNewest = new long[2];
+
+    /* Next instant to emit, once both streams have a sample */
+    private boolean mStarted;
+    private long mNext;
+
+    private final float[] mReference = new float[FLOATS];
+    private final float[] mSegment = new float[FLOATS];
+    private final float[] mRelative = new float[FLOATS];
+
+    private long mEmitted;
+    private long mHeld;
+    private long mSkipped;
+    private long mLate;
+    private long mOutOfOrder;
+    private long mOverflow;
+
+    /**
+     * @param period     nanoseconds between emitted samples
+     * @param maxLatency nanoseconds to wait for the stream that is behind
+     * @param maxGap     nanoseconds between two samples of a stream that are still interpolated
+     */
+    public OrientationAligner(long period, long maxLatency, long maxGap, Listener listener) {
+        if (period <= 0 || maxLatency < 0 || maxGap < period) {
+            throw new IllegalArgumentException("period " + period + ", latency " + maxLatency + ", gap " + maxGap);
+        }
+        mPeriod = period;
+        mMaxLatency = maxLatency;
+        mMaxGap = maxGap;
+        mListener = listener;
+    }
+
+    /**
+     * Adds a w, x, y, z sample of stream (REFERENCE or SEGMENT) and emits everything that can
+     * be emitted now. Samples older than the newest one of their stream are dropped.
+     */
+    public void add(int stream, long timestamp, float[] values, int offset) {
+        int count = mCount[stream];
+        if (count > 0 && timestamp <= mNewest[stream]) {
+            mOutOfOrder++;
+            return;
+        }
+        if (mStarted && timestamp < mNext) {
+            //Its instant was emitted already, it only still helps interpolating the next one
+            mLate++;
+        }
+        if (count == CAPACITY) {
+            mFirst[stream] = (mFirst[stream] + 1) & MASK;
+            count--;
+            mOverflow++;
+        }
+        int slot = (mFirst[stream] + count) & MASK;
+        mTimes[stream][slot] = timestamp;
+        System.arraycopy(values, offset, mValues[stream], slot * FLOATS, FLOATS);
+        mCount[stream] = count + 1;
+        mNewest[stream] = timestamp;
+
+        if (!mStarted) {
+            if (mCount[REFERENCE] == 0 || mCount[SEGMENT] == 0) {
+                return;
+            }
+            mNext = Math.max(mTimes[REFERENCE][mFirst[REFERENCE]], mTimes[SEGMENT][mFirst[SEGMENT]]);
+            mStarted = true;
+        }
+        emit();
+    }
+
+    private void emit() {
+        while (true) {
+            long t = mNext;
+            long reference = mNewest[REFERENCE];
+            long segment = mNewest[SEGMENT];
+            if ((reference < t || segment < t) && Math.max(reference, segment) - t <= mMaxLatency) {
+                //Waiting for the stream that is behind
+                return;
+            }
+            int referenceState = sample(REFERENCE, t, mReference);
+            int segmentState = sample(SEGMENT, t, mSegment);
+            if (referenceState == MISSING && segmentState == MISSING) {
+                //Both streams lost packets over t, go on from the first sample after the gap
+                long resume = Math.min(upcoming(REFERENCE, t), upcoming(SEGMENT, t));
+                if (resume == Long.MAX_VALUE) {
+                    return;
+                }
+                long steps = (resume - t + mPeriod - 1) / mPeriod;
+                mSkipped += steps;
+                mNext = t + steps * mPeriod;
+                continue;
+            }
+            if (referenceState == MISSING || segmentState == MISSING) {
+                mSkipped++;
+            } else {
+                boolean held = referenceState == HELD || segmentState == HELD;
+                if (held) {
+                    mHeld++;
+                }
+                mEmitted++;
+                QuaternionMath.relative(mReference, 0, mSegment, 0, mRelative, 0);
+                mListener.onAligned(t, mRelative, 0, held);
+            }
+            mNext = t + mPeriod;
+        }
+    }
+
+    /*
+     * Interpolates stream at t into out. Samples before the last one at or before t are no
+     * longer needed, t only moves forward.
+     */
+    private int sample(int stream, long t, float[] out) {
+        long[] times = mTimes[stream];
+        float[] values = mValues[stream];
+        int first = mFirst[stream];
+        int count = mCount[stream];
+        while (count > 1 && times[(first + 1) & MASK] <= t) {
+            first = (first + 1) & MASK;
+            count--;
+        }
+        mFirst[stream] = first;
+        mCount[stream] = count;
+
+        long before = times[first];
+        if (before == t) {
+            System.arraycopy(values, first * FLOATS, out, 0, FLOATS);
+            return FRESH;
+        }
+        if (before > t) {
+            //Every sample is after t
+            return nearest(values, first, before - t, out);
+        }
+        if (count == 1) {
+            //Nothing after t yet
+            return nearest(values, first, t - before, out);
+        }
+        int next = (first + 1) & MASK;
+        long after = times[next];
+        if (after - before <= mMaxGap) {
+            QuaternionMath.slerp(values, first * FLOATS, values, next * FLOATS,
+                    (float) (t - before) / (after - before), out, 0);
+            return FRESH;
+        }
+        //Lost packets in between, hold whichever side is near enough
+        if (t - before <= after - t) {
+            return nearest(values, first, t - before, out);
+        }
+        return nearest(values, next, after - t, out);
+    }
+
+    private int nearest(float[] values, int slot, long distance, float[] out) {
+        if (distance > mMaxGap) {
+            return MISSING;
+        }
+        System.arraycopy(values, slot * FLOATS, out, 0, FLOATS);
+        return HELD;
+    }
+
+    /* First sample of stream after t, sample() has trimmed it already */
+    private long upcoming(int stream, long t) {
+        long[] times = mTimes[stream];
+        int first = mFirst[stream];
+        if (times[first] > t) {
+            return times[first];
+        }
+        if (mCount[stream] > 1) {
+            return times[(first + 1) & MASK];
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /* Relative orientations emitted */
+    public long getEmitted() {
+        return mEmitted;
+    }
+
+    /* Emitted with one stream held */
+    public long getHeld() {
+        return mHeld;
+    }
+
+    /* Instants nothing was emitted for, one of the streams was missing */
+    public long getSkipped() {
+        return mSkipped;
+    }
+
+    /* Samples that arrived after their instant was emitted */
+    public long getLate() {
+        return mLate;
+    }
+
+    /* Samples dropped because they were older than their stream's newest */
+    public long getOutOfOrder() {
+        return mOutOfOrder;
+    }
+
+    /* Samples dropped because the other stream fell too far behind */
+    public long getOverflow() {
+        return mOverflow;
+    }
+}
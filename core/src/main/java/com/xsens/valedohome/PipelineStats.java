@@ -0,0 +1,124 @@
+package com.xsens.valedohome;
+
+/**
+ * Latency of every stage a sample passes on its way from the radio to the screen, for one
+ * sensor. All stages are measured from the moment the notification arrived:
+ *
+ * <ul>
+ * <li>DECODE: decoded into the ring buffer (binder thread)</li>
+ * <li>DISPATCH: picked up by the UI thread</li>
+ * <li>APPEND: appended to the graph</li>
+ * <li>DISPLAY: drawn, measured once per frame for the oldest sample in it</li>
+ * </ul>
+ *
+ * Arrival intervals are tracked as well, for jitter and the effective sample rate. Memory is
+ * fixed and recording does not allocate. Arrival and DECODE are written by the binder thread,
+ * the other stages by the UI thread.
+ */
+public final class PipelineStats {
+
+    public static final int DECODE = 0;
+    public static final int DISPATCH = 1;
+    public static final int APPEND = 2;
+    public static final int DISPLAY = 3;
+    private static final String[] STAGE_NAMES = {"decode", "dispatch", "append", "display"};
+
+    private static final long RATE_WINDOW_NANOS = 1000000000L;
+
+    private final LatencyHistogram[] mStages = new LatencyHistogram[STAGE_NAMES.length];
+    private final LatencyHistogram mIntervals = new LatencyHistogram();
+
+    /* Running mean and variance of the arrival interval (Welford) */
+    private long mLastArrival;
+    private long mIntervalCount;
+    private double mIntervalMean;
+    private double mIntervalM2;
+
+    /* Arrivals counted over the current window, the rate of the last complete window */
+    private long mWindowStart;
+    private int mWindowCount;
+    private volatile float mRate;
+
+    public PipelineStats() {
+        for (int i = 0; i < mStages.length; i++) {
+            mStages[i] = new LatencyHistogram();
+        }
+    }
+
+    public void recordArrival(long timestamp) {
+        if (mLastArrival != 0) {
+            long interval = timestamp - mLastArrival;
+            mIntervals.record(interval);
+            mIntervalCount++;
+            double delta = interval - mIntervalMean;
+            mIntervalMean += delta / mIntervalCount;
+            mIntervalM2 += delta * (interval - mIntervalMean);
+        }
+        mLastArrival = timestamp;
+
+        if (timestamp - mWindowStart >= RATE_WINDOW_NANOS) {
+            if (mWindowStart != 0) {
+                mRate = mWindowCount * 1e9f / (timestamp - mWindowStart);
+            }
+            mWindowStart = timestamp;
+            mWindowCount = 0;
+        }
+        mWindowCount++;
+    }
+
+    /*
+     * latency is the time since the sample arrived
+     */
+    public void record(int stage, long latencyNanos) {
+        mStages[stage].record(latencyNanos);
+    }
+
+    public LatencyHistogram getStage(int stage) {
+        return mStages[stage];
+    }
+
+    public LatencyHistogram getIntervals() {
+        return mIntervals;
+    }
+
+    /* Samples per second over the last complete second */
+    public float getRate() {
+        return mRate;
+    }
+
+    /* Standard deviation of the arrival interval */
+    public double getJitterNanos() {
+        return mIntervalCount < 2 ? 0 : Math.sqrt(mIntervalM2 / (mIntervalCount - 1));
+    }
+
+    public void reset() {
+        for (LatencyHistogram stage : mStages) {
+            stage.reset();
+        }
+        mIntervals.reset();
+        mLastArrival = 0;
+        mIntervalCount = 0;
+        mIntervalMean = 0;
+        mIntervalM2 = 0;
+    }
+
+    /**
+     * Appends a human readable summary, milliseconds throughout. Allocates, keep it off the
+     * sample path.
+     */
+    public void report(StringBuilder out) {
+        out.append(String.format("rate %.1f Hz, interval p50 %.1f p99 %.1f max %.1f, jitter %.2f\n",
+                mRate, ms(mIntervals.getPercentileNanos(50)), ms(mIntervals.getPercentileNanos(99)),
+                ms(mIntervals.getMaxNanos()), ms((long) getJitterNanos())));
+        for (int i = 0; i < mStages.length; i++) {
+            LatencyHistogram stage = mStages[i];
+            out.append(String.format("%-8s p50 %6.2f p99 %6.2f max %6.2f (n=%d)\n", STAGE_NAMES[i],
+                    ms(stage.getPercentileNanos(50)), ms(stage.getPercentileNanos(99)),
+                    ms(stage.getMaxNanos()), stage.getCount()));
+        }
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+}
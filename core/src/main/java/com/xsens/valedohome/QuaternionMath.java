@@ -0,0 +1,103 @@
+package com.xsens.valedohome;
+
+/**
+ * Quaternion math on w, x, y, z floats in primitive arrays, so whole batches are converted
+ * without creating an object per sample.
+ */
+public final class QuaternionMath {
+
+    public static final int ROLL = 0;
+    public static final int PITCH = 1;
+    public static final int YAW = 2;
+
+    private static final double DEGREES = 180 / Math.PI;
+
+    private QuaternionMath() {
+    }
+
+    /**
+     * Converts count quaternions, stored back to back from q[qOffset], to roll, pitch and yaw
+     * in degrees (z-y-x Euler angles, z up), stored back to back from out[outOffset].
+     */
+    public static void toEuler(float[] q, int qOffset, float[] out, int outOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            int s = qOffset + i * 4;
+            double w = q[s];
+            double x = q[s + 1];
+            double y = q[s + 2];
+            double z = q[s + 3];
+            //Clamped, rounding can push it just past 1 at +-90 degrees of pitch
+            double sinPitch = Math.max(-1, Math.min(1, 2 * (w * y - z * x)));
+            int o = outOffset + i * 3;
+            out[o + ROLL] = (float) (Math.atan2(2 * (w * x + y * z), 1 - 2 * (x * x + y * y)) * DEGREES);
+            out[o + PITCH] = (float) (Math.asin(sinPitch) * DEGREES);
+            out[o + YAW] = (float) (Math.atan2(2 * (w * z + x * y), 1 - 2 * (y * y + z * z)) * DEGREES);
+        }
+    }
+
+    /**
+     * Angle in degrees of the rotation between two unit quaternions, 0 to 180. Taken from
+     * the full relative rotation rather than acos of the dot product, which loses the small
+     * angles between consecutive samples to float rounding.
+     */
+    public static float angleBetween(float[] a, int aOffset, float[] b, int bOffset) {
+        double aw = a[aOffset], ax = a[aOffset + 1], ay = a[aOffset + 2], az = a[aOffset + 3];
+        double bw = b[bOffset], bx = b[bOffset + 1], by = b[bOffset + 2], bz = b[bOffset + 3];
+        //conj(a) * b
+        double w = aw * bw + ax * bx + ay * by + az * bz;
+        double x = aw * bx - ax * bw - ay * bz + az * by;
+        double y = aw * by + ax * bz - ay * bw - az * bx;
+        double z = aw * bz - ax * by + ay * bx - az * bw;
+        //q and -q are the same orientation
+        return (float) (2 * Math.atan2(Math.sqrt(x * x + y * y + z * z), Math.abs(w)) * DEGREES);
+    }
+
+    /**
+     * out = conj(a) * b, the orientation of b in the frame of a. out may be a or b.
+     */
+    public static void relative(float[] a, int aOffset, float[] b, int bOffset, float[] out, int outOffset) {
+        float aw = a[aOffset], ax = a[aOffset + 1], ay = a[aOffset + 2], az = a[aOffset + 3];
+        float bw = b[bOffset], bx = b[bOffset + 1], by = b[bOffset + 2], bz = b[bOffset + 3];
+        out[outOffset] = aw * bw + ax * bx + ay * by + az * bz;
+        out[outOffset + 1] = aw * bx - ax * bw - ay * bz + az * by;
+        out[outOffset + 2] = aw * by + ax * bz - ay * bw - az * bx;
+        out[outOffset + 3] = aw * bz - ax * by + ay * bx - az * bw;
+    }
+
+    /**
+     * Spherical interpolation from a (t = 0) to b (t = 1) along the shorter arc, normalized.
+     * Nearly equal quaternions are interpolated linearly, where sin of the angle gets too
+     * small to divide by.
+     */
+    public static void slerp(float[] a, int aOffset, float[] b, int bOffset, float t, float[] out, int outOffset) {
+        double aw = a[aOffset], ax = a[aOffset + 1], ay = a[aOffset + 2], az = a[aOffset + 3];
+        double bw = b[bOffset], bx = b[bOffset + 1], by = b[bOffset + 2], bz = b[bOffset + 3];
+        double dot = aw * bw + ax * bx + ay * by + az * bz;
+        double sign = 1;
+        if (dot < 0) {
+            dot = -dot;
+            sign = -1;
+        }
+        double fa;
+        double fb;
+        if (dot > 0.9995) {
+            fa = 1 - t;
+            fb = t;
+        } else {
+            double angle = Math.acos(dot);
+            double sin = Math.sin(angle);
+            fa = Math.sin((1 - t) * angle) / sin;
+            fb = Math.sin(t * angle) / sin;
+        }
+        fb *= sign;
+        double w = fa * aw + fb * bw;
+        double x = fa * ax + fb * bx;
+        double y = fa * ay + fb * by;
+        double z = fa * az + fb * bz;
+        double norm = 1 / Math.sqrt(w * w + x * x + y * y + z * z);
+        out[outOffset] = (float) (w * norm);
+        out[outOffset + 1] = (float) (x * norm);
+        out[outOffset + 2] = (float) (y * norm);
+        out[outOffset + 3] = (float) (z * norm);
+    }
+}
@@ -0,0 +1,109 @@
+package com.xsens.valedohome;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Plays recorded session files back as sensors, one per file.
+ *
+ * Records are re-encoded into the payloads the sensor sent and delivered in file order, paced
+ * by their timestamps divided by the speed. A speed of 0 replays as fast as the pipeline takes
+ * the samples. A sensor gets the address stored in its file; when several files come from the
+ * same sensor the later ones get a suffix.
+ */
+public class ReplaySensorSource implements SensorSource {
+
+    private final Map<String, File> mFiles = new LinkedHashMap<String, File>();
+    private final float mSpeed;
+
+    public ReplaySensorSource(List<File> files, float speed) throws IOException {
+        mSpeed = speed;
+        for (File file : files) {
+            String address = new SessionReader(file).getHeader().getAddress();
+            String unique = address;
+            for (int i = 2; mFiles.containsKey(unique); i++) {
+                unique = address + "#" + i;
+            }
+            mFiles.put(unique, file);
+        }
+    }
+
+    @Override
+    public List<String> getAddresses() {
+        return new ArrayList<String>(mFiles.keySet());
+    }
+
+    @Override
+    public GattLink create(String address) {
+        File file = mFiles.get(address);
+        if (file == null) {
+            throw new IllegalArgumentException("No recording for " + address);
+        }
+        try {
+            return new ReplayLink(address, new SessionReader(file), mSpeed);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot replay " + file, e);
+        }
+    }
+
+    /* Records sent per call when replaying as fast as possible */
+    private static final int BATCH = 256;
+
+    private static class ReplayLink extends SimulatedLink implements SessionReader.Callback {
+        private final SessionReader mReader;
+        private final float mSpeed;
+        private final UUID[] mStreams;
+        private final byte[][] mPayloads;
+
+        private long mStart;
+        private int mNext;
+
+        ReplayLink(String address, SessionReader reader, float speed) {
+            super(address, "Replay " + address);
+            mReader = reader;
+            mSpeed = speed;
+            SessionHeader header = reader.getHeader();
+            mStreams = new UUID[header.getStreamCount()];
+            mPayloads = new byte[mStreams.length][];
+            for (int i = 0; i < mStreams.length; i++) {
+                mStreams[i] = header.getStream(i);
+                mPayloads[i] = new byte[header.getStreamFloats(i) * 4];
+            }
+        }
+
+        @Override
+        protected void start(long now) {
+            mStart = now;
+            mNext = 0;
+        }
+
+        @Override
+        protected long stream(long now) {
+            int count = mReader.getRecordCount();
+            if (mSpeed <= 0) {
+                mNext += mReader.read(mNext, BATCH, this);
+                return mNext < count ? 0 : -1;
+            }
+            while (mNext < count) {
+                long due = mStart + (long) (mReader.getTimestamp(mNext) / mSpeed);
+                if (due - now > 0) {
+                    return due - now;
+                }
+                mReader.read(mNext++, 1, this);
+            }
+            return -1;
+        }
+
+        @Override
+        public void onRecord(int stream, long timestamp, float[] values, int offset) {
+            byte[] payload = mPayloads[stream];
+            SampleCodec.encode(values, offset, payload.length / 4, payload);
+            send(mStreams[stream], payload);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.xsens.valedohome;
+
+/**
+ * Decodes the little endian float payloads sent by the Awinda service, and encodes them
+ * for simulated sensors.
+ *
+ * A payload is either a single sample, just its floats, or with {@link SampleFormat#isPacked()}
+ * several samples back to back, each a uint32 sensor timestamp followed by its floats.
+ *
+ * Everything is done with shifts on the raw bytes so no ByteBuffer (or anything else)
+ * is allocated per packet; results are written into a caller supplied float array.
+ */
+public final class SampleCodec {
+
+    /* ORIENTATION carries a w, x, y, z quaternion */
+    public static final int ORIENTATION_FLOATS = 4;
+    public static final int ORIENTATION_SIZE = ORIENTATION_FLOATS * 4;
+
+    /* HIGH_PASS_VELOCITY carries an x, y, z vector */
+    public static final int VELOCITY_FLOATS = 3;
+    public static final int VELOCITY_SIZE = VELOCITY_FLOATS * 4;
+
+    /* Sensor timestamp in front of every sample of a packed payload */
+    public static final int TIMESTAMP_SIZE = 4;
+
+    private SampleCodec() {
+    }
+
+    /* Bytes per sample of a packed payload */
+    public static int packedSize(int floats) {
+        return TIMESTAMP_SIZE + floats * 4;
+    }
+
+    /**
+     * Number of samples in a packed payload of floats per sample.
+     *
+     * @return the number of samples, 0 if the payload is missing or not a whole number of them
+     */
+    public static int countPacked(byte[] bytes, int floats) {
+        int size = packedSize(floats);
+        return bytes == null || bytes.length % size != 0 ? 0 : bytes.length / size;
+    }
+
+    /**
+     * Sensor timestamp of sample index of a packed payload, in ticks of SampleFormat.
+     *
+     * @throws IndexOutOfBoundsException unless 0 <= index < countPacked(bytes, floats)
+     */
+    public static long readTimestamp(byte[] bytes, int index, int floats) {
+        int start = index * packedSize(floats);
+        if (index < 0 || start + TIMESTAMP_SIZE > bytes.length) {
+            throw new IndexOutOfBoundsException("No sample " + index + " in " + bytes.length + " bytes");
+        }
+        return readInt(bytes, start) & 0xffffffffL;
+    }
+
+    /**
+     * Decodes sample index of a packed payload into out[offset..offset+floats-1].
+     *
+     * @return false if the payload is missing or too short, out is left untouched then
+     */
+    public static boolean decodePacked(byte[] bytes, int index, int floats, float[] out, int offset) {
+        int start = index * packedSize(floats) + TIMESTAMP_SIZE;
+        if (bytes == null || index < 0 || bytes.length < start + floats * 4) {
+            return false;
+        }
+        if (offset < 0 || offset + floats > out.length) {
+            throw new IndexOutOfBoundsException("No room for " + floats + " floats at " + offset);
+        }
+        for (int i = 0; i < floats; i++) {
+            out[offset + i] = readFloat(bytes, start + i * 4);
+        }
+        return true;
+    }
+
+    /*
+     * Writes count samples of floats each from values[offset..] as a packed payload into bytes,
+     * with timestamps[i] in front of sample i, the inverse of decodePacked
+     */
+    public static void encodePacked(long[] timestamps, float[] values, int offset, int count, int floats, byte[] bytes) {
+        int size = packedSize(floats);
+        for (int i = 0; i < count; i++) {
+            writeInt((int) timestamps[i], bytes, i * size);
+            for (int f = 0; f < floats; f++) {
+                writeInt(Float.floatToRawIntBits(values[offset + i * floats + f]), bytes, i * size + TIMESTAMP_SIZE + f * 4);
+            }
+        }
+    }
+
+    static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff)
+                | (bytes[offset + 1] & 0xff) << 8
+                | (bytes[offset + 2] & 0xff) << 16
+                | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    static void writeInt(int bits, byte[] bytes, int offset) {
+        bytes[offset] = (byte) bits;
+        bytes[offset + 1] = (byte) (bits >> 8);
+        bytes[offset + 2] = (byte) (bits >> 16);
+        bytes[offset + 3] = (byte) (bits >> 24);
+    }
+
+    /*
+     * Reads a single little endian float32 starting at offset
+     */
+    public static float readFloat(byte[] bytes, int offset) {
+        return Float.intBitsToFloat(readInt(bytes, offset));
+    }
+
+    /**
+     * Decodes an ORIENTATION payload into out[offset..offset+3] as w, x, y, z.
+     *
+     * @return false if the payload is missing or too short, out is left untouched then
+     */
+    public static boolean decodeOrientation(byte[] bytes, float[] out, int offset) {
+        return decodeFloats(bytes, ORIENTATION_FLOATS, out, offset);
+    }
+
+    /**
+     * Decodes a HIGH_PASS_VELOCITY payload into out[offset..offset+2] as x, y, z.
+     *
+     * @return false if the payload is missing or too short, out is left untouched then
+     */
+    public static boolean decodeVelocity(byte[] bytes, float[] out, int offset) {
+        return decodeFloats(bytes, VELOCITY_FLOATS, out, offset);
+    }
+
+    /*
+     * Writes count floats from values[offset..] as a payload into bytes, the inverse of the
+     * decoders, used by the simulated sensors
+     */
+    public static void encode(float[] values, int offset, int count, byte[] bytes) {
+        for (int i = 0; i < count; i++) {
+            writeInt(Float.floatToRawIntBits(values[offset + i]), bytes, i * 4);
+        }
+    }
+
+    private static boolean decodeFloats(byte[] bytes, int count, float[] out, int offset) {
+        if (bytes == null || bytes.length < count * 4) {
+            return false;
+        }
+        if (offset < 0 || offset + count > out.length) {
+            throw new IndexOutOfBoundsException("No room for " + count + " floats at " + offset);
+        }
+        for (int i = 0; i < count; i++) {
+            out[offset + i] = readFloat(bytes, i * 4);
+        }
+        return true;
+    }
+}
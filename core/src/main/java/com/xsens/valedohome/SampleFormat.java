@@ -0,0 +1,74 @@
+package com.xsens.valedohome;
+
+/**
+ * Notification layout a sensor advertises in its SAMPLE_FORMAT characteristic.
+ *
+ * The value is a layout byte, 0 for one sample per notification and 1 for packed samples,
+ * followed by the length of a sensor timestamp tick in nanoseconds as a little endian uint32.
+ * Sensors without the characteristic, or with a value we don't understand, send single
+ * samples, see {@link #SINGLE}.
+ */
+public final class SampleFormat {
+
+    public static final int LAYOUT_SINGLE = 0;
+    public static final int LAYOUT_PACKED = 1;
+    public static final int SIZE = 5;
+
+    public static final SampleFormat SINGLE = new SampleFormat(LAYOUT_SINGLE, 0);
+
+    private final int mLayout;
+    private final long mTickNanos;
+
+    private SampleFormat(int layout, long tickNanos) {
+        mLayout = layout;
+        mTickNanos = tickNanos;
+    }
+
+    /*
+     * Packed samples with sensor timestamps counting in ticks of tickNanos
+     */
+    public static SampleFormat packed(long tickNanos) {
+        if (tickNanos <= 0 || tickNanos > 0xffffffffL) {
+            throw new IllegalArgumentException("Invalid tick " + tickNanos);
+        }
+        return new SampleFormat(LAYOUT_PACKED, tickNanos);
+    }
+
+    /*
+     * Parses the characteristic value, null (not there or not readable) means SINGLE
+     */
+    public static SampleFormat parse(byte[] value) {
+        if (value == null || value.length < SIZE || value[0] != LAYOUT_PACKED) {
+            return SINGLE;
+        }
+        long tick = SampleCodec.readInt(value, 1) & 0xffffffffL;
+        return tick == 0 ? SINGLE : new SampleFormat(LAYOUT_PACKED, tick);
+    }
+
+    public byte[] encode() {
+        byte[] value = new byte[SIZE];
+        value[0] = (byte) mLayout;
+        SampleCodec.writeInt((int) mTickNanos, value, 1);
+        return value;
+    }
+
+    public boolean isPacked() {
+        return mLayout == LAYOUT_PACKED;
+    }
+
+    public long getTickNanos() {
+        return mTickNanos;
+    }
+
+    /*
+     * Nanoseconds between two uint32 sensor timestamps, newer may have wrapped around
+     */
+    public long elapsedNanos(long older, long newer) {
+        return ((newer - older) & 0xffffffffL) * mTickNanos;
+    }
+
+    @Override
+    public String toString() {
+        return isPacked() ? "packed, " + mTickNanos + " ns ticks" : "single";
+    }
+}
@@ -0,0 +1,155 @@
+package com.xsens.valedohome;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single producer / single consumer ring of timestamped float samples.
+ *
+ * The GATT callback (binder thread) decodes straight into a claimed slot and publishes it,
+ * the UI thread drains whatever is available in one go. All storage is allocated up front,
+ * so neither side allocates per sample. When the consumer falls behind, new samples are
+ * dropped and counted rather than overwriting slots that may be in the middle of a read.
+ *
+ * Besides its timestamp a sample carries the time it arrived, which is later than the
+ * timestamp for samples the sensor buffered and sent packed together. Readers that measure
+ * latency ask for it with {@link #arrival()}.
+ */
+public final class SampleRingBuffer {
+
+    /**
+     * Receives drained samples, values[offset..offset+stride-1] hold the sample's floats.
+     * The array is owned by the ring, copy what you need before returning.
+     */
+    public interface Reader {
+        void onSample(long timestamp, float[] values, int offset);
+    }
+
+    private final int mStride;
+    private final int mMask;
+    private final long[] mTimestamps;
+    private final long[] mArrivals;
+    private final float[] mValues;
+    /* Arrival of the sample being handed to the reader, only touched by the consumer */
+    private long mReading;
+
+    /* Next slot to publish (written by producer) and next slot to read (written by consumer) */
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+
+    /* Only written by the producer */
+    private volatile long mDropped;
+    private volatile int mHighWaterMark;
+
+    /**
+     * @param capacity number of samples, rounded up to a power of two
+     * @param stride   number of floats per sample
+     */
+    public SampleRingBuffer(int capacity, int stride) {
+        if (capacity <= 0 || stride <= 0) {
+            throw new IllegalArgumentException("capacity and stride must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mStride = stride;
+        mMask = size - 1;
+        mTimestamps = new long[size];
+        mArrivals = new long[size];
+        mValues = new float[size * stride];
+    }
+
+    public int capacity() {
+        return mTimestamps.length;
+    }
+
+    public int stride() {
+        return mStride;
+    }
+
+    /**
+     * Backing array to decode into, only touch the range returned by {@link #claim()}.
+     */
+    public float[] values() {
+        return mValues;
+    }
+
+    /**
+     * Producer side: reserves the next slot.
+     *
+     * @return offset into {@link #values()} to write stride floats at, or -1 when full
+     * (the sample is counted as dropped)
+     */
+    public int claim() {
+        long head = mHead.get();
+        if (head - mTail.get() >= mTimestamps.length) {
+            mDropped++;
+            return -1;
+        }
+        return (int) (head & mMask) * mStride;
+    }
+
+    /**
+     * Producer side: makes the slot returned by the last {@link #claim()} visible to the
+     * consumer. Not publishing simply leaves the slot to be reused by the next claim.
+     */
+    public void publish(long timestamp) {
+        publish(timestamp, timestamp);
+    }
+
+    /**
+     * Producer side: like {@link #publish(long)}, for a sample that arrived later than its
+     * timestamp.
+     */
+    public void publish(long timestamp, long arrival) {
+        long head = mHead.get();
+        int slot = (int) (head & mMask);
+        mTimestamps[slot] = timestamp;
+        mArrivals[slot] = arrival;
+        mHead.lazySet(head + 1);
+
+        int fill = (int) (head + 1 - mTail.get());
+        if (fill > mHighWaterMark) {
+            mHighWaterMark = fill;
+        }
+    }
+
+    /**
+     * Consumer side: hands up to max samples to the reader, oldest first.
+     *
+     * @return the number of samples drained
+     */
+    public int drain(Reader reader, int max) {
+        long tail = mTail.get();
+        long available = mHead.get() - tail;
+        int count = (int) Math.min(available, max);
+        for (int i = 0; i < count; i++) {
+            int slot = (int) ((tail + i) & mMask);
+            mReading = mArrivals[slot];
+            reader.onSample(mTimestamps[slot], mValues, slot * mStride);
+        }
+        mTail.lazySet(tail + count);
+        return count;
+    }
+
+    /*
+     * Consumer side, only valid inside Reader.onSample: when the sample being read arrived
+     */
+    public long arrival() {
+        return mReading;
+    }
+
+    public int size() {
+        return (int) (mHead.get() - mTail.get());
+    }
+
+    /* Number of samples dropped because the consumer did not keep up */
+    public long getDropped() {
+        return mDropped;
+    }
+
+    /* Highest number of samples that were waiting at once */
+    public int getHighWaterMark() {
+        return mHighWaterMark;
+    }
+}
@@ -0,0 +1,89 @@
+package com.xsens.valedohome;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Sensors found while scanning, one entry per MAC address in the order they were found.
+ *
+ * Every advertisement is offered, but only the first one of a matching device changes the
+ * list, so callers only need to refresh their UI when {@link #offer} returns true. Offering an
+ * advertisement of an unknown or known device allocates nothing. A device
+ * matches if it advertises the service, or failing that by its advertised name. Any thread may
+ * offer, scan callbacks arrive on binder threads.
+ */
+public class ScanResults {
+
+    private final UUID mService;
+    private final String mName;
+    private final byte[] mNameBytes;
+    private final Map<String, String> mNames = new LinkedHashMap<String, String>();
+    private final Map<String, Integer> mRssi = new LinkedHashMap<String, Integer>();
+    private final Set<String> mExpected = new HashSet<String>();
+
+    public ScanResults(UUID service, String name) {
+        mService = service;
+        mName = name;
+        mNameBytes = name.getBytes(Charset.forName("UTF-8"));
+    }
+
+    /*
+     * Sensors the scan is looking for, it is complete once all of them are found
+     */
+    public synchronized void setExpected(Collection<String> addresses) {
+        mExpected.clear();
+        mExpected.addAll(addresses);
+    }
+
+    /**
+     * @return true if this is a matching device that was not found before
+     */
+    public synchronized boolean offer(String address, int rssi, byte[] record) {
+        if (mNames.containsKey(address)) {
+            mRssi.put(address, rssi);
+            return false;
+        }
+        if (!AdvertisementData.hasService(record, mService) && !AdvertisementData.hasLocalName(record, mNameBytes)) {
+            return false;
+        }
+        String name = AdvertisementData.getLocalName(record);
+        mNames.put(address, name != null ? name : mName);
+        mRssi.put(address, rssi);
+        return true;
+    }
+
+    /* True once every expected sensor was found, never if none are expected */
+    public synchronized boolean isComplete() {
+        return !mExpected.isEmpty() && mNames.keySet().containsAll(mExpected);
+    }
+
+    public synchronized List<String> getAddresses() {
+        return new ArrayList<String>(mNames.keySet());
+    }
+
+    public synchronized String getName(String address) {
+        return mNames.get(address);
+    }
+
+    /* Signal strength of the latest advertisement, 0 if unknown */
+    public synchronized int getRssi(String address) {
+        Integer rssi = mRssi.get(address);
+        return rssi == null ? 0 : rssi;
+    }
+
+    public synchronized int size() {
+        return mNames.size();
+    }
+
+    public synchronized void clear() {
+        mNames.clear();
+        mRssi.clear();
+    }
+}
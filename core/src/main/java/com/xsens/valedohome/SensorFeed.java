@@ -0,0 +1,140 @@
+package com.xsens.valedohome;
+
+/**
+ * History of both streams of one sensor, filled from its {@link SensorSession}.
+ *
+ * The feed outlives whatever displays it: a graph attached later draws from the same
+ * {@link HistoryBuffer}s and starts out with everything received so far, and a reconnect of
+ * the same sensor keeps appending to it. Like HistoryBuffer it is not thread safe, draining
+ * and drawing are meant to happen on the same (UI) thread.
+ */
+public final class SensorFeed {
+
+    /*
+     * 4096 raw samples and 7 coarser levels of 4x, at 100 Hz that keeps about 40 s at full
+     * resolution and well over a day of min/max summaries in ~1 MB for four channels
+     */
+    public static final int HISTORY_CAPACITY = 4096;
+    public static final int HISTORY_LEVELS = 8;
+
+    private final String mAddress;
+    private final String mName;
+    private final HistoryBuffer mOrientation =
+            new HistoryBuffer(SampleCodec.ORIENTATION_FLOATS, HISTORY_CAPACITY, HISTORY_LEVELS);
+    private final HistoryBuffer mVelocity =
+            new HistoryBuffer(SampleCodec.VELOCITY_FLOATS, HISTORY_CAPACITY, HISTORY_LEVELS);
+
+    private PipelineStats mStats;
+    private MotionAnalytics mAnalytics;
+    private long mDispatched;
+    /* Orientation ring being drained, for the arrival times of its samples */
+    private SampleRingBuffer mDraining;
+    /*
+     * Arrival time of the notification of the oldest orientation sample of the last drain, 0
+     * when there was none. Packed samples are timestamped before their notification arrived.
+     */
+    private long mArrival;
+    private SensorSession mReportedSession;
+    private long mReportedDrops;
+
+    private final SampleRingBuffer.Reader mOrientationReader = new SampleRingBuffer.Reader() {
+        @Override
+        public void onSample(long timestamp, float[] values, int offset) {
+            mOrientation.append(values, offset);
+            long arrival = mDraining.arrival();
+            if (mArrival == 0) {
+                mArrival = arrival;
+            }
+            PipelineStats stats = mStats;
+            if (stats != null) {
+                stats.record(PipelineStats.DISPATCH, mDispatched - arrival);
+                stats.record(PipelineStats.APPEND, System.nanoTime() - arrival);
+            }
+        }
+    };
+
+    private final SampleRingBuffer.Reader mVelocityReader = new SampleRingBuffer.Reader() {
+        @Override
+        public void onSample(long timestamp, float[] values, int offset) {
+            mVelocity.append(values, offset);
+        }
+    };
+
+    public SensorFeed(String address, String name) {
+        mAddress = address;
+        mName = name;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public HistoryBuffer getOrientation() {
+        return mOrientation;
+    }
+
+    public HistoryBuffer getVelocity() {
+        return mVelocity;
+    }
+
+    /*
+     * Optional latency instrumentation, dispatch and append are recorded here when set
+     */
+    public void setStats(PipelineStats stats) {
+        mStats = stats;
+    }
+
+    public PipelineStats getStats() {
+        return mStats;
+    }
+
+    /*
+     * Analytics of this sensor, kept across reconnects like the history
+     */
+    public void setAnalytics(MotionAnalytics analytics) {
+        mAnalytics = analytics;
+    }
+
+    public MotionAnalytics getAnalytics() {
+        return mAnalytics;
+    }
+
+    /**
+     * Moves everything session has buffered into the history, velocity is discarded unless
+     * asked for.
+     *
+     * @return the number of samples drained
+     */
+    public int drain(SensorSession session, boolean velocity) {
+        mArrival = 0;
+        if (mStats != null) {
+            mDispatched = System.nanoTime();
+        }
+        mDraining = session.getOrientationBuffer();
+        return session.drain(mOrientationReader, velocity ? mVelocityReader : null);
+    }
+
+    /* Arrival time of the notification of the oldest orientation sample of the last drain, 0 if none */
+    public long getLastArrival() {
+        return mArrival;
+    }
+
+    /**
+     * Samples the session had to drop since the last call, because nobody drained in time.
+     */
+    public long takeNewDrops(SensorSession session) {
+        if (session != mReportedSession) {
+            //A reconnect brings a new session that counts from zero again
+            mReportedSession = session;
+            mReportedDrops = 0;
+        }
+        long dropped = session.getOrientationBuffer().getDropped() + session.getVelocityBuffer().getDropped();
+        long fresh = dropped - mReportedDrops;
+        mReportedDrops = dropped;
+        return fresh;
+    }
+}
@@ -0,0 +1,612 @@
+package com.xsens.valedohome;
+
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One connected sensor: its own operation queue, decode buffers and wake-up flag.
+ *
+ * Every session is driven by the callbacks of its own {@link GattLink}, so the setup of one
+ * sensor never waits on another. Setup runs through a {@link GattOperationQueue}, so a step
+ * that gets no answer times out instead of stalling the session. Before subscribing, the
+ * session asks for a fast connection and a large MTU and reads the sensor's
+ * {@link SampleFormat}; a notification may then carry several samples. Samples are decoded on the
+ * callback thread straight into a ring buffer per stream; the listener is told once that
+ * there is something to drain, in either stream, and is not told again until {@link #drain}
+ * has run.
+ */
+public class SensorSession implements GattLink.Callback {
+
+    public static final int STATE_CONNECTING = 0;
+    public static final int STATE_DISCOVERING = 1;
+    public static final int STATE_CONFIGURING = 2;
+    public static final int STATE_STREAMING = 3;
+    public static final int STATE_DISCONNECTED = 4;
+
+    public interface Listener {
+        /*
+         * Called on the callback thread, message is meant for progress UI and logs
+         */
+        void onSessionStateChanged(SensorSession session, int state, String message);
+
+        /*
+         * Called on the callback thread, at most once until the next drain
+         */
+        void onSamplesAvailable(SensorSession session);
+    }
+
+    /* Streams subscribed to by default, in this order */
+    public static final UUID[] ALL_STREAMS = {
+            ValedoProfile.ORIENTATION,
+            ValedoProfile.HIGH_PASS_VELOCITY,
+    };
+
+    private static final int BUFFER_SIZE = 1024;
+
+    /* Discards whatever a caller doesn't want to read */
+    private static final SampleRingBuffer.Reader DISCARD = new SampleRingBuffer.Reader() {
+        @Override
+        public void onSample(long timestamp, float[] values, int offset) {
+        }
+    };
+
+    public static final long CONNECT_TIMEOUT_MS = 10000;
+    /* Link negotiation is optional, so it isn't waited on for long */
+    public static final long NEGOTIATE_TIMEOUT_MS = 2000;
+    /* How often the link monitor gets an RSSI reading while streaming */
+    public static final long RSSI_INTERVAL_MS = 2000;
+
+    private final GattLink mLink;
+    private final Listener mListener;
+    private final ScheduledExecutorService mScheduler;
+    private final GattOperationQueue mQueue;
+    private ScheduledFuture<?> mConnectTimeout;
+
+    private volatile UUID[] mStreams = ALL_STREAMS;
+    private volatile SampleFormat mFormat = SampleFormat.SINGLE;
+    private final HeadingCorrection mHeading = new HeadingCorrection();
+    private volatile int mMtu = ValedoProfile.DEFAULT_MTU;
+
+    private final SampleRingBuffer mOrientationBuffer =
+            new SampleRingBuffer(BUFFER_SIZE, SampleCodec.ORIENTATION_FLOATS);
+    private final SampleRingBuffer mVelocityBuffer =
+            new SampleRingBuffer(BUFFER_SIZE, SampleCodec.VELOCITY_FLOATS);
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+
+    private volatile int mState = STATE_CONNECTING;
+    private volatile long mMalformed;
+    private volatile PipelineStats mStats;
+    private volatile SessionRecorder mRecorder;
+    private volatile MotionAnalytics mAnalytics;
+    private volatile JointTracker.Side mJoint;
+    private final LinkMonitor mMonitor = new LinkMonitor();
+    private volatile ScheduledFuture<?> mLinkPoll;
+
+    /* Decode target for samples only the recorder and analytics get, callback thread only */
+    private final float[] mScratch = new float[SampleCodec.ORIENTATION_FLOATS];
+
+    /* Setup latency, all System.nanoTime() */
+    private volatile long mConnectStarted;
+    private volatile long mSetupCompleted;
+    private volatile long mFirstSample;
+
+    public SensorSession(GattLink link, Listener listener, ScheduledExecutorService scheduler) {
+        mLink = link;
+        mListener = listener;
+        mScheduler = scheduler;
+        mQueue = new GattOperationQueue(link, scheduler);
+    }
+
+    /**
+     * Characteristics to subscribe to, in order, out of {@link #ALL_STREAMS}. Leaving out a
+     * stream nobody displays or records saves radio time and battery on both ends. Takes
+     * effect on the next connect().
+     */
+    public void setStreams(UUID... streams) {
+        if (streams.length == 0) {
+            throw new IllegalArgumentException("Subscribe to at least one stream");
+        }
+        mStreams = streams.clone();
+    }
+
+    public boolean isSubscribed(UUID stream) {
+        for (UUID subscribed : mStreams) {
+            if (subscribed.equals(stream)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void connect() {
+        mConnectStarted = System.nanoTime();
+        mSetupCompleted = 0;
+        mFirstSample = 0;
+        setState(STATE_CONNECTING, "Connecting to " + mLink.getName() + "...");
+        mConnectTimeout = mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (mState == STATE_CONNECTING) {
+                    fail("Connection timed out");
+                }
+            }
+        }, CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        mLink.connect(this);
+    }
+
+    /*
+     * Ends the connection. A session the sensor already dropped only releases its link.
+     */
+    public void disconnect() {
+        if (mState == STATE_DISCONNECTED) {
+            mLink.disconnect();
+            return;
+        }
+        fail("Disconnected");
+    }
+
+    private void fail(String message) {
+        //State goes first, so failing the queued operations doesn't fail us again
+        cancelConnectTimeout();
+        stopLinkPolling();
+        setState(STATE_DISCONNECTED, message);
+        mQueue.clear();
+        mLink.disconnect();
+    }
+
+    private void cancelConnectTimeout() {
+        ScheduledFuture<?> timeout = mConnectTimeout;
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+    }
+
+    /*
+     * Queues an operation on this sensor's connection, it runs once the ones before it are done
+     */
+    public GattOperation enqueue(GattOperation operation) {
+        return mQueue.enqueue(operation);
+    }
+
+    public String getAddress() {
+        return mLink.getAddress();
+    }
+
+    public String getName() {
+        return mLink.getName();
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    /* How the sensor packs its notifications, SINGLE until it told us otherwise */
+    public SampleFormat getFormat() {
+        return mFormat;
+    }
+
+    /* MTU granted for this connection, the default one if the request was refused */
+    public int getMtu() {
+        return mMtu;
+    }
+
+    public SampleRingBuffer getOrientationBuffer() {
+        return mOrientationBuffer;
+    }
+
+    public SampleRingBuffer getVelocityBuffer() {
+        return mVelocityBuffer;
+    }
+
+    /* Time from connect() until all notifications were enabled, 0 while setting up */
+    public long getSetupLatencyNanos() {
+        long completed = mSetupCompleted;
+        return completed == 0 ? 0 : completed - mConnectStarted;
+    }
+
+    /* Time from connect() until the first sample arrived, 0 until then */
+    public long getTimeToFirstSampleNanos() {
+        long first = mFirstSample;
+        return first == 0 ? 0 : first - mConnectStarted;
+    }
+
+    /*
+     * Optional latency instrumentation, arrival and decode are recorded here when set
+     */
+    public void setStats(PipelineStats stats) {
+        mStats = stats;
+    }
+
+    public PipelineStats getStats() {
+        return mStats;
+    }
+
+    /*
+     * Optional recording of the orientation and velocity streams, null stops it. The caller
+     * closes the recorder once it has been taken off the session.
+     */
+    public void setRecorder(SessionRecorder recorder) {
+        mRecorder = recorder;
+    }
+
+    public SessionRecorder getRecorder() {
+        return mRecorder;
+    }
+
+    /*
+     * Optional analytics of the orientation stream, null stops them. Like the recorder, it
+     * is closed by the caller.
+     */
+    public void setAnalytics(MotionAnalytics analytics) {
+        mAnalytics = analytics;
+    }
+
+    public MotionAnalytics getAnalytics() {
+        return mAnalytics;
+    }
+
+    /*
+     * Optional joint this sensor is one side of, null leaves it
+     */
+    public void setJoint(JointTracker.Side joint) {
+        mJoint = joint;
+    }
+
+    public JointTracker.Side getJoint() {
+        return mJoint;
+    }
+
+    /* Quality of this connection, its listener is called once the link degrades or recovers */
+    public LinkMonitor getLinkMonitor() {
+        return mMonitor;
+    }
+
+    /*
+     * Asks for the short connection interval again, e.g. after the link degraded. Some
+     * platforms fall back to a balanced interval on their own after a while.
+     */
+    public void requestHighPriority() {
+        if (mState == STATE_STREAMING) {
+            mQueue.enqueue(GattOperation.connectionPriority(ValedoProfile.CONNECTION_PRIORITY_HIGH).setRetries(0));
+        }
+    }
+
+    public HeadingCorrection getHeading() {
+        return mHeading;
+    }
+
+    /**
+     * Makes the sensor's current heading 0, from the next sample on. With persist the reset
+     * is also written to the sensor in the background; once the sensor's output shows it,
+     * the local correction ends, see HeadingCorrection.handOver().
+     */
+    public void resetHeading(boolean persist) {
+        mHeading.requestReset();
+        if (!persist || mState != STATE_STREAMING) {
+            return;
+        }
+        mQueue.enqueue(GattOperation.write(ValedoProfile.DEVICE_CONFIGURATION,
+                ValedoProfile.HEADING_REDEFINITION_CONTROL, ValedoProfile.HEADING_RESET)
+                .setListener(new GattOperation.Listener() {
+                    @Override
+                    public void onComplete(GattOperation operation) {
+                        if (operation.isSuccess()) {
+                            mHeading.handOver();
+                        }
+                    }
+                }));
+    }
+
+    /* Number of notifications that could not be decoded */
+    public long getMalformed() {
+        return mMalformed;
+    }
+
+    /**
+     * Consumer side: hands the buffered samples of both streams to their readers, a null
+     * reader discards that stream's samples.
+     *
+     * @return the number of samples drained
+     */
+    public int drain(SampleRingBuffer.Reader orientation, SampleRingBuffer.Reader velocity) {
+        /*
+         * Clear the flag before draining, a sample published after this point will schedule
+         * another drain rather than get stuck in the buffer.
+         */
+        mDrainScheduled.set(false);
+        return mOrientationBuffer.drain(orientation != null ? orientation : DISCARD, BUFFER_SIZE)
+                + mVelocityBuffer.drain(velocity != null ? velocity : DISCARD, BUFFER_SIZE);
+    }
+
+    private void setState(int state, String message) {
+        mState = state;
+        mListener.onSessionStateChanged(this, state, message);
+    }
+
+    /*
+     * Asks for a short connection interval and a larger MTU, then reads how the sensor packs
+     * its samples. None of it is required: platforms before Lollipop can't negotiate, older
+     * firmware has no SAMPLE_FORMAT, and the session streams single samples then.
+     */
+    private void negotiateLink() {
+        setState(STATE_CONFIGURING, "Negotiating link...");
+        mMtu = ValedoProfile.DEFAULT_MTU;
+        mFormat = SampleFormat.SINGLE;
+        mQueue.enqueue(GattOperation.connectionPriority(ValedoProfile.CONNECTION_PRIORITY_HIGH).setRetries(0));
+        mQueue.enqueue(GattOperation.requestMtu(ValedoProfile.PREFERRED_MTU)
+                .setRetries(0).setTimeout(NEGOTIATE_TIMEOUT_MS)
+                .setListener(new GattOperation.Listener() {
+                    @Override
+                    public void onComplete(GattOperation operation) {
+                        if (operation.isSuccess()) {
+                            mMtu = operation.getMtu();
+                        }
+                    }
+                }));
+        mQueue.enqueue(GattOperation.read(ValedoProfile.DEVICE_CONFIGURATION, ValedoProfile.SAMPLE_FORMAT)
+                .setRetries(0).setTimeout(NEGOTIATE_TIMEOUT_MS)
+                .setListener(new GattOperation.Listener() {
+                    @Override
+                    public void onComplete(GattOperation operation) {
+                        if (mState != STATE_CONFIGURING) {
+                            return;
+                        }
+                        mFormat = operation.isSuccess() ? SampleFormat.parse(operation.getValue()) : SampleFormat.SINGLE;
+                        enableNotifications();
+                    }
+                }));
+    }
+
+    /*
+     * Enable notification of changes on the data characteristic for each sensor
+     * by writing the ENABLE_NOTIFICATION_VALUE flag to that characteristic's
+     * configuration descriptor. Everything is queued up front, the queue runs them in order.
+     */
+    private void enableNotifications() {
+        setState(STATE_CONFIGURING, "Enabling notifications...");
+        UUID[] streams = mStreams;
+        for (int i = 0; i < streams.length; i++) {
+            final boolean last = i == streams.length - 1;
+            mQueue.enqueue(GattOperation.enableNotifications(ValedoProfile.AWINDA_SERVICE, streams[i])
+                    .setListener(new GattOperation.Listener() {
+                        @Override
+                        public void onComplete(GattOperation operation) {
+                            if (mState != STATE_CONFIGURING) {
+                                return;
+                            }
+                            if (!operation.isSuccess()) {
+                                fail("Could not " + operation);
+                            } else if (last) {
+                                mSetupCompleted = System.nanoTime();
+                                setState(STATE_STREAMING, "All Sensors Enabled in "
+                                        + TimeUnit.NANOSECONDS.toMillis(getSetupLatencyNanos()) + " ms, MTU "
+                                        + mMtu + ", " + mFormat + " samples");
+                                startLinkPolling();
+                            }
+                        }
+                    }));
+        }
+    }
+
+    /*
+     * Reads the RSSI and lets the monitor notice a stalled stream, every RSSI_INTERVAL_MS.
+     * A reading is skipped while other operations are queued, they matter more.
+     */
+    private void startLinkPolling() {
+        stopLinkPolling();
+        mLinkPoll = mScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                mMonitor.check(System.nanoTime());
+                if (mState != STATE_STREAMING || mQueue.size() > 0) {
+                    return;
+                }
+                mQueue.enqueue(GattOperation.readRssi().setRetries(0).setListener(new GattOperation.Listener() {
+                    @Override
+                    public void onComplete(GattOperation operation) {
+                        if (operation.isSuccess()) {
+                            mMonitor.recordRssi(operation.getRssi(), System.nanoTime());
+                        }
+                    }
+                }));
+            }
+        }, RSSI_INTERVAL_MS, RSSI_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopLinkPolling() {
+        ScheduledFuture<?> poll = mLinkPoll;
+        if (poll != null) {
+            poll.cancel(false);
+            mLinkPoll = null;
+        }
+    }
+
+    /* GattLink.Callback */
+
+    @Override
+    public void onConnectionStateChange(boolean success, boolean connected) {
+        if (success && connected) {
+            cancelConnectTimeout();
+            /*
+             * Once successfully connected, we must next discover all the services on the
+             * device before we can read and write their characteristics.
+             */
+            setState(STATE_DISCOVERING, "Discovering Services...");
+            mQueue.enqueue(GattOperation.discoverServices().setListener(new GattOperation.Listener() {
+                @Override
+                public void onComplete(GattOperation operation) {
+                    if (mState != STATE_DISCOVERING) {
+                        return;
+                    }
+                    if (operation.isSuccess()) {
+                        negotiateLink();
+                    } else {
+                        fail("Service discovery failed");
+                    }
+                }
+            }));
+        } else if (success) {
+            cancelConnectTimeout();
+            stopLinkPolling();
+            //State first, as in fail(), so the failed operations don't fail us again
+            setState(STATE_DISCONNECTED, "Disconnected");
+            mQueue.clear();
+            //The sensor hung up, but the link still holds one of the few GATT client slots
+            mLink.disconnect();
+        } else {
+            /*
+             * If there is a failure at any stage, simply disconnect
+             */
+            fail("Connection failed");
+        }
+    }
+
+    @Override
+    public void onServicesDiscovered(boolean success) {
+        mQueue.onServicesDiscovered(success);
+    }
+
+    @Override
+    public void onCharacteristicRead(UUID characteristic, byte[] value, boolean success) {
+        mQueue.onCharacteristicRead(characteristic, value, success);
+    }
+
+    @Override
+    public void onCharacteristicWrite(UUID characteristic, boolean success) {
+        mQueue.onCharacteristicWrite(characteristic, success);
+    }
+
+    @Override
+    public void onDescriptorWrite(UUID characteristic, boolean success) {
+        mQueue.onDescriptorWrite(characteristic, success);
+    }
+
+    @Override
+    public void onMtuChanged(int mtu, boolean success) {
+        mQueue.onMtuChanged(mtu, success);
+    }
+
+    @Override
+    public void onReadRemoteRssi(int rssi, boolean success) {
+        mQueue.onReadRemoteRssi(rssi, success);
+    }
+
+    @Override
+    public void onCharacteristicChanged(UUID characteristic, byte[] value) {
+        if (ValedoProfile.ORIENTATION.equals(characteristic)) {
+            queue(mOrientationBuffer, SessionHeader.STREAM_ORIENTATION, value, System.nanoTime());
+        } else if (ValedoProfile.HIGH_PASS_VELOCITY.equals(characteristic)) {
+            queue(mVelocityBuffer, SessionHeader.STREAM_VELOCITY, value, System.nanoTime());
+        }
+    }
+
+    /*
+     * index is the sample of a packed payload, or -1 for a single sample one. The heading
+     * correction is applied right here, so everything downstream sees corrected samples.
+     */
+    private boolean decode(int stream, byte[] value, int index, float[] out, int offset) {
+        if (stream == SessionHeader.STREAM_ORIENTATION) {
+            if (index >= 0 ? SampleCodec.decodePacked(value, index, SampleCodec.ORIENTATION_FLOATS, out, offset)
+                    : SampleCodec.decodeOrientation(value, out, offset)) {
+                mHeading.applyToOrientation(out, offset);
+                return true;
+            }
+        } else if (index >= 0 ? SampleCodec.decodePacked(value, index, SampleCodec.VELOCITY_FLOATS, out, offset)
+                : SampleCodec.decodeVelocity(value, out, offset)) {
+            mHeading.applyToVector(out, offset);
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * The characteristic value is overwritten by the next notification, so it is decoded
+     * right here on the callback thread into the stream's ring buffer.
+     */
+    private void queue(SampleRingBuffer buffer, int stream, byte[] value, long arrival) {
+        SampleFormat format = mFormat;
+        int floats = buffer.stride();
+        if (!format.isPacked() || value == null || value.length == floats * 4) {
+            //A single sample, also what packing firmware sends when only one was due
+            if (stream == SessionHeader.STREAM_ORIENTATION) {
+                mMonitor.recordNotification(arrival, 1);
+            }
+            queue(buffer, stream, value, -1, arrival, arrival);
+            return;
+        }
+        int count = SampleCodec.countPacked(value, floats);
+        if (stream == SessionHeader.STREAM_ORIENTATION) {
+            mMonitor.recordNotification(arrival, count);
+        }
+        if (count == 0) {
+            mMalformed++;
+            return;
+        }
+        /*
+         * The newest sample of a packed payload arrived just now, the ones before it are dated
+         * back by the sensor's own timestamps so the intervals between them are kept
+         */
+        long newest = SampleCodec.readTimestamp(value, count - 1, floats);
+        for (int i = 0; i < count; i++) {
+            long age = format.elapsedNanos(SampleCodec.readTimestamp(value, i, floats), newest);
+            queue(buffer, stream, value, i, arrival - age, arrival);
+        }
+    }
+
+    /*
+     * Queues sample index of value, see decode(). Arrival statistics follow the orientation
+     * stream. The timestamp of a packed sample lies before arrival, the time its notification
+     * came in, which is what decoding latency is measured from.
+     */
+    private void queue(SampleRingBuffer buffer, int stream, byte[] value, int index, long timestamp, long arrival) {
+        int offset = buffer.claim();
+        if (offset < 0) {
+            //The display fell behind, recording and analytics shouldn't have a gap because of that
+            if ((mRecorder != null || mAnalytics != null || mJoint != null) && decode(stream, value, index, mScratch, 0)) {
+                consume(stream, timestamp, mScratch, 0);
+            }
+            return;
+        }
+        if (!decode(stream, value, index, buffer.values(), offset)) {
+            mMalformed++;
+            return;
+        }
+        buffer.publish(timestamp, arrival);
+        consume(stream, timestamp, buffer.values(), offset);
+        if (mFirstSample == 0) {
+            mFirstSample = timestamp;
+        }
+        PipelineStats stats = mStats;
+        if (stats != null && stream == SessionHeader.STREAM_ORIENTATION) {
+            stats.recordArrival(timestamp);
+            stats.record(PipelineStats.DECODE, System.nanoTime() - arrival);
+        }
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            mListener.onSamplesAvailable(this);
+        }
+    }
+
+    /*
+     * Hands a decoded sample to the consumers besides the display
+     */
+    private void consume(int stream, long timestamp, float[] values, int offset) {
+        SessionRecorder recorder = mRecorder;
+        if (recorder != null) {
+            recorder.record(stream, timestamp, values, offset);
+        }
+        if (stream != SessionHeader.STREAM_ORIENTATION) {
+            return;
+        }
+        MotionAnalytics analytics = mAnalytics;
+        if (analytics != null) {
+            analytics.record(timestamp, values, offset);
+        }
+        JointTracker.Side joint = mJoint;
+        if (joint != null) {
+            joint.record(timestamp, values, offset);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.xsens.valedohome;
+
+import java.util.List;
+
+/**
+ * Where sensors come from: real ones over BLE, generated ones or recorded sessions.
+ *
+ * Every source hands out {@link GattLink}s, so whatever the source, samples reach
+ * {@link SensorSession} as raw payloads through onCharacteristicChanged and take the same
+ * decode, buffer and plot path. That lets the pipeline be load tested on a plain JVM.
+ */
+public interface SensorSource extends SessionManager.LinkFactory {
+
+    /* Sensors this source can connect to right now */
+    List<String> getAddresses();
+}
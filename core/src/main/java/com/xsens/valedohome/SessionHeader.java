@@ -0,0 +1,243 @@
+package com.xsens.valedohome;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+/**
+ * Header of a recorded session file, followed by fixed size records ({@link #VERSION}) or by
+ * compressed blocks ({@link #VERSION_BLOCKS}).
+ *
+ * Layout (little endian), padded to {@link #SIZE} bytes:
+ * <pre>
+ * int    magic "VHS1"
+ * int    version
+ * long   start time, ms since the epoch
+ * float  sample rate, Hz, 0 if unknown
+ * short  address length, then the address in UTF-8
+ * int    stream count, then per stream: UUID (msb, lsb) and floats per sample
+ * int    checksum of everything before it
+ * </pre>
+ *
+ * Each record is {@link #RECORD_SIZE} bytes:
+ * <pre>
+ * short  record magic
+ * byte   stream index
+ * byte   float count
+ * long   timestamp, ns since the start of the session
+ * float  4 values, unused ones are 0
+ * int    checksum of the 28 bytes before it
+ * </pre>
+ * A record that is zero or fails its checksum marks the end of the valid data, which is how
+ * a session cut off by a crash is recovered.
+ *
+ * A compressed session is a run of {@link BlockWriter#BLOCK_SIZE} byte blocks:
+ * <pre>
+ * int    block magic "VHB1"
+ * int    block number, from 0
+ * long   timestamp of the block's first record, us since the start of the session
+ * long   earliest timestamp in the block, us
+ * int    record count
+ * int    bytes used by the header and the records
+ * ...    records, then zeros
+ * int    checksum of everything before it
+ * </pre>
+ * Each record is a stream index byte, the varint of the zigzagged difference to the previous
+ * timestamp of its stream in the block (the block's first timestamp for the first one) in us,
+ * then the sample packed by {@link CompactCodec}: 6 bytes for an orientation quaternion, a
+ * half float per value otherwise. Every block decodes on its own. Closing the session appends
+ * the block index:
+ * <pre>
+ * per block: long earliest timestamp, us, and int record count
+ * int    block count
+ * int    checksum of the index entries and count
+ * int    index magic "VHX1"
+ * </pre>
+ * Without it, the blocks whose checksum holds are the valid part of the session.
+ */
+public final class SessionHeader {
+
+    public static final int MAGIC = 0x31534856; // "VHS1"
+    public static final int VERSION = 1;
+    public static final int VERSION_BLOCKS = 2;
+    public static final int SIZE = 512;
+    public static final String EXTENSION = ".vhs";
+
+    public static final short RECORD_MAGIC = 0x5652;
+    public static final int RECORD_SIZE = 32;
+    public static final int RECORD_FLOATS = 4;
+
+    /* Stream indices used by the app */
+    public static final int STREAM_ORIENTATION = 0;
+    public static final int STREAM_VELOCITY = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /* Encoded bytes besides the address and the streams: fields before them, then the checksum */
+    private static final int FIXED_SIZE = 4 + 4 + 8 + 4 + 2 + 4 + 4;
+    private static final int STREAM_SIZE = 8 + 8 + 4;
+
+    private final int mVersion;
+    private final String mAddress;
+    private final long mStartTimeMillis;
+    private final float mRate;
+    private final UUID[] mStreams;
+    private final int[] mStreamFloats;
+
+    public SessionHeader(String address, long startTimeMillis, float rate, UUID[] streams, int[] streamFloats) {
+        this(VERSION, address, startTimeMillis, rate, streams, streamFloats);
+    }
+
+    public SessionHeader(int version, String address, long startTimeMillis, float rate, UUID[] streams,
+                         int[] streamFloats) {
+        if (version != VERSION && version != VERSION_BLOCKS) {
+            throw new IllegalArgumentException("Unsupported session version " + version);
+        }
+        if (streams.length != streamFloats.length || streams.length > 255) {
+            throw new IllegalArgumentException("Need floats per sample for each of at most 255 streams");
+        }
+        for (int floats : streamFloats) {
+            if (floats < 1 || floats > RECORD_FLOATS) {
+                throw new IllegalArgumentException("A record holds 1.." + RECORD_FLOATS + " floats");
+            }
+        }
+        int size = FIXED_SIZE + address.getBytes(UTF8).length + streams.length * STREAM_SIZE;
+        if (size > SIZE) {
+            throw new IllegalArgumentException("Address and " + streams.length + " streams take " + size
+                    + " bytes, a header has " + SIZE);
+        }
+        mVersion = version;
+        mAddress = address;
+        mStartTimeMillis = startTimeMillis;
+        mRate = rate;
+        mStreams = streams.clone();
+        mStreamFloats = streamFloats.clone();
+    }
+
+    /*
+     * Orientation and velocity of one ValedoHome sensor
+     */
+    public static SessionHeader forSensor(String address, long startTimeMillis, float rate) {
+        return new SessionHeader(address, startTimeMillis, rate,
+                new UUID[] {ValedoProfile.ORIENTATION, ValedoProfile.HIGH_PASS_VELOCITY},
+                new int[] {SampleCodec.ORIENTATION_FLOATS, SampleCodec.VELOCITY_FLOATS});
+    }
+
+    /*
+     * The same session, compressed into blocks
+     */
+    public SessionHeader compressed() {
+        return new SessionHeader(VERSION_BLOCKS, mAddress, mStartTimeMillis, mRate, mStreams, mStreamFloats);
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public boolean isCompressed() {
+        return mVersion == VERSION_BLOCKS;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public long getStartTimeMillis() {
+        return mStartTimeMillis;
+    }
+
+    public float getRate() {
+        return mRate;
+    }
+
+    public int getStreamCount() {
+        return mStreams.length;
+    }
+
+    public UUID getStream(int index) {
+        return mStreams[index];
+    }
+
+    public int getStreamFloats(int index) {
+        return mStreamFloats[index];
+    }
+
+    /* Orientation streams are packed as unit quaternions in compressed sessions */
+    public boolean isQuaternion(int index) {
+        return ValedoProfile.ORIENTATION.equals(mStreams[index]) && mStreamFloats[index] == SampleCodec.ORIENTATION_FLOATS;
+    }
+
+    public ByteBuffer encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(mVersion);
+        buffer.putLong(mStartTimeMillis);
+        buffer.putFloat(mRate);
+        byte[] address = mAddress.getBytes(UTF8);
+        buffer.putShort((short) address.length);
+        buffer.put(address);
+        buffer.putInt(mStreams.length);
+        for (int i = 0; i < mStreams.length; i++) {
+            buffer.putLong(mStreams[i].getMostSignificantBits());
+            buffer.putLong(mStreams[i].getLeastSignificantBits());
+            buffer.putInt(mStreamFloats[i]);
+        }
+        buffer.putInt(checksum(buffer, 0, buffer.position()));
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Reads a header from the SIZE bytes at the buffer's position.
+     */
+    public static SessionHeader decode(ByteBuffer source) throws IOException {
+        ByteBuffer buffer = source.slice().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a session file");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION && version != VERSION_BLOCKS) {
+                throw new IOException("Unsupported session version " + version);
+            }
+            long start = buffer.getLong();
+            float rate = buffer.getFloat();
+            byte[] address = new byte[buffer.getShort()];
+            buffer.get(address);
+            int count = buffer.getInt();
+            if (count < 0 || count > 255) {
+                throw new IOException("Corrupt session header");
+            }
+            UUID[] streams = new UUID[count];
+            int[] floats = new int[count];
+            for (int i = 0; i < count; i++) {
+                streams[i] = new UUID(buffer.getLong(), buffer.getLong());
+                floats[i] = buffer.getInt();
+            }
+            int expected = checksum(buffer, 0, buffer.position());
+            if (buffer.getInt() != expected) {
+                throw new IOException("Corrupt session header");
+            }
+            return new SessionHeader(version, new String(address, UTF8), start, rate, streams, floats);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt session header", e);
+        }
+    }
+
+    /*
+     * FNV-1a over whole ints, cheap enough to run per record
+     */
+    static int checksum(ByteBuffer buffer, int from, int to) {
+        int hash = 0x811c9dc5;
+        int i = from;
+        for (; i + 4 <= to; i += 4) {
+            hash = (hash ^ buffer.getInt(i)) * 0x01000193;
+        }
+        for (; i < to; i++) {
+            hash = (hash ^ buffer.get(i)) * 0x01000193;
+        }
+        return hash;
+    }
+}
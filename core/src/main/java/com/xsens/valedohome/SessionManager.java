@@ -0,0 +1,102 @@
+package com.xsens.valedohome;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Keeps one {@link SensorSession} per sensor address, so several sensors can stream at once.
+ *
+ * Connecting only kicks off the asynchronous setup of that sensor, all sessions progress in
+ * parallel on their own callbacks. Meant to be used from the UI thread.
+ */
+public class SessionManager {
+
+    public interface LinkFactory {
+        GattLink create(String address);
+    }
+
+    private final LinkFactory mLinkFactory;
+    private final SensorSession.Listener mListener;
+    private final Map<String, SensorSession> mSessions = new LinkedHashMap<String, SensorSession>();
+    private UUID[] mStreams = SensorSession.ALL_STREAMS;
+
+    /* Runs the connect and operation timeouts of all sessions */
+    private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor();
+
+    public SessionManager(LinkFactory linkFactory, SensorSession.Listener listener) {
+        mLinkFactory = linkFactory;
+        mListener = listener;
+    }
+
+    /*
+     * Streams new sessions subscribe to, see SensorSession.setStreams()
+     */
+    public void setStreams(UUID... streams) {
+        mStreams = streams.clone();
+    }
+
+    /**
+     * Starts a session for address, or returns the existing one if it is still alive.
+     */
+    public SensorSession connect(String address) {
+        SensorSession session = mSessions.get(address);
+        if (session != null && session.getState() != SensorSession.STATE_DISCONNECTED) {
+            return session;
+        }
+        if (session != null) {
+            //Make sure the dead session's link is released before it is forgotten
+            session.disconnect();
+        }
+        session = new SensorSession(mLinkFactory.create(address), mListener, mScheduler);
+        session.setStreams(mStreams);
+        mSessions.put(address, session);
+        session.connect();
+        return session;
+    }
+
+    public SensorSession get(String address) {
+        return mSessions.get(address);
+    }
+
+    public List<SensorSession> getSessions() {
+        return new ArrayList<SensorSession>(mSessions.values());
+    }
+
+    /* True while any session is still connecting or being set up */
+    public boolean isSettingUp() {
+        for (SensorSession session : mSessions.values()) {
+            int state = session.getState();
+            if (state != SensorSession.STATE_STREAMING && state != SensorSession.STATE_DISCONNECTED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void disconnect(String address) {
+        SensorSession session = mSessions.remove(address);
+        if (session != null) {
+            session.disconnect();
+        }
+    }
+
+    public void disconnectAll() {
+        for (SensorSession session : mSessions.values()) {
+            session.disconnect();
+        }
+        mSessions.clear();
+    }
+
+    /**
+     * Disconnects everything and stops the timeout thread, the manager can't be used after.
+     */
+    public void close() {
+        disconnectAll();
+        mScheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,199 @@
+package com.xsens.valedohome;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a session file written by {@link SessionRecorder} through a read-only memory map.
+ *
+ * Opening the file scans the records once and stops at the first one that is incomplete,
+ * zero or fails its checksum: everything before it is the valid part of the session, even
+ * when the recorder was cut off by a crash. Reading hands the records out through a single
+ * reused array, nothing is allocated per record.
+ *
+ * Compressed sessions read the same way, decoded block by block (see {@link BlockCursor}).
+ * Reading them in order is as cheap as reading the records of an uncompressed session, and
+ * {@link #seek} finds a point in time through the block index. Not thread safe.
+ */
+public final class SessionReader {
+
+    public interface Callback {
+        /*
+         * values[offset..] hold the stream's floats, the array is reused for the next record
+         */
+        void onRecord(int stream, long timestamp, float[] values, int offset);
+    }
+
+    /*
+     * Records are in the order the recorder drained its streams, which runs behind timestamp
+     * order by a write interval, more if the writer thread was held up
+     */
+    public static final long SEEK_SLACK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final SessionHeader mHeader;
+    private final MappedByteBuffer mMap;
+    private final int mRecords;
+    private final BlockCursor mBlocks;
+    private final long mLength;
+    private final float[] mValues = new float[SessionHeader.RECORD_FLOATS];
+
+    public SessionReader(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            mLength = channel.size();
+            if (mLength < SessionHeader.SIZE) {
+                throw new IOException("Not a session file");
+            }
+            if (mLength > Integer.MAX_VALUE) {
+                throw new IOException("Session file too large");
+            }
+            mMap = channel.map(FileChannel.MapMode.READ_ONLY, 0, mLength);
+        } finally {
+            raf.close();
+        }
+        mMap.order(ByteOrder.LITTLE_ENDIAN);
+        mHeader = SessionHeader.decode(mMap);
+        if (mHeader.isCompressed()) {
+            mBlocks = new BlockCursor(mHeader, mMap, mLength);
+            mRecords = mBlocks.getRecordCount();
+        } else {
+            mBlocks = null;
+            mRecords = countValid();
+        }
+    }
+
+    private int countValid() {
+        int available = (int) ((mLength - SessionHeader.SIZE) / SessionHeader.RECORD_SIZE);
+        for (int i = 0; i < available; i++) {
+            if (!isValid(SessionHeader.SIZE + i * SessionHeader.RECORD_SIZE)) {
+                return i;
+            }
+        }
+        return available;
+    }
+
+    private boolean isValid(int position) {
+        if (mMap.getShort(position) != SessionHeader.RECORD_MAGIC) {
+            return false;
+        }
+        int stream = mMap.get(position + 2) & 0xff;
+        if (stream >= mHeader.getStreamCount() || mMap.get(position + 3) != mHeader.getStreamFloats(stream)) {
+            return false;
+        }
+        int end = position + SessionHeader.RECORD_SIZE - 4;
+        return mMap.getInt(end) == SessionHeader.checksum(mMap, position, end);
+    }
+
+    public SessionHeader getHeader() {
+        return mHeader;
+    }
+
+    /* Number of valid records */
+    public int getRecordCount() {
+        return mRecords;
+    }
+
+    /*
+     * True if anything follows the valid records, e.g. a record torn by a crash, or a
+     * compressed session lacks its block index
+     */
+    public boolean isTruncated() {
+        return mLength > getValidLength() || (mBlocks != null && !mBlocks.isIndexed());
+    }
+
+    /* Length of the header plus the valid records, or blocks and their index */
+    public long getValidLength() {
+        if (mBlocks != null) {
+            return mBlocks.getValidLength();
+        }
+        return SessionHeader.SIZE + (long) mRecords * SessionHeader.RECORD_SIZE;
+    }
+
+    /* Timestamp of a valid record, ns since the start of the session */
+    public long getTimestamp(int index) {
+        if (mBlocks != null) {
+            return mBlocks.getTimestamp(index);
+        }
+        return mMap.getLong(SessionHeader.SIZE + index * SessionHeader.RECORD_SIZE + 4);
+    }
+
+    /**
+     * Hands out up to max valid records from index on, in file order.
+     *
+     * @return the number of records read
+     */
+    public int read(int from, int max, Callback callback) {
+        if (mBlocks != null) {
+            return mBlocks.read(from, max, callback);
+        }
+        int end = (int) Math.min(mRecords, (long) from + max);
+        for (int i = from; i < end; i++) {
+            int position = SessionHeader.SIZE + i * SessionHeader.RECORD_SIZE;
+            int stream = mMap.get(position + 2) & 0xff;
+            int floats = mMap.get(position + 3);
+            for (int j = 0; j < floats; j++) {
+                mValues[j] = mMap.getFloat(position + 12 + j * 4);
+            }
+            callback.onRecord(stream, mMap.getLong(position + 4), mValues, 0);
+        }
+        return Math.max(0, end - from);
+    }
+
+    public int read(Callback callback) {
+        return read(0, mRecords, callback);
+    }
+
+    /**
+     * Where to start reading to get every record from timestamp on: a record at most
+     * {@link #SEEK_SLACK_NANOS} before it, or a little further back in a compressed session.
+     * Skip the records before timestamp.
+     *
+     * @param timestamp ns since the start of the session
+     * @return the index of the record to read from
+     */
+    public int seek(long timestamp) {
+        long target = timestamp - SEEK_SLACK_NANOS;
+        if (mBlocks != null) {
+            return mBlocks.seek(target);
+        }
+        int low = 0;
+        int high = mRecords;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getTimestamp(middle) < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Cuts whatever follows the valid records off a session left behind by a crash, and
+     * writes the block index of a compressed one.
+     *
+     * @return the number of valid records
+     */
+    public static int recover(File file) throws IOException {
+        SessionReader reader = new SessionReader(file);
+        if (reader.isTruncated()) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(reader.getValidLength());
+                if (reader.mBlocks != null) {
+                    reader.mBlocks.writeIndex(raf.getChannel());
+                }
+            } finally {
+                raf.close();
+            }
+        }
+        return reader.getRecordCount();
+    }
+}
@@ -0,0 +1,263 @@
+package com.xsens.valedohome;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the sample streams of one sensor to a session file (see {@link SessionHeader}).
+ *
+ * The producer, normally the GATT callback thread, only copies each sample into a ring per
+ * stream. A background thread drains the rings every {@link #WRITE_INTERVAL_MS} into a direct
+ * buffer and writes whole batches through the file channel, forcing them to storage once per
+ * {@link #FLUSH_INTERVAL_MS}. A crash therefore loses at most the last flush interval, and
+ * {@link SessionReader} finds the end of the valid records in whatever was left behind.
+ *
+ * Samples the writer thread can't keep up with are dropped and counted, the producer never
+ * blocks on the disk.
+ *
+ * With a compressed header ({@link SessionHeader#compressed()}) the writer thread encodes the
+ * samples into blocks instead, see {@link BlockWriter}, and rewrites the block that is still
+ * filling at every flush. A crash then loses at most that block, a couple of seconds at
+ * 100 Hz, and the block index is only written by {@link #close()}.
+ */
+public final class SessionRecorder {
+
+    public static final long WRITE_INTERVAL_MS = 50;
+    public static final long FLUSH_INTERVAL_MS = 1000;
+
+    /* Samples buffered per stream, several write intervals worth at 2 kHz */
+    private static final int STREAM_BUFFER_SIZE = 1024;
+    private static final int BATCH_RECORDS = 256;
+
+    private final SessionHeader mHeader;
+    private final long mStartNanos;
+    private final SampleRingBuffer[] mStreams;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBatch =
+            ByteBuffer.allocateDirect(BATCH_RECORDS * SessionHeader.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final BlockWriter mBlocks;
+    private final Thread mWriter;
+
+    private volatile boolean mClosing;
+    private volatile IOException mError;
+    private volatile long mWritten;
+    private volatile long mFlushed;
+
+    /* Only touched by the writer thread while draining */
+    private int mDrainStream;
+
+    /**
+     * Creates or truncates file, writes the header and starts the writer thread.
+     */
+    public SessionRecorder(File file, SessionHeader header) throws IOException {
+        mHeader = header;
+        mStartNanos = System.nanoTime();
+        mStreams = new SampleRingBuffer[header.getStreamCount()];
+        for (int i = 0; i < mStreams.length; i++) {
+            mStreams[i] = new SampleRingBuffer(STREAM_BUFFER_SIZE, header.getStreamFloats(i));
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            mChannel = raf.getChannel();
+            ByteBuffer encoded = header.encode();
+            while (encoded.hasRemaining()) {
+                mChannel.write(encoded);
+            }
+            mChannel.force(true);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        mBlocks = header.isCompressed() ? new BlockWriter(mChannel, header) : null;
+
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "SessionRecorder " + header.getAddress());
+        mWriter.setPriority(Thread.MIN_PRIORITY);
+        mWriter.start();
+    }
+
+    public SessionHeader getHeader() {
+        return mHeader;
+    }
+
+    /* System.nanoTime() that record timestamps are relative to */
+    public long getStartNanos() {
+        return mStartNanos;
+    }
+
+    /**
+     * Producer side, one thread per recorder: copies a sample for the writer thread.
+     *
+     * @param timestamp System.nanoTime() of the sample
+     * @return false if it was dropped, because the writer fell behind or failed
+     */
+    public boolean record(int stream, long timestamp, float[] values, int offset) {
+        if (mClosing) {
+            return false;
+        }
+        SampleRingBuffer ring = mStreams[stream];
+        int slot = ring.claim();
+        if (slot < 0) {
+            return false;
+        }
+        System.arraycopy(values, offset, ring.values(), slot, ring.stride());
+        ring.publish(timestamp - mStartNanos);
+        return true;
+    }
+
+    /* Records written to the channel so far */
+    public long getWritten() {
+        return mWritten;
+    }
+
+    /* Records forced to storage so far */
+    public long getFlushed() {
+        return mFlushed;
+    }
+
+    public long getDropped() {
+        long dropped = 0;
+        for (SampleRingBuffer ring : mStreams) {
+            dropped += ring.getDropped();
+        }
+        return dropped;
+    }
+
+    /* The write error that stopped recording, if any */
+    public IOException getError() {
+        return mError;
+    }
+
+    /**
+     * Writes and flushes everything recorded so far, then closes the file. Blocks until the
+     * writer thread is done.
+     */
+    public void close() throws IOException {
+        mClosing = true;
+        LockSupport.unpark(mWriter);
+        boolean interrupted = false;
+        while (mWriter.isAlive()) {
+            try {
+                mWriter.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (mError != null) {
+            throw mError;
+        }
+    }
+
+    private final SampleRingBuffer.Reader mRecordWriter = new SampleRingBuffer.Reader() {
+        @Override
+        public void onSample(long timestamp, float[] values, int offset) {
+            if (mBlocks != null) {
+                if (mError == null) {
+                    try {
+                        mBlocks.append(mDrainStream, timestamp, values, offset);
+                    } catch (IOException e) {
+                        mError = e;
+                    }
+                }
+                return;
+            }
+            if (!mBatch.hasRemaining()) {
+                writeBatch();
+            }
+            int floats = mStreams[mDrainStream].stride();
+            int start = mBatch.position();
+            mBatch.putShort(SessionHeader.RECORD_MAGIC);
+            mBatch.put((byte) mDrainStream);
+            mBatch.put((byte) floats);
+            mBatch.putLong(timestamp);
+            for (int i = 0; i < SessionHeader.RECORD_FLOATS; i++) {
+                mBatch.putFloat(i < floats ? values[offset + i] : 0f);
+            }
+            mBatch.putInt(SessionHeader.checksum(mBatch, start, mBatch.position()));
+        }
+    };
+
+    private void writeLoop() {
+        long lastFlush = System.nanoTime();
+        try {
+            while (true) {
+                boolean closing = mClosing;
+                for (mDrainStream = 0; mDrainStream < mStreams.length; mDrainStream++) {
+                    SampleRingBuffer ring = mStreams[mDrainStream];
+                    ring.drain(mRecordWriter, ring.capacity());
+                }
+                writeBatch();
+                if (mError != null) {
+                    break;
+                }
+                long now = System.nanoTime();
+                if (closing || now - lastFlush >= TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS)) {
+                    if (mBlocks != null) {
+                        if (closing) {
+                            mBlocks.finish();
+                        } else {
+                            mBlocks.flush();
+                        }
+                        mWritten = mBlocks.getWritten();
+                    }
+                    mChannel.force(false);
+                    mFlushed = mWritten;
+                    lastFlush = now;
+                }
+                if (closing) {
+                    break;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(WRITE_INTERVAL_MS));
+            }
+        } catch (IOException e) {
+            mError = e;
+        } finally {
+            mClosing = true;
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                if (mError == null) {
+                    mError = e;
+                }
+            }
+        }
+    }
+
+    private void writeBatch() {
+        if (mBlocks != null) {
+            //Full blocks were written while draining
+            mWritten = mBlocks.getWritten();
+            return;
+        }
+        if (mError != null) {
+            mBatch.clear();
+            return;
+        }
+        mBatch.flip();
+        int records = mBatch.remaining() / SessionHeader.RECORD_SIZE;
+        try {
+            while (mBatch.hasRemaining()) {
+                mChannel.write(mBatch);
+            }
+            mWritten += records;
+        } catch (IOException e) {
+            mError = e;
+        }
+        mBatch.clear();
+    }
+}
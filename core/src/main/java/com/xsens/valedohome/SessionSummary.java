@@ -0,0 +1,130 @@
+package com.xsens.valedohome;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Summary of one recorded session, for reports over many of them: how long it ran, how many
+ * samples it holds, the motion analytics of its orientation stream and the peak velocity.
+ *
+ * {@link #summarize} reads the file once through a {@link SessionReader}, whose records come
+ * out of a memory map into one reused array, and feeds the orientation samples to a
+ * {@link MotionTracker}. A session takes a handful of fixed size objects and nothing is
+ * allocated per sample, so sessions can be summarized on as many threads as there are cores
+ * without getting in each other's way.
+ */
+public final class SessionSummary {
+
+    public static final String CSV_HEADER = "file,address,start,duration_s,compressed,truncated,"
+            + "orientation_samples,velocity_samples,roll_range,pitch_range,yaw_range,angle_range,"
+            + "dominant,repetitions,peak_speed,peak_velocity";
+
+    public String address;
+    public long startTimeMillis;
+    public boolean compressed;
+    /* The session was never closed, see SessionReader.isTruncated() */
+    public boolean truncated;
+    public long durationNanos;
+    public long orientationSamples;
+    public long velocitySamples;
+
+    /* Degrees, per MotionStats angle */
+    public final float[] ranges = new float[MotionStats.ANGLES];
+    public final int[] repetitions = new int[MotionStats.ANGLES];
+    public int dominantAngle;
+    /* Degrees per second */
+    public float peakSpeed;
+    /* Largest magnitude of the high pass velocity */
+    public float peakVelocity;
+
+    /**
+     * Reads a session file written by {@link SessionRecorder}, compressed or not.
+     */
+    public static SessionSummary summarize(File file) throws IOException {
+        SessionReader reader = new SessionReader(file);
+        SessionHeader header = reader.getHeader();
+        Collector collector = new Collector(header);
+        reader.read(collector);
+        collector.tracker.flush();
+
+        SessionSummary summary = new SessionSummary();
+        summary.address = header.getAddress();
+        summary.startTimeMillis = header.getStartTimeMillis();
+        summary.compressed = header.isCompressed();
+        summary.truncated = reader.isTruncated();
+        summary.durationNanos = reader.getRecordCount() == 0 ? 0 : collector.last - collector.first;
+        summary.orientationSamples = collector.orientations;
+        summary.velocitySamples = collector.velocities;
+        MotionStats stats = collector.tracker.getStats();
+        for (int a = 0; a < MotionStats.ANGLES; a++) {
+            summary.ranges[a] = stats.getRange(a);
+            summary.repetitions[a] = stats.getRepetitions(a);
+        }
+        summary.dominantAngle = stats.getDominantAngle();
+        summary.peakSpeed = stats.getPeakSpeed();
+        summary.peakVelocity = (float) Math.sqrt(collector.peakVelocitySquared);
+        return summary;
+    }
+
+    /**
+     * Appends one line of {@link #CSV_HEADER} columns, without the newline. Repetitions are
+     * those of the dominant angle.
+     */
+    public void appendCsv(String name, StringBuilder out) {
+        out.append(name).append(',').append(address).append(',').append(startTimeMillis).append(',');
+        out.append(String.format(Locale.US, "%.2f", durationNanos / 1e9)).append(',');
+        out.append(compressed).append(',').append(truncated).append(',');
+        out.append(orientationSamples).append(',').append(velocitySamples).append(',');
+        for (int a = 0; a < MotionStats.ANGLES; a++) {
+            out.append(String.format(Locale.US, "%.1f", ranges[a])).append(',');
+        }
+        out.append(MotionStats.NAMES[dominantAngle]).append(',').append(repetitions[dominantAngle]).append(',');
+        out.append(String.format(Locale.US, "%.1f,%.3f", peakSpeed, peakVelocity));
+    }
+
+    private static class Collector implements SessionReader.Callback {
+        final MotionTracker tracker = new MotionTracker();
+        private final int mOrientation;
+        private final int mVelocity;
+
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        long orientations;
+        long velocities;
+        double peakVelocitySquared;
+
+        Collector(SessionHeader header) {
+            int orientation = -1;
+            int velocity = -1;
+            for (int i = 0; i < header.getStreamCount(); i++) {
+                if (ValedoProfile.ORIENTATION.equals(header.getStream(i))
+                        && header.getStreamFloats(i) == SampleCodec.ORIENTATION_FLOATS) {
+                    orientation = i;
+                } else if (ValedoProfile.HIGH_PASS_VELOCITY.equals(header.getStream(i))
+                        && header.getStreamFloats(i) == SampleCodec.VELOCITY_FLOATS) {
+                    velocity = i;
+                }
+            }
+            mOrientation = orientation;
+            mVelocity = velocity;
+        }
+
+        @Override
+        public void onRecord(int stream, long timestamp, float[] values, int offset) {
+            first = Math.min(first, timestamp);
+            last = Math.max(last, timestamp);
+            if (stream == mOrientation) {
+                orientations++;
+                tracker.add(timestamp, values, offset);
+            } else if (stream == mVelocity) {
+                velocities++;
+                double squared = 0;
+                for (int i = 0; i < SampleCodec.VELOCITY_FLOATS; i++) {
+                    squared += values[offset + i] * values[offset + i];
+                }
+                peakVelocitySquared = Math.max(peakVelocitySquared, squared);
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.xsens.valedohome;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link GattLink} to a sensor that only exists in software, the base of the synthetic and
+ * replay sources.
+ *
+ * Each link has one thread that plays the binder thread: it answers every operation
+ * successfully, and from the first enabled notification on keeps asking the subclass for
+ * payloads that are due.
+ * Payloads go to {@link GattLink.Callback#onCharacteristicChanged}, exactly like BLE
+ * notifications, and only for characteristics whose notifications were enabled.
+ */
+public abstract class SimulatedLink implements GattLink {
+
+    /* Longest sleep between checks for operations to answer */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final String mAddress;
+    private final String mName;
+    private final ConcurrentLinkedQueue<Runnable> mAnswers = new ConcurrentLinkedQueue<Runnable>();
+    private final Set<UUID> mEnabled = new CopyOnWriteArraySet<UUID>();
+
+    private volatile Thread mThread;
+    private volatile Callback mCallback;
+    private volatile boolean mClosed;
+    /* Link thread only */
+    private boolean mStarted;
+    private volatile long mSent;
+
+    protected SimulatedLink(String address, String name) {
+        mAddress = address;
+        mName = name;
+    }
+
+    /**
+     * Called on the link's thread when the first notification is enabled, like a sensor that
+     * starts streaming once subscribed to. now is System.nanoTime().
+     */
+    protected abstract void start(long now);
+
+    /**
+     * Called on the link's thread: sends whatever is due by now through {@link #send}. Should
+     * return after a few hundred payloads at most, so operations are still answered.
+     *
+     * @return nanoseconds until the next payload is due, or a negative value when there is
+     * nothing left to send
+     */
+    protected abstract long stream(long now);
+
+    /*
+     * Delivers a payload as a notification, if it was enabled. The callback decodes it before
+     * returning, so the array may be reused for the next payload.
+     */
+    protected final void send(UUID characteristic, byte[] payload) {
+        if (mEnabled.contains(characteristic)) {
+            mCallback.onCharacteristicChanged(characteristic, payload);
+            mSent++;
+        }
+    }
+
+    /* Notifications delivered so far */
+    public long getSent() {
+        return mSent;
+    }
+
+    private void answer(Runnable runnable) {
+        mAnswers.add(runnable);
+        Thread thread = mThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void run() {
+        boolean done = false;
+        long next = 0;
+        while (!mClosed) {
+            Runnable answer;
+            while ((answer = mAnswers.poll()) != null) {
+                answer.run();
+            }
+            long now = System.nanoTime();
+            long wait = IDLE_NANOS;
+            if (mStarted && !done) {
+                if (now - next >= 0) {
+                    long due = stream(now);
+                    done = due < 0;
+                    next = now + due;
+                }
+                if (!done) {
+                    wait = Math.min(IDLE_NANOS, next - now);
+                }
+            }
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    @Override
+    public String getAddress() {
+        return mAddress;
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public void connect(Callback callback) {
+        mCallback = callback;
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onConnectionStateChange(true, true);
+            }
+        });
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SimulatedLink.this.run();
+            }
+        }, "SimulatedLink " + mAddress);
+        thread.setDaemon(true);
+        mThread = thread;
+        thread.start();
+    }
+
+    @Override
+    public boolean discoverServices() {
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onServicesDiscovered(true);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID service, final UUID characteristic) {
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onCharacteristicRead(characteristic, new byte[0], true);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID service, final UUID characteristic, byte[] value) {
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onCharacteristicWrite(characteristic, true);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean enableNotifications(UUID service, final UUID characteristic) {
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                mEnabled.add(characteristic);
+                if (!mStarted) {
+                    mStarted = true;
+                    start(System.nanoTime());
+                }
+                mCallback.onDescriptorWrite(characteristic, true);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean requestMtu(final int mtu) {
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onMtuChanged(mtu, true);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int priority) {
+        return true;
+    }
+
+    /* A sensor right next to the phone */
+    @Override
+    public boolean readRemoteRssi() {
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onReadRemoteRssi(-50, true);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public void disconnect() {
+        mClosed = true;
+        Thread thread = mThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
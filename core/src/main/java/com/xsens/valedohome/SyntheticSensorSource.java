@@ -0,0 +1,138 @@
+package com.xsens.valedohome;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates any number of fake sensors, each streaming ORIENTATION and HIGH_PASS_VELOCITY at
+ * a configurable rate with arrival jitter and packet loss.
+ *
+ * Every sensor slowly rotates about its own axis, so the graphs show something recognisable,
+ * and the x component of the velocity carries the sample index, so gaps are easy to find.
+ * Configure before connecting, the settings are read when a link is created.
+ */
+public class SyntheticSensorSource implements SensorSource {
+
+    public static final String ADDRESS_PREFIX = "5E:4D:00:00:00:";
+
+    private final int mSensorCount;
+    private final float mRate;
+    private long mJitterNanos;
+    private float mLoss;
+    private long mSeed = 1;
+
+    /**
+     * @param sensorCount at most 256
+     * @param rate        samples per second and per stream
+     */
+    public SyntheticSensorSource(int sensorCount, float rate) {
+        if (sensorCount < 1 || sensorCount > 256 || rate <= 0) {
+            throw new IllegalArgumentException("Need 1..256 sensors and a positive rate");
+        }
+        mSensorCount = sensorCount;
+        mRate = rate;
+    }
+
+    /* Standard deviation of the delay added to each arrival */
+    public SyntheticSensorSource setJitter(long jitterNanos) {
+        mJitterNanos = jitterNanos;
+        return this;
+    }
+
+    /* Probability 0..1 that a packet is lost */
+    public SyntheticSensorSource setLoss(float loss) {
+        mLoss = loss;
+        return this;
+    }
+
+    public SyntheticSensorSource setSeed(long seed) {
+        mSeed = seed;
+        return this;
+    }
+
+    @Override
+    public List<String> getAddresses() {
+        List<String> addresses = new ArrayList<String>(mSensorCount);
+        for (int i = 0; i < mSensorCount; i++) {
+            addresses.add(ADDRESS_PREFIX + String.format("%02X", i));
+        }
+        return addresses;
+    }
+
+    @Override
+    public GattLink create(String address) {
+        int index = getAddresses().indexOf(address);
+        if (index < 0) {
+            throw new IllegalArgumentException("No synthetic sensor " + address);
+        }
+        return new SyntheticLink(address, index, this);
+    }
+
+    private static class SyntheticLink extends SimulatedLink {
+        private final long mPeriod;
+        private final long mJitter;
+        private final float mLoss;
+        private final Random mRandom;
+        private final float[] mAxis = new float[3];
+
+        private final float[] mSample = new float[SampleCodec.ORIENTATION_FLOATS];
+        private final byte[] mOrientation = new byte[SampleCodec.ORIENTATION_SIZE];
+        private final byte[] mVelocity = new byte[SampleCodec.VELOCITY_SIZE];
+
+        private long mStart;
+        private long mIndex;
+        /* Arrival of the pending sample, its nominal time plus jitter */
+        private long mArrival;
+
+        SyntheticLink(String address, int index, SyntheticSensorSource source) {
+            super(address, "Synthetic " + index);
+            mPeriod = (long) (1e9 / source.mRate);
+            mJitter = source.mJitterNanos;
+            mLoss = source.mLoss;
+            mRandom = new Random(source.mSeed * 31 + index);
+            double angle = index * 2.399963; //golden angle, spreads the axes out
+            mAxis[0] = (float) Math.cos(angle);
+            mAxis[1] = (float) Math.sin(angle);
+        }
+
+        @Override
+        protected void start(long now) {
+            mStart = now;
+            mIndex = 0;
+            mArrival = now;
+        }
+
+        @Override
+        protected long stream(long now) {
+            while (now - mArrival >= 0) {
+                if (mLoss <= 0 || mRandom.nextFloat() >= mLoss) {
+                    emit(mIndex);
+                }
+                mIndex++;
+                long nominal = mStart + mIndex * mPeriod;
+                mArrival = mJitter <= 0 ? nominal
+                        : nominal + Math.abs((long) (mRandom.nextGaussian() * mJitter));
+            }
+            return mArrival - now;
+        }
+
+        private void emit(long index) {
+            double t = index * (mPeriod / 1e9);
+            double half = Math.PI * 0.25 * t;
+            float sin = (float) Math.sin(half);
+            mSample[0] = (float) Math.cos(half);
+            mSample[1] = mAxis[0] * sin;
+            mSample[2] = mAxis[1] * sin;
+            mSample[3] = mAxis[2] * sin;
+            SampleCodec.encode(mSample, 0, SampleCodec.ORIENTATION_FLOATS, mOrientation);
+            send(ValedoProfile.ORIENTATION, mOrientation);
+
+            mSample[0] = index;
+            mSample[1] = (float) Math.sin(2 * half);
+            mSample[2] = (float) Math.cos(2 * half);
+            SampleCodec.encode(mSample, 0, SampleCodec.VELOCITY_FLOATS, mVelocity);
+            send(ValedoProfile.HIGH_PASS_VELOCITY, mVelocity);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.xsens.valedohome;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory ring of binary trace events, formatted only when dumped.
+ *
+ * An event is an id, a System.nanoTime() timestamp and two numeric arguments, written into
+ * preallocated arrays with ordered but unfenced stores, so recording costs about as much as
+ * an atomic increment and never allocates. Any thread may record; the oldest events are
+ * overwritten once the ring is full.
+ *
+ * The app guards its per-packet call sites with a build flag of its own so release builds
+ * compile them out; connection lifecycle events are always recorded.
+ */
+public final class TraceBuffer {
+
+    public static final int EVENT_NOTIFY = 0;    // link id, payload bytes
+    public static final int EVENT_DRAIN = 1;     // session id, samples drained
+    public static final int EVENT_SCAN = 2;      // rssi, 1 if a ValedoHome sensor
+    public static final int EVENT_STATE = 3;     // session id, SensorSession state
+    public static final int EVENT_DROPPED = 4;   // session id, samples dropped since the last drain
+    public static final int EVENT_GATT_OP = 5;   // link id, GattOperation type
+
+    private static final String[] EVENT_NAMES = {"notify", "drain", "scan", "state", "dropped", "gatt-op"};
+
+    /* Shared by the whole app */
+    public static final TraceBuffer GLOBAL = new TraceBuffer(4096);
+
+    private final int mMask;
+    private final AtomicLongArray mTimestamps;
+    private final AtomicIntegerArray mEvents;
+    private final AtomicLongArray mArgs;
+    /*
+     * Sequence number + 1 of the event in a slot once it is completely written, 0 while it is
+     * being written. A dump reads it before and after the event (like a seqlock) and skips the
+     * event if it changed.
+     */
+    private final AtomicLongArray mCommitted;
+
+    private final AtomicLong mNext = new AtomicLong();
+    private final long mOrigin = System.nanoTime();
+
+    /**
+     * @param capacity number of events kept, rounded up to a power of two
+     */
+    public TraceBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mTimestamps = new AtomicLongArray(size);
+        mEvents = new AtomicIntegerArray(size);
+        mArgs = new AtomicLongArray(size * 2);
+        mCommitted = new AtomicLongArray(size);
+    }
+
+    /*
+     * lazySet keeps every store after the ones before it without a full fence, so a dump that
+     * sees any field of a newer event also sees its slot marked as being written. A writer
+     * lapped by the whole ring in the middle of an event is not guarded against.
+     */
+    public void record(int event, long a, long b) {
+        long sequence = mNext.getAndIncrement();
+        int slot = (int) (sequence & mMask);
+        mCommitted.lazySet(slot, 0);
+        mTimestamps.lazySet(slot, System.nanoTime());
+        mEvents.lazySet(slot, event);
+        mArgs.lazySet(slot * 2, a);
+        mArgs.lazySet(slot * 2 + 1, b);
+        mCommitted.lazySet(slot, sequence + 1);
+    }
+
+    /* Number of events ever recorded */
+    public long count() {
+        return mNext.get();
+    }
+
+    /**
+     * Appends the events still held, oldest first, one per line with the time in ms since the
+     * buffer was created. Events being overwritten while dumping are skipped.
+     */
+    public void dump(StringBuilder out) {
+        long end = mNext.get();
+        long start = Math.max(0, end - mTimestamps.length());
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence & mMask);
+            if (mCommitted.get(slot) != sequence + 1) {
+                continue;
+            }
+            long timestamp = mTimestamps.get(slot);
+            int event = mEvents.get(slot);
+            long a = mArgs.get(slot * 2);
+            long b = mArgs.get(slot * 2 + 1);
+            if (mCommitted.get(slot) != sequence + 1) {
+                //Overwritten while we were reading it
+                continue;
+            }
+            out.append(String.format("%10.3f %-8s %d %d\n", (timestamp - mOrigin) / 1e6,
+                    event >= 0 && event < EVENT_NAMES.length ? EVENT_NAMES[event] : String.valueOf(event), a, b));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.xsens.valedohome;
+
+import java.util.UUID;
+
+/**
+ * GATT services and characteristics exposed by a ValedoHome sensor.
+ */
+public final class ValedoProfile {
+
+    public static final String DEVICE_NAME = "ValedoHome";
+
+    /* Device Configuration */
+    public static final UUID DEVICE_CONFIGURATION         = UUID.fromString("14a1893f-9b14-4b60-a530-97a302993374");
+    public static final UUID POWER_CONTROL                = UUID.fromString("97f6bc36-00f3-4730-aab8-bb33836c14aa");
+    public static final UUID LED_STATE                    = UUID.fromString("ee5159fe-4a05-4aab-833d-9f88b5a42b48");
+    public static final UUID LOCAL_NAME                   = UUID.fromString("69a53fba-f69c-454b-9b3b-fd8d33128dad");
+    public static final UUID SELF_TEST_REPORT             = UUID.fromString("5e8236b8-b94d-4a65-8b9f-2ddaa6d69bb7");
+    public static final UUID HEADING_REDEFINITION_CONTROL = UUID.fromString("4ec79fb8-88bf-4392-84ec-a0475823f8fb");
+    /* Written to HEADING_REDEFINITION_CONTROL to make the current heading 0 on the sensor */
+    public static final byte[] HEADING_RESET = {1};
+    /* Only on firmware that can pack several samples per notification, see SampleFormat */
+    public static final UUID SAMPLE_FORMAT                = UUID.fromString("3b7a2d5e-6c41-4f0e-9d8b-5a1e0c7f2b64");
+
+    /* Awinda Service */
+    public static final UUID AWINDA_SERVICE               = UUID.fromString("e8a68b2a-b616-45c0-b8d0-d9ddf447731e");
+    public static final UUID ORIENTATION                  = UUID.fromString("cf54bf43-3d66-4666-8fd3-7df5788b73c1");
+    public static final UUID HIGH_PASS_VELOCITY           = UUID.fromString("1a431fae-e870-485a-aba3-89b3b525c570");
+
+    /*
+     * Link parameters asked for during setup. 247 bytes is the largest MTU that still fits one
+     * LE data length extended packet; the priority is BluetoothGatt.CONNECTION_PRIORITY_HIGH.
+     */
+    public static final int PREFERRED_MTU = 247;
+    public static final int DEFAULT_MTU = 23;
+    public static final int CONNECTION_PRIORITY_HIGH = 1;
+
+    /* Client Configuration Descriptor */
+    public static final UUID CONFIG_DESCRIPTOR = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    private ValedoProfile() {
+    }
+}
@@ -0,0 +1,85 @@
+package com.xsens.valedohome;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Precision of the packed quaternions, half floats and varints of compressed sessions.
+ */
+public class CompactCodecTest extends TestCase {
+
+    public void testQuaternionsWithinPrecision() {
+        Random random = new Random(3);
+        float[] q = new float[4];
+        float[] out = new float[5];
+        float worst = 0;
+        for (int n = 0; n < 100000; n++) {
+            float norm = 0;
+            for (int i = 0; i < 4; i++) {
+                q[i] = (float) random.nextGaussian();
+                norm += q[i] * q[i];
+            }
+            for (int i = 0; i < 4; i++) {
+                q[i] /= (float) Math.sqrt(norm);
+            }
+            CompactCodec.unpackQuaternion(CompactCodec.packQuaternion(q, 0), out, 1);
+            worst = Math.max(worst, QuaternionMath.angleBetween(q, 0, out, 1));
+            float length = out[1] * out[1] + out[2] * out[2] + out[3] * out[3] + out[4] * out[4];
+            assertEquals(1f, length, 1e-5f);
+        }
+        assertTrue("off by " + worst + " degrees", worst < 0.01f);
+    }
+
+    public void testQuaternionSignAndScale() {
+        float[] out = new float[4];
+        //-q, at twice the length
+        CompactCodec.unpackQuaternion(CompactCodec.packQuaternion(new float[] {-1.2f, 0f, -1.6f, 0f}, 0), out, 0);
+        assertEquals(0.6f, out[0], 1e-4f);
+        assertEquals(0.8f, out[2], 1e-4f);
+
+        CompactCodec.unpackQuaternion(CompactCodec.packQuaternion(new float[4], 0), out, 0);
+        assertEquals(1f, out[0], 1e-4f);
+        assertEquals(0f, out[1], 1e-4f);
+    }
+
+    public void testHalfFloats() {
+        assertEquals(0f, CompactCodec.fromHalf(CompactCodec.toHalf(0f)));
+        assertEquals(1f, CompactCodec.fromHalf(CompactCodec.toHalf(1f)));
+        assertEquals(-2.5f, CompactCodec.fromHalf(CompactCodec.toHalf(-2.5f)));
+        assertEquals(65504f, CompactCodec.fromHalf(CompactCodec.toHalf(1e9f)));
+        assertEquals(-65504f, CompactCodec.fromHalf(CompactCodec.toHalf(Float.NEGATIVE_INFINITY)));
+        assertTrue(Float.isNaN(CompactCodec.fromHalf(CompactCodec.toHalf(Float.NaN))));
+        //Subnormal
+        assertEquals(1e-6f, CompactCodec.fromHalf(CompactCodec.toHalf(1e-6f)), 3e-8f);
+
+        Random random = new Random(5);
+        for (int n = 0; n < 100000; n++) {
+            float value = (float) (random.nextGaussian() * Math.pow(10, random.nextInt(7) - 3));
+            if (Math.abs(value) < 1e-4f) {
+                continue;
+            }
+            float decoded = CompactCodec.fromHalf(CompactCodec.toHalf(value));
+            assertEquals(value, decoded, Math.abs(value) / 2048);
+        }
+    }
+
+    public void testVarints() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        long[] values = {0, 1, -1, 63, -64, 64, 10000, -10000, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            buffer.clear();
+            CompactCodec.putVarint(buffer, CompactCodec.zigzag(value));
+            assertTrue(buffer.position() <= CompactCodec.MAX_VARINT_SIZE);
+            long decoded = 0;
+            for (int i = 0; i < buffer.position(); i++) {
+                decoded |= (long) (buffer.get(i) & 0x7f) << (7 * i);
+            }
+            assertEquals(value, CompactCodec.unzigzag(decoded));
+        }
+        buffer.clear();
+        CompactCodec.putVarint(buffer, CompactCodec.zigzag(-64));
+        assertEquals(1, buffer.position());
+    }
+}
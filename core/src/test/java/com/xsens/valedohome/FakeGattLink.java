@@ -0,0 +1,252 @@
+package com.xsens.valedohome;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scripted stand-in for a sensor connection. Every operation succeeds and is answered on
+ * the link's own thread, like binder callbacks, unless the link is told to stay silent.
+ * Like older firmware it has no SAMPLE_FORMAT, unless it is given one.
+ */
+public class FakeGattLink implements GattLink {
+
+    private final String mAddress;
+    private final ExecutorService mThread = Executors.newSingleThreadExecutor();
+    private volatile Callback mCallback;
+    private volatile boolean mSilent;
+    private volatile boolean mConnected;
+    private volatile boolean mReleased;
+    private volatile SampleFormat mFormat;
+    private volatile int mRequestedMtu;
+    private volatile int mRequestedPriority = -1;
+    private volatile int mRssi = -60;
+    private volatile UUID mLastWritten;
+
+    public FakeGattLink(String address) {
+        mAddress = address;
+    }
+
+    /* Stop answering any further operations, like a sensor that went out of range */
+    public void setSilent(boolean silent) {
+        mSilent = silent;
+    }
+
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    /* disconnect() was called, on the phone that closes the BluetoothGatt */
+    public boolean isReleased() {
+        return mReleased;
+    }
+
+    /* The sensor ends the connection by itself, cleanly */
+    public void dropConnection() {
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                mConnected = false;
+                mCallback.onConnectionStateChange(true, false);
+            }
+        });
+    }
+
+    /* Advertise format in SAMPLE_FORMAT, null removes the characteristic */
+    public void setFormat(SampleFormat format) {
+        mFormat = format;
+    }
+
+    public UUID getLastWritten() {
+        return mLastWritten;
+    }
+
+    public int getRequestedMtu() {
+        return mRequestedMtu;
+    }
+
+    public int getRequestedPriority() {
+        return mRequestedPriority;
+    }
+
+    private void answer(Runnable runnable) {
+        if (!mSilent) {
+            mThread.execute(runnable);
+        }
+    }
+
+    /**
+     * Emits count orientation notifications from the link's thread, sample i is (i, id, 0, 0).
+     */
+    public void notifyOrientation(final int count, final float id) {
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    ByteBuffer buffer = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+                    buffer.putFloat(i).putFloat(id).putFloat(0f).putFloat(0f);
+                    mCallback.onCharacteristicChanged(ValedoProfile.ORIENTATION, buffer.array());
+                }
+            }
+        });
+    }
+
+    /* Emits one orientation notification holding the w, x, y, z quaternion q */
+    public void notifyQuaternion(final float[] q) {
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                byte[] payload = new byte[SampleCodec.ORIENTATION_SIZE];
+                SampleCodec.encode(q, 0, SampleCodec.ORIENTATION_FLOATS, payload);
+                mCallback.onCharacteristicChanged(ValedoProfile.ORIENTATION, payload);
+            }
+        });
+    }
+
+    /**
+     * Like notifyOrientation(), but packs up to perPacket samples per notification. Sample i
+     * has sensor timestamp i * ticksPerSample.
+     */
+    public void notifyPackedOrientation(final int count, final int perPacket, final long ticksPerSample, final float id) {
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                int floats = SampleCodec.ORIENTATION_FLOATS;
+                for (int first = 0; first < count; first += perPacket) {
+                    int n = Math.min(perPacket, count - first);
+                    long[] timestamps = new long[n];
+                    float[] values = new float[n * floats];
+                    for (int i = 0; i < n; i++) {
+                        timestamps[i] = (first + i) * ticksPerSample;
+                        values[i * floats] = first + i;
+                        values[i * floats + 1] = id;
+                    }
+                    byte[] payload = new byte[n * SampleCodec.packedSize(floats)];
+                    SampleCodec.encodePacked(timestamps, values, 0, n, floats, payload);
+                    mCallback.onCharacteristicChanged(ValedoProfile.ORIENTATION, payload);
+                }
+            }
+        });
+    }
+
+    public void shutdown() throws InterruptedException {
+        mThread.shutdown();
+        mThread.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public String getAddress() {
+        return mAddress;
+    }
+
+    @Override
+    public String getName() {
+        return "Fake " + mAddress;
+    }
+
+    @Override
+    public void connect(Callback callback) {
+        mCallback = callback;
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                mConnected = true;
+                mCallback.onConnectionStateChange(true, true);
+            }
+        });
+    }
+
+    @Override
+    public boolean discoverServices() {
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onServicesDiscovered(true);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID service, final UUID characteristic) {
+        final SampleFormat format = mFormat;
+        if (ValedoProfile.SAMPLE_FORMAT.equals(characteristic) && format == null) {
+            //Not there, the platform refuses to read it
+            return false;
+        }
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                byte[] value = ValedoProfile.SAMPLE_FORMAT.equals(characteristic) ? format.encode() : new byte[16];
+                mCallback.onCharacteristicRead(characteristic, value, true);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID service, final UUID characteristic, byte[] value) {
+        mLastWritten = characteristic;
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onCharacteristicWrite(characteristic, true);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean requestMtu(final int mtu) {
+        mRequestedMtu = mtu;
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onMtuChanged(mtu, true);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int priority) {
+        mRequestedPriority = priority;
+        return true;
+    }
+
+    public void setRssi(int rssi) {
+        mRssi = rssi;
+    }
+
+    @Override
+    public boolean readRemoteRssi() {
+        final int rssi = mRssi;
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onReadRemoteRssi(rssi, true);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean enableNotifications(UUID service, final UUID characteristic) {
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onDescriptorWrite(characteristic, true);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public void disconnect() {
+        mConnected = false;
+        mReleased = true;
+    }
+}
@@ -0,0 +1,177 @@
+package com.xsens.valedohome;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plain JVM test against a link that only records requests; the test plays the sensor.
+ */
+public class GattOperationQueueTest extends TestCase {
+
+    private static final UUID SERVICE = ValedoProfile.AWINDA_SERVICE;
+    private static final UUID A = ValedoProfile.ORIENTATION;
+    private static final UUID B = ValedoProfile.HIGH_PASS_VELOCITY;
+
+    private final List<String> mRequests = Collections.synchronizedList(new ArrayList<String>());
+    private volatile boolean mAccept = true;
+    private ScheduledExecutorService mScheduler;
+    private GattOperationQueue mQueue;
+
+    private class RecordingLink implements GattLink {
+        private boolean record(String request) {
+            mRequests.add(request);
+            return mAccept;
+        }
+
+        @Override public String getAddress() { return "00:00:00:00:00:00"; }
+        @Override public String getName() { return "Recording"; }
+        @Override public void connect(Callback callback) { }
+        @Override public boolean discoverServices() { return record("discover"); }
+        @Override public boolean readCharacteristic(UUID service, UUID characteristic) { return record("read " + characteristic); }
+        @Override public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value) { return record("write " + characteristic); }
+        @Override public boolean enableNotifications(UUID service, UUID characteristic) { return record("notify " + characteristic); }
+        @Override public boolean requestMtu(int mtu) { return record("mtu " + mtu); }
+        @Override public boolean requestConnectionPriority(int priority) { return record("priority " + priority); }
+        @Override public boolean readRemoteRssi() { return record("rssi"); }
+        @Override public void disconnect() { }
+    }
+
+    @Override
+    protected void setUp() {
+        mScheduler = Executors.newSingleThreadScheduledExecutor();
+        mQueue = new GattOperationQueue(new RecordingLink(), mScheduler);
+    }
+
+    @Override
+    protected void tearDown() {
+        mScheduler.shutdownNow();
+    }
+
+    public void testRunsOneOperationAtATime() throws InterruptedException {
+        GattOperation read = mQueue.enqueue(GattOperation.read(SERVICE, A));
+        GattOperation write = mQueue.enqueue(GattOperation.write(SERVICE, B, new byte[] {1}));
+        GattOperation notify = mQueue.enqueue(GattOperation.enableNotifications(SERVICE, A));
+        assertEquals(Collections.singletonList("read " + A), mRequests);
+        assertEquals(3, mQueue.size());
+
+        //An answer for something else than the running operation is ignored
+        mQueue.onCharacteristicWrite(B, true);
+        assertFalse(write.isDone());
+
+        mQueue.onCharacteristicRead(A, new byte[] {42}, true);
+        assertTrue(read.await(1, TimeUnit.SECONDS));
+        assertTrue(read.isSuccess());
+        assertEquals(42, read.getValue()[0]);
+        assertEquals("write " + B, mRequests.get(1));
+
+        mQueue.onCharacteristicWrite(B, true);
+        mQueue.onDescriptorWrite(A, true);
+        assertTrue(write.isSuccess());
+        assertTrue(notify.isSuccess());
+        assertEquals(3, mRequests.size());
+        assertEquals(0, mQueue.size());
+    }
+
+    public void testTimesOutAndRetries() throws InterruptedException {
+        GattOperation stalled = mQueue.enqueue(GattOperation.discoverServices().setTimeout(20).setRetries(2));
+        GattOperation next = mQueue.enqueue(GattOperation.requestMtu(185));
+
+        assertTrue(stalled.await(1, TimeUnit.SECONDS));
+        assertFalse(stalled.isSuccess());
+        assertEquals(3, stalled.getAttempts());
+        assertTrue(stalled.getLatencyNanos() >= TimeUnit.MILLISECONDS.toNanos(60));
+
+        //The queue moves on after giving up
+        mQueue.onMtuChanged(185, true);
+        assertTrue(next.isSuccess());
+        assertEquals(185, next.getMtu());
+        assertEquals(4, mRequests.size());
+    }
+
+    public void testFailedAnswerIsRetried() {
+        GattOperation read = mQueue.enqueue(GattOperation.read(SERVICE, A).setRetries(1));
+        mQueue.onCharacteristicRead(A, null, false);
+        assertFalse(read.isDone());
+        assertEquals(2, mRequests.size());
+        mQueue.onCharacteristicRead(A, new byte[0], true);
+        assertTrue(read.isSuccess());
+        assertEquals(2, read.getAttempts());
+    }
+
+    public void testRejectedRequestFailsWithoutWaiting() {
+        mAccept = false;
+        GattOperation read = mQueue.enqueue(GattOperation.read(SERVICE, A).setRetries(1));
+        assertTrue(read.isDone());
+        assertFalse(read.isSuccess());
+        assertEquals(2, mRequests.size());
+    }
+
+    public void testConnectionPriorityHasNoCallback() {
+        GattOperation priority = mQueue.enqueue(GattOperation.connectionPriority(1));
+        GattOperation read = mQueue.enqueue(GattOperation.read(SERVICE, A));
+        assertTrue(priority.isSuccess());
+        assertFalse(read.isDone());
+        assertEquals("read " + A, mRequests.get(1));
+    }
+
+    public void testRssiReading() {
+        GattOperation rssi = mQueue.enqueue(GattOperation.readRssi());
+        GattOperation read = mQueue.enqueue(GattOperation.read(SERVICE, A));
+        assertEquals("rssi", mRequests.get(0));
+
+        mQueue.onReadRemoteRssi(-67, true);
+        assertTrue(rssi.isSuccess());
+        assertEquals(-67, rssi.getRssi());
+        assertEquals("read " + A, mRequests.get(1));
+        assertFalse(read.isDone());
+    }
+
+    public void testClearFailsEverything() {
+        final List<GattOperation> completed = new ArrayList<GattOperation>();
+        GattOperation.Listener listener = new GattOperation.Listener() {
+            @Override
+            public void onComplete(GattOperation operation) {
+                completed.add(operation);
+            }
+        };
+        mQueue.enqueue(GattOperation.read(SERVICE, A).setListener(listener));
+        mQueue.enqueue(GattOperation.read(SERVICE, B).setListener(listener));
+        mQueue.clear();
+        assertEquals(2, completed.size());
+        assertFalse(completed.get(0).isSuccess());
+        assertFalse(completed.get(1).isSuccess());
+        assertEquals(0, mQueue.size());
+        assertEquals(1, mRequests.size());
+    }
+
+    public void testListenersRunOutsideTheLockAndClearStartsNothing() {
+        final List<String> seen = new ArrayList<String>();
+        GattOperation.Listener listener = new GattOperation.Listener() {
+            @Override
+            public void onComplete(GattOperation operation) {
+                assertFalse(Thread.holdsLock(mQueue));
+                //Retrying from the listener must not reach the link before clear() is done
+                seen.add(mRequests.size() + " " + operation.getCharacteristic());
+                if (operation.getCharacteristic().equals(A)) {
+                    mQueue.enqueue(GattOperation.read(SERVICE, B));
+                }
+            }
+        };
+        mQueue.enqueue(GattOperation.read(SERVICE, A).setListener(listener));
+        mQueue.enqueue(GattOperation.write(SERVICE, B, new byte[] {1}).setListener(listener));
+        mQueue.clear();
+        assertEquals(2, seen.size());
+        assertEquals("1 " + A, seen.get(0));
+        assertEquals("1 " + B, seen.get(1));
+        //Started once the clear was over
+        assertEquals("read " + B, mRequests.get(1));
+        assertEquals(1, mQueue.size());
+    }
+}
@@ -0,0 +1,183 @@
+package com.xsens.valedohome;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Quaternions are built from heading, pitch and roll; the session cases run on a
+ * {@link FakeGattLink}.
+ */
+public class HeadingCorrectionTest extends TestCase {
+
+    private static final double EPSILON = 1e-5;
+
+    /* w, x, y, z of heading, then pitch, then roll, radians */
+    private static float[] quaternion(double heading, double pitch, double roll) {
+        double cy = Math.cos(heading / 2), sy = Math.sin(heading / 2);
+        double cp = Math.cos(pitch / 2), sp = Math.sin(pitch / 2);
+        double cr = Math.cos(roll / 2), sr = Math.sin(roll / 2);
+        return new float[] {
+                (float) (cr * cp * cy + sr * sp * sy),
+                (float) (sr * cp * cy - cr * sp * sy),
+                (float) (cr * sp * cy + sr * cp * sy),
+                (float) (cr * cp * sy - sr * sp * cy)
+        };
+    }
+
+    private static double pitch(float[] q) {
+        return Math.asin(2 * (q[0] * q[2] - q[3] * q[1]));
+    }
+
+    private static double roll(float[] q) {
+        return Math.atan2(2 * (q[0] * q[1] + q[2] * q[3]), 1 - 2 * (q[1] * q[1] + q[2] * q[2]));
+    }
+
+    public void testResetTakesHeadingOfNextSample() {
+        HeadingCorrection correction = new HeadingCorrection();
+        float[] q = quaternion(Math.toRadians(60), Math.toRadians(20), Math.toRadians(-10));
+        correction.applyToOrientation(q, 0);
+        assertEquals(Math.toRadians(60), HeadingCorrection.heading(q, 0), EPSILON);
+
+        correction.requestReset();
+        correction.applyToOrientation(q, 0);
+        assertEquals(0, HeadingCorrection.heading(q, 0), EPSILON);
+        assertEquals(Math.toRadians(20), pitch(q), EPSILON);
+        assertEquals(Math.toRadians(-10), roll(q), EPSILON);
+        assertEquals(Math.toRadians(60), correction.getOffset(), EPSILON);
+
+        //Turning further shows up relative to the new zero
+        float[] next = quaternion(Math.toRadians(90), 0, 0);
+        correction.applyToOrientation(next, 0);
+        assertEquals(Math.toRadians(30), HeadingCorrection.heading(next, 0), EPSILON);
+
+        correction.clear();
+        float[] raw = quaternion(Math.toRadians(90), 0, 0);
+        correction.applyToOrientation(raw, 0);
+        assertEquals(Math.toRadians(90), HeadingCorrection.heading(raw, 0), EPSILON);
+    }
+
+    public void testVectorsTurnWithTheOrientation() {
+        HeadingCorrection correction = new HeadingCorrection();
+        correction.requestReset();
+        correction.applyToOrientation(quaternion(Math.toRadians(90), 0, 0), 0);
+
+        //Pointing along the sensor's heading is pointing along x after the reset
+        float[] v = {7f, 0f, 2f, 1f, 5f};
+        correction.applyToVector(v, 1);
+        assertEquals(7f, v[0]);
+        assertEquals(2f, v[1], EPSILON);
+        assertEquals(0f, v[2], EPSILON);
+        assertEquals(1f, v[3]);
+        assertEquals(5f, v[4]);
+    }
+
+    public void testSessionCorrectsDecodedSamples() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            SensorSession session = new SensorSession(new FakeGattLink("A"), new SensorSession.Listener() {
+                @Override
+                public void onSessionStateChanged(SensorSession session, int state, String message) {
+                }
+
+                @Override
+                public void onSamplesAvailable(SensorSession session) {
+                }
+            }, scheduler);
+            byte[] payload = new byte[SampleCodec.ORIENTATION_SIZE];
+            SampleCodec.encode(quaternion(Math.toRadians(45), 0, 0), 0, SampleCodec.ORIENTATION_FLOATS, payload);
+            session.resetHeading(false);
+            session.onCharacteristicChanged(ValedoProfile.ORIENTATION, payload);
+
+            final double[] heading = new double[1];
+            assertEquals(1, session.drain(new SampleRingBuffer.Reader() {
+                @Override
+                public void onSample(long timestamp, float[] values, int offset) {
+                    heading[0] = HeadingCorrection.heading(values, offset);
+                }
+            }, null));
+            assertEquals(0, heading[0], EPSILON);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public void testHandOverWaitsForTheSensorsReset() {
+        HeadingCorrection correction = new HeadingCorrection();
+        correction.requestReset();
+        correction.handOver();
+        float[] q = quaternion(Math.toRadians(60), 0, 0);
+        correction.applyToOrientation(q, 0);
+        assertEquals(0, HeadingCorrection.heading(q, 0), EPSILON);
+
+        //Still the old heading, the correction stays
+        q = quaternion(Math.toRadians(61), 0, 0);
+        correction.applyToOrientation(q, 0);
+        assertEquals(Math.toRadians(1), HeadingCorrection.heading(q, 0), EPSILON);
+
+        q = quaternion(Math.toRadians(0.5), 0, 0);
+        correction.applyToOrientation(q, 0);
+        assertEquals(Math.toRadians(0.5), HeadingCorrection.heading(q, 0), EPSILON);
+        assertEquals(0, correction.getOffset(), EPSILON);
+    }
+
+    public void testPersistedResetEndsTheLocalCorrection() throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        FakeGattLink link = new FakeGattLink("A");
+        try {
+            final CountDownLatch streaming = new CountDownLatch(1);
+            SensorSession session = new SensorSession(link, new SensorSession.Listener() {
+                @Override
+                public void onSessionStateChanged(SensorSession session, int state, String message) {
+                    if (state == SensorSession.STATE_STREAMING) {
+                        streaming.countDown();
+                    }
+                }
+
+                @Override
+                public void onSamplesAvailable(SensorSession session) {
+                }
+            }, scheduler);
+            session.setStreams(ValedoProfile.ORIENTATION);
+            session.connect();
+            assertTrue(streaming.await(5, TimeUnit.SECONDS));
+
+            session.resetHeading(true);
+            //The link answers in order: the write first, then a sample sent before the
+            //sensor's reset took, then the sensor's reset output, then a turn
+            link.notifyQuaternion(quaternion(Math.toRadians(60), 0, 0));
+            link.notifyQuaternion(quaternion(0, 0, 0));
+            link.notifyQuaternion(quaternion(Math.toRadians(30), 0, 0));
+            double[] headings = drain(session, 3);
+            assertEquals(ValedoProfile.HEADING_REDEFINITION_CONTROL, link.getLastWritten());
+            assertEquals(0, headings[0], EPSILON);
+            assertEquals(0, headings[1], EPSILON);
+            assertEquals(Math.toRadians(30), headings[2], EPSILON);
+            assertEquals(0, session.getHeading().getOffset(), EPSILON);
+        } finally {
+            link.shutdown();
+            scheduler.shutdownNow();
+        }
+    }
+
+    /* Waits for count orientation samples, returns their headings */
+    private static double[] drain(SensorSession session, int count) throws InterruptedException {
+        final double[] headings = new double[count];
+        final int[] n = {0};
+        long deadline = System.currentTimeMillis() + 5000;
+        while (n[0] < count && System.currentTimeMillis() < deadline) {
+            session.drain(new SampleRingBuffer.Reader() {
+                @Override
+                public void onSample(long timestamp, float[] values, int offset) {
+                    headings[n[0]++] = HeadingCorrection.heading(values, offset);
+                }
+            }, null);
+            Thread.sleep(5);
+        }
+        assertEquals(count, n[0]);
+        return headings;
+    }
+}
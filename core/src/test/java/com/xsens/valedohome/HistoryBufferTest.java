@@ -0,0 +1,88 @@
+package com.xsens.valedohome;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Samples are numbered so every column can be checked against the raw values it covers.
+ */
+public class HistoryBufferTest extends TestCase {
+
+    private final float[] mSamples = new float[2000];
+    private final HistoryBuffer mHistory = new HistoryBuffer(2, 64, 4);
+
+    @Override
+    protected void setUp() {
+        Random random = new Random(42);
+        float[] sample = new float[2];
+        for (int i = 0; i < 1000; i++) {
+            mSamples[i] = random.nextFloat() * 2 - 1;
+            sample[0] = mSamples[i];
+            sample[1] = -mSamples[i];
+            mHistory.append(sample, 0);
+        }
+    }
+
+    private void assertColumn(float min, float max, int from, int to) {
+        float expectedMin = Float.POSITIVE_INFINITY;
+        float expectedMax = Float.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            expectedMin = Math.min(expectedMin, mSamples[i]);
+            expectedMax = Math.max(expectedMax, mSamples[i]);
+        }
+        assertEquals(expectedMin, min);
+        assertEquals(expectedMax, max);
+    }
+
+    public void testRawResolution() {
+        float[] min = new float[32];
+        float[] max = new float[32];
+        assertEquals(20, mHistory.query(0, 980, 1000, 32, min, max));
+        for (int i = 0; i < 20; i++) {
+            assertColumn(min[i], max[i], 980 + i, 981 + i);
+        }
+        assertEquals(mSamples[999], mHistory.get(0, 999));
+        assertEquals(-mSamples[990], mHistory.get(1, 990));
+    }
+
+    public void testCoarseColumns() {
+        float[] min = new float[16];
+        float[] max = new float[16];
+        assertEquals(16, mHistory.query(0, 480, 992, 16, min, max));
+        for (int i = 0; i < 16; i++) {
+            assertColumn(min[i], max[i], 480 + 32 * i, 512 + 32 * i);
+        }
+    }
+
+    public void testNewestSamplesInPartialBuckets() {
+        float[] min = new float[1];
+        float[] max = new float[1];
+        assertEquals(1, mHistory.query(0, 968, 1000, 1, min, max));
+        assertColumn(min[0], max[0], 960, 1000);
+
+        assertEquals(1, mHistory.query(1, 968, 1000, 1, min, max));
+        float[] negated = {-max[0]};
+        assertColumn(negated[0], -min[0], 960, 1000);
+    }
+
+    public void testOldSamplesOnlyKeptCoarsely() {
+        HistoryBuffer history = new HistoryBuffer(1, 64, 2);
+        float[] sample = new float[1];
+        for (int i = 0; i < 1000; i++) {
+            sample[0] = mSamples[i];
+            history.append(sample, 0);
+        }
+        assertEquals(744, history.oldest());
+
+        float[] min = new float[4];
+        float[] max = new float[4];
+        assertEquals(4, history.query(0, 0, 1000, 4, min, max));
+        assertColumn(min[0], max[0], 744, 808);
+        try {
+            history.get(0, 900);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+}
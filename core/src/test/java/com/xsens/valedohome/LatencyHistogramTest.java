@@ -0,0 +1,48 @@
+package com.xsens.valedohome;
+
+import junit.framework.TestCase;
+
+/**
+ * Percentiles are checked against the bucket precision the histogram promises.
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    public void testPercentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 100000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(100000000L, histogram.getMaxNanos());
+        assertWithin(50000000L, histogram.getPercentileNanos(50));
+        assertWithin(99000000L, histogram.getPercentileNanos(99));
+        assertEquals(100000000L, histogram.getPercentileNanos(100));
+    }
+
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3500);
+        assertEquals(3500, histogram.getPercentileNanos(50));
+        histogram.record(0);
+        assertEquals(1000, histogram.getPercentileNanos(50));
+    }
+
+    public void testHugeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentileNanos(99));
+    }
+
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(50));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " not within 12.5% of " + expected,
+                actual >= expected && actual <= expected + expected / 8);
+    }
+}
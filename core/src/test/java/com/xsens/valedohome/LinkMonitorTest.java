@@ -0,0 +1,156 @@
+package com.xsens.valedohome;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Arrival times are made up, the monitor never reads the clock itself.
+ */
+public class LinkMonitorTest extends TestCase {
+
+    private static final long MS = 1000000L;
+    private static final long START = 1000 * MS;
+
+    private final LinkMonitor mMonitor = new LinkMonitor();
+    private final List<Integer> mChanges = new ArrayList<Integer>();
+    private long mNow = START;
+
+    @Override
+    protected void setUp() {
+        mMonitor.setListener(new LinkMonitor.Listener() {
+            @Override
+            public void onLinkQualityChanged(LinkMonitor monitor, boolean degraded, int reasons) {
+                //-1 for a recovery, the reasons otherwise
+                mChanges.add(degraded ? reasons : -1);
+            }
+        });
+    }
+
+    /* 100 Hz for millis, every lossEvery-th sample lost (0 for none) */
+    private void stream(long millis, int lossEvery) {
+        long end = mNow + millis * MS;
+        int i = 0;
+        for (; mNow < end; mNow += 10 * MS) {
+            if (lossEvery == 0 || ++i % lossEvery != 0) {
+                mMonitor.recordNotification(mNow, 1);
+            }
+        }
+    }
+
+    public void testSteadyLink() {
+        stream(5000, 0);
+
+        assertEquals(100f, mMonitor.getSampleRate(), 0.5f);
+        assertEquals(100f, mMonitor.getNotificationRate(), 0.5f);
+        assertEquals(100f, mMonitor.getNominalRate(), 0.5f);
+        assertEquals(500, mMonitor.getReceived());
+        assertEquals(0, mMonitor.getDropped());
+        assertEquals(0, mMonitor.getGaps());
+        assertEquals(0, mMonitor.getBursts());
+        assertFalse(mMonitor.isDegraded());
+        assertTrue(mChanges.isEmpty());
+    }
+
+    public void testPackedNotifications() {
+        for (long end = mNow + 3000 * MS; mNow < end; mNow += 40 * MS) {
+            mMonitor.recordNotification(mNow, 4);
+        }
+
+        assertEquals(100f, mMonitor.getSampleRate(), 0.5f);
+        assertEquals(25f, mMonitor.getNotificationRate(), 0.5f);
+        assertEquals(0, mMonitor.getGaps());
+        assertFalse(mMonitor.isDegraded());
+    }
+
+    public void testLossDegradesAndRecovers() {
+        stream(3000, 0);
+        stream(3000, 4);
+
+        assertTrue(mMonitor.isDegraded());
+        assertEquals(LinkMonitor.REASON_LOSS, mChanges.get(0).intValue());
+        assertEquals(75f, mMonitor.getSampleRate(), 1f);
+        assertEquals(100f, mMonitor.getNominalRate(), 0.5f);
+
+        //Good windows again, but it takes RECOVERY_NANOS to trust them
+        stream(2000, 0);
+        assertTrue(mMonitor.isDegraded());
+        //A quarter of 3 s at 100 Hz, give or take the window edges
+        assertEquals(75, mMonitor.getDropped(), 5);
+        stream(3000, 0);
+        assertFalse(mMonitor.isDegraded());
+        assertEquals(2, mChanges.size());
+        assertEquals(-1, mChanges.get(1).intValue());
+    }
+
+    public void testGapIsCountedAndEstimated() {
+        stream(3000, 0);
+        mNow += 300 * MS;
+        stream(2000, 0);
+
+        assertEquals(1, mMonitor.getGaps());
+        assertEquals(310 * MS, mMonitor.getLongestGapNanos());
+        assertEquals(30, mMonitor.getDropped(), 2);
+        assertTrue((mChanges.get(0) & LinkMonitor.REASON_GAPS) != 0);
+    }
+
+    public void testBurstAfterBacklog() {
+        stream(2000, 0);
+        //The sensor couldn't send for a while, then flushes its queue in one go
+        mNow += 200 * MS;
+        for (int i = 0; i < 20; i++) {
+            mMonitor.recordNotification(mNow + i * 100000L, 1);
+        }
+        mNow += 10 * MS;
+        stream(2000, 0);
+
+        assertEquals(1, mMonitor.getBursts());
+        assertEquals(1, mMonitor.getGaps());
+        //Delayed rather than lost, the catch up brings the estimate back down
+        assertEquals(0, mMonitor.getDropped(), 2);
+    }
+
+    public void testStall() {
+        stream(2000, 0);
+        mMonitor.check(mNow + 500 * MS);
+        assertFalse(mMonitor.isDegraded());
+
+        mMonitor.check(mNow + 1500 * MS);
+        assertTrue(mMonitor.isDegraded());
+        assertEquals(LinkMonitor.REASON_STALL, mMonitor.getReasons());
+    }
+
+    public void testWeakRssiWithHysteresis() {
+        stream(1000, 0);
+        mMonitor.recordRssi(-70, mNow);
+        assertFalse(mMonitor.isDegraded());
+
+        for (int i = 0; i < 10; i++) {
+            mMonitor.recordRssi(-95, mNow);
+        }
+        assertTrue(mMonitor.isDegraded());
+        assertEquals(-95, mMonitor.getRssi());
+        assertEquals(LinkMonitor.REASON_RSSI, mChanges.get(0).intValue());
+
+        //Just above the threshold isn't good enough yet
+        for (int i = 0; i < 10; i++) {
+            mMonitor.recordRssi(-83, mNow);
+        }
+        assertEquals(LinkMonitor.REASON_RSSI, mMonitor.getReasons());
+
+        for (int i = 0; i < 10; i++) {
+            mMonitor.recordRssi(-60, mNow);
+        }
+        assertEquals(0, mMonitor.getReasons());
+        assertTrue(mMonitor.isDegraded());
+        stream(TimeUnit.NANOSECONDS.toMillis(LinkMonitor.RECOVERY_NANOS) + 1000, 0);
+        assertFalse(mMonitor.isDegraded());
+    }
+
+    public void testDescribe() {
+        assertEquals("ok", LinkMonitor.describe(0));
+        assertEquals("losing samples, stalled", LinkMonitor.describe(LinkMonitor.REASON_LOSS | LinkMonitor.REASON_STALL));
+    }
+}
@@ -0,0 +1,131 @@
+package com.xsens.valedohome;
+
+import junit.framework.TestCase;
+
+/**
+ * Euler angles, range of motion and repetitions of scripted single axis movements.
+ */
+public class MotionAnalyticsTest extends TestCase {
+
+    private static final float EPSILON = 1e-3f;
+
+    /* Rotation by degrees about the unit axis x, y, z */
+    private static float[] rotation(double degrees, double x, double y, double z) {
+        double half = Math.toRadians(degrees) / 2;
+        double s = Math.sin(half);
+        return new float[] {(float) Math.cos(half), (float) (x * s), (float) (y * s), (float) (z * s)};
+    }
+
+    public void testEulerOfSingleAxisRotations() {
+        float[] q = new float[12];
+        System.arraycopy(rotation(30, 1, 0, 0), 0, q, 0, 4);
+        System.arraycopy(rotation(-45, 0, 1, 0), 0, q, 4, 4);
+        System.arraycopy(rotation(120, 0, 0, 1), 0, q, 8, 4);
+        float[] out = new float[1 + 9];
+        QuaternionMath.toEuler(q, 0, out, 1, 3);
+
+        assertEquals(30f, out[1 + QuaternionMath.ROLL], EPSILON);
+        assertEquals(0f, out[1 + QuaternionMath.PITCH], EPSILON);
+        assertEquals(-45f, out[4 + QuaternionMath.PITCH], EPSILON);
+        assertEquals(0f, out[4 + QuaternionMath.YAW], EPSILON);
+        assertEquals(120f, out[7 + QuaternionMath.YAW], EPSILON);
+        assertEquals(0f, out[7 + QuaternionMath.ROLL], EPSILON);
+    }
+
+    public void testEulerAtGimbalLockStaysFinite() {
+        float[] q = rotation(90, 0, 1, 0);
+        //Rounded so that 2(wy - zx) lands just above 1
+        q[0] = 0.70710683f;
+        q[2] = 0.70710683f;
+        float[] out = new float[3];
+        QuaternionMath.toEuler(q, 0, out, 0, 1);
+
+        assertEquals(90f, out[QuaternionMath.PITCH], EPSILON);
+    }
+
+    public void testAngleBetweenIsPreciseForSmallAngles() {
+        float[] a = rotation(10, 0, 0, 1);
+        float[] b = rotation(10.05, 0, 0, 1);
+
+        assertEquals(0.05f, QuaternionMath.angleBetween(a, 0, b, 0), 5e-3f);
+        assertEquals(90f, QuaternionMath.angleBetween(rotation(0, 1, 0, 0), 0, rotation(90, 0, 1, 0), 0), EPSILON);
+    }
+
+    public void testAngleBetweenIgnoresQuaternionSign() {
+        float[] a = rotation(20, 1, 0, 0);
+        float[] b = rotation(50, 1, 0, 0);
+        for (int i = 0; i < 4; i++) {
+            b[i] = -b[i];
+        }
+
+        assertEquals(30f, QuaternionMath.angleBetween(a, 0, b, 0), EPSILON);
+    }
+
+    public void testStatsCountRepetitionsWithHysteresis() {
+        MotionStats stats = new MotionStats();
+        float[] angles = new float[MotionStats.ANGLES];
+        //Three swings from 0 to 60 and back, with some jitter at the top
+        float[] path = {0, 30, 60, 55, 60, 30, 0, 60, 0, 60, 40, 50, 0};
+        for (float value : path) {
+            angles[MotionStats.ANGLE] = value;
+            stats.update(angles, 0, value);
+        }
+
+        assertEquals(60f, stats.getRange(MotionStats.ANGLE), EPSILON);
+        assertEquals(3, stats.getRepetitions(MotionStats.ANGLE));
+        assertEquals(MotionStats.ANGLE, stats.getDominantAngle());
+        assertEquals(60f, stats.getPeakSpeed(), EPSILON);
+        assertEquals(0, stats.getRepetitions(MotionStats.ROLL));
+    }
+
+    public void testStatsIgnoreTremor() {
+        MotionStats stats = new MotionStats();
+        float[] angles = new float[MotionStats.ANGLES];
+        for (int i = 0; i < 100; i++) {
+            angles[MotionStats.PITCH] = (i & 1) == 0 ? 0 : MotionStats.MIN_REPETITION_RANGE / 2;
+            stats.update(angles, 0, 0);
+        }
+
+        assertEquals(0, stats.getRepetitions(MotionStats.PITCH));
+
+        stats.reset();
+        assertEquals(0, stats.getCount());
+        assertEquals(0f, stats.getRange(MotionStats.PITCH));
+    }
+
+    public void testAnalyticsPublishSnapshots() throws InterruptedException {
+        MotionAnalytics analytics = new MotionAnalytics("test");
+        MotionSnapshot snapshot = new MotionSnapshot();
+        try {
+            assertFalse(analytics.read(snapshot));
+
+            //Bend 0 to 90 degrees about x and back, 10 ms apart
+            long time = 0;
+            for (int degrees = 0; degrees <= 90; degrees += 2) {
+                assertTrue(analytics.record(time += 10000000L, rotation(degrees, 1, 0, 0), 0));
+            }
+            for (int degrees = 90; degrees >= 0; degrees -= 2) {
+                assertTrue(analytics.record(time += 10000000L, rotation(degrees, 1, 0, 0), 0));
+            }
+            int samples = 2 * 46;
+
+            long deadline = System.currentTimeMillis() + 2000;
+            while (snapshot.samples < samples && System.currentTimeMillis() < deadline) {
+                analytics.read(snapshot);
+                Thread.sleep(MotionAnalytics.PUBLISH_INTERVAL_MS);
+            }
+
+            assertEquals(samples, snapshot.samples);
+            assertEquals(time, snapshot.timestamp);
+            assertEquals(90f, snapshot.ranges[MotionStats.ANGLE], 0.01f);
+            assertEquals(90f, snapshot.ranges[MotionStats.ROLL], 0.01f);
+            assertEquals(1, snapshot.repetitions[MotionStats.ANGLE]);
+            assertEquals(0f, snapshot.angles[MotionStats.ANGLE], 0.01f);
+            //2 degrees every 10 ms
+            assertEquals(200f, snapshot.peakSpeed, 1f);
+            assertFalse(analytics.read(snapshot));
+        } finally {
+            analytics.close();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.xsens.valedohome;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Two streams with made up skew, jitter and loss are aligned onto one time base.
+ */
+public class OrientationAlignerTest extends TestCase {
+
+    private static final long MS = 1000000L;
+    private static final long PERIOD = 10 * MS;
+    private static final long LATENCY = 60 * MS;
+    private static final long GAP = 100 * MS;
+
+    /* The reference turns about z, the joint bends about x, both at constant speed */
+    private static final double REFERENCE_DEGREES_PER_MS = 0.05;
+    private static final double JOINT_DEGREES_PER_MS = 0.03;
+
+    private final List<long[]> mTimes = new ArrayList<long[]>();
+    private final List<float[]> mRelative = new ArrayList<float[]>();
+    private final List<Boolean> mHeld = new ArrayList<Boolean>();
+
+    private final OrientationAligner mAligner = new OrientationAligner(PERIOD, LATENCY, GAP,
+            new OrientationAligner.Listener() {
+                @Override
+                public void onAligned(long timestamp, float[] relative, int offset, boolean held) {
+                    float[] copy = new float[4];
+                    System.arraycopy(relative, offset, copy, 0, 4);
+                    mTimes.add(new long[] {timestamp});
+                    mRelative.add(copy);
+                    mHeld.add(held);
+                }
+            });
+
+    private static float[] rotation(double degrees, double x, double y, double z) {
+        double half = Math.toRadians(degrees) / 2;
+        double s = Math.sin(half);
+        return new float[] {(float) Math.cos(half), (float) (x * s), (float) (y * s), (float) (z * s)};
+    }
+
+    private static float[] reference(long time) {
+        return rotation(REFERENCE_DEGREES_PER_MS * time / MS, 0, 0, 1);
+    }
+
+    private static float[] joint(long time) {
+        return rotation(JOINT_DEGREES_PER_MS * time / MS, 1, 0, 0);
+    }
+
+    /* reference * joint, so conj(reference) * segment is the joint */
+    private static float[] segment(long time) {
+        float[] a = reference(time);
+        float[] b = joint(time);
+        return new float[] {
+                a[0] * b[0] - a[1] * b[1] - a[2] * b[2] - a[3] * b[3],
+                a[0] * b[1] + a[1] * b[0] + a[2] * b[3] - a[3] * b[2],
+                a[0] * b[2] - a[1] * b[3] + a[2] * b[0] + a[3] * b[1],
+                a[0] * b[3] + a[1] * b[2] - a[2] * b[1] + a[3] * b[0]
+        };
+    }
+
+    private void addReference(long time) {
+        mAligner.add(OrientationAligner.REFERENCE, time, reference(time), 0);
+    }
+
+    private void addSegment(long time) {
+        mAligner.add(OrientationAligner.SEGMENT, time, segment(time), 0);
+    }
+
+    private long lastEmitted() {
+        return mTimes.get(mTimes.size() - 1)[0];
+    }
+
+    /* Held outputs are only as good as the sample held */
+    private void assertJointAngles() {
+        for (int i = 0; i < mTimes.size(); i++) {
+            if (mHeld.get(i)) {
+                continue;
+            }
+            long time = mTimes.get(i)[0];
+            float error = QuaternionMath.angleBetween(joint(time), 0, mRelative.get(i), 0);
+            assertTrue("off by " + error + " at " + time, error < 0.05f);
+        }
+    }
+
+    public void testSlerp() {
+        float[] out = new float[5];
+        QuaternionMath.slerp(rotation(0, 0, 0, 1), 0, rotation(90, 0, 0, 1), 0, 0.5f, out, 1);
+        assertEquals(0f, QuaternionMath.angleBetween(rotation(45, 0, 0, 1), 0, out, 1), 1e-3f);
+
+        //-q is the same orientation, the shorter arc still goes through 10 degrees
+        float[] b = rotation(20, 1, 0, 0);
+        for (int i = 0; i < 4; i++) {
+            b[i] = -b[i];
+        }
+        QuaternionMath.slerp(rotation(0, 1, 0, 0), 0, b, 0, 0.5f, out, 0);
+        assertEquals(0f, QuaternionMath.angleBetween(rotation(10, 1, 0, 0), 0, out, 0), 1e-3f);
+    }
+
+    public void testAlignsSkewedJitteredStreams() {
+        Random random = new Random(7);
+        //The segment samples 3 ms after the reference, both arrive up to 2 ms late
+        for (long t = 0; t <= 2000 * MS; t += PERIOD) {
+            addReference(t + random.nextInt(2000) * 1000L);
+            addSegment(t + 3 * MS + random.nextInt(2000) * 1000L);
+        }
+
+        assertJointAngles();
+        assertFalse(mHeld.contains(Boolean.TRUE));
+        //Starts at the later first sample, ends within a period of the newest
+        assertTrue(mTimes.get(0)[0] >= 3 * MS);
+        assertTrue(lastEmitted() > 1990 * MS);
+        assertEquals(mTimes.size(), mAligner.getEmitted());
+        assertEquals(0, mAligner.getSkipped());
+        for (int i = 1; i < mTimes.size(); i++) {
+            assertEquals(PERIOD, mTimes.get(i)[0] - mTimes.get(i - 1)[0]);
+        }
+    }
+
+    public void testLostStreamDoesNotStallTheOther() {
+        for (long t = 0; t <= 200 * MS; t += PERIOD) {
+            addReference(t);
+            addSegment(t);
+        }
+        for (long t = 210 * MS; t <= 1000 * MS; t += PERIOD) {
+            addReference(t);
+            if (t <= 200 * MS + GAP + LATENCY) {
+                //Never more than the latency bound behind the reference
+                assertTrue(lastEmitted() >= t - LATENCY - PERIOD);
+            }
+        }
+
+        //The segment's last sample is held up to the gap bound, after that nothing is emitted
+        assertEquals(200 * MS + GAP, lastEmitted());
+        assertEquals(GAP / PERIOD, mAligner.getHeld());
+        assertTrue(mAligner.getSkipped() > 0);
+
+        //And it picks up again when the segment is back
+        mTimes.clear();
+        mRelative.clear();
+        mHeld.clear();
+        for (long t = 1000 * MS; t <= 1200 * MS; t += PERIOD) {
+            addSegment(t);
+            addReference(t + PERIOD);
+        }
+        assertTrue(lastEmitted() >= 1190 * MS);
+        assertFalse(mHeld.get(mHeld.size() - 1));
+        assertJointAngles();
+    }
+
+    public void testLateAndOutOfOrderSamples() {
+        for (long t = 0; t <= 100 * MS; t += PERIOD) {
+            addReference(t);
+            addSegment(t);
+        }
+        //The segment's next 8 notifications are stuck past the latency bound
+        for (long t = 110 * MS; t <= 180 * MS; t += PERIOD) {
+            addReference(t);
+        }
+        long held = mAligner.getHeld();
+        assertTrue(held > 0);
+        for (long t = 110 * MS; t <= 180 * MS; t += PERIOD) {
+            addSegment(t);
+        }
+        assertTrue(mAligner.getLate() > 0);
+
+        //A duplicate and an older one are dropped
+        addSegment(180 * MS);
+        addSegment(150 * MS);
+        assertEquals(2, mAligner.getOutOfOrder());
+
+        for (long t = 190 * MS; t <= 300 * MS; t += PERIOD) {
+            addReference(t);
+            addSegment(t);
+        }
+        assertEquals(held, mAligner.getHeld());
+        assertJointAngles();
+        for (int i = 1; i < mTimes.size(); i++) {
+            assertEquals(PERIOD, mTimes.get(i)[0] - mTimes.get(i - 1)[0]);
+        }
+    }
+
+    public void testSkipsGapOfBothStreams() {
+        for (long t = 0; t <= 100 * MS; t += PERIOD) {
+            addReference(t);
+            addSegment(t);
+        }
+        int before = mTimes.size();
+        for (long t = 5000 * MS; t <= 5100 * MS; t += PERIOD) {
+            addReference(t);
+            addSegment(t);
+        }
+
+        //Nothing is made up for the 5 s both were gone
+        int held = 0;
+        for (int i = before; i < mTimes.size(); i++) {
+            if (mHeld.get(i)) {
+                held++;
+            }
+        }
+        assertTrue(mTimes.size() - before - held <= 11);
+        assertTrue(mAligner.getSkipped() > 4000 * MS / PERIOD);
+        assertTrue(lastEmitted() >= 5090 * MS);
+        assertJointAngles();
+    }
+
+    public void testBoundedBuffer() {
+        //Without a segment, the reference only keeps its newest samples
+        for (long t = 0; t < 3000 * MS; t += PERIOD) {
+            addReference(t);
+        }
+        assertEquals(300 - OrientationAligner.CAPACITY, mAligner.getOverflow());
+        assertTrue(mTimes.isEmpty());
+
+        addSegment(3000 * MS);
+        addReference(3000 * MS);
+        assertEquals(1, mTimes.size());
+        assertEquals(3000 * MS, lastEmitted());
+        assertFalse(mHeld.get(0));
+    }
+}
@@ -0,0 +1,91 @@
+package com.xsens.valedohome;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Payloads are encoded by hand and checked against ByteBuffer decoding.
+ */
+public class SampleCodecTest extends TestCase {
+
+    private static byte[] payload(float... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (float value : values) {
+            buffer.putFloat(value);
+        }
+        return buffer.array();
+    }
+
+    public void testDecodesOrientation() {
+        float[] out = new float[4];
+        assertTrue(SampleCodec.decodeOrientation(payload(0.5f, -0.25f, 1f, -1f), out, 0));
+        assertEquals(0.5f, out[0]);
+        assertEquals(-0.25f, out[1]);
+        assertEquals(1f, out[2]);
+        assertEquals(-1f, out[3]);
+    }
+
+    public void testDecodesVelocityAtOffset() {
+        float[] out = new float[5];
+        assertTrue(SampleCodec.decodeVelocity(payload(1.5f, 2.5f, -3.5f), out, 2));
+        assertEquals(0f, out[1]);
+        assertEquals(1.5f, out[2]);
+        assertEquals(2.5f, out[3]);
+        assertEquals(-3.5f, out[4]);
+    }
+
+    public void testMatchesByteBuffer() {
+        byte[] bytes = payload(Float.MIN_VALUE, Float.MAX_VALUE, Float.NaN, -0f);
+        for (int i = 0; i < 4; i++) {
+            float expected = ByteBuffer.wrap(bytes, i * 4, 4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+            assertEquals(Float.floatToRawIntBits(expected),
+                    Float.floatToRawIntBits(SampleCodec.readFloat(bytes, i * 4)));
+        }
+    }
+
+    public void testRejectsShortPayload() {
+        float[] out = {7f, 7f, 7f, 7f};
+        assertFalse(SampleCodec.decodeOrientation(new byte[15], out, 0));
+        assertFalse(SampleCodec.decodeOrientation(null, out, 0));
+        assertFalse(SampleCodec.decodeVelocity(new byte[8], out, 0));
+        assertEquals(7f, out[0]);
+    }
+
+    public void testRejectsSmallOutput() {
+        try {
+            SampleCodec.decodeOrientation(new byte[16], new float[4], 1);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    public void testPackedRoundTrip() {
+        int floats = SampleCodec.VELOCITY_FLOATS;
+        long[] timestamps = {0xfffffffeL, 0xffffffffL, 0};
+        float[] values = {1f, 2f, 3f, 4f, 5f, 6f, 7f, 8f, 9f};
+        byte[] payload = new byte[3 * SampleCodec.packedSize(floats)];
+        SampleCodec.encodePacked(timestamps, values, 0, 3, floats, payload);
+
+        assertEquals(3, SampleCodec.countPacked(payload, floats));
+        float[] out = new float[floats];
+        for (int i = 0; i < 3; i++) {
+            assertEquals(timestamps[i], SampleCodec.readTimestamp(payload, i, floats));
+            assertTrue(SampleCodec.decodePacked(payload, i, floats, out, 0));
+            assertEquals(values[i * floats + 2], out[2]);
+        }
+        assertFalse(SampleCodec.decodePacked(payload, 3, floats, out, 0));
+        try {
+            SampleCodec.readTimestamp(payload, 3, floats);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    public void testPartialPackedPayloadIsRejected() {
+        int floats = SampleCodec.ORIENTATION_FLOATS;
+        assertEquals(0, SampleCodec.countPacked(new byte[SampleCodec.packedSize(floats) + 3], floats));
+        assertEquals(0, SampleCodec.countPacked(null, floats));
+    }
+}
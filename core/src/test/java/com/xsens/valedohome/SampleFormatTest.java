@@ -0,0 +1,129 @@
+package com.xsens.valedohome;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plain JVM test, the sensors are {@link FakeGattLink}s with and without packed notifications.
+ */
+public class SampleFormatTest extends TestCase {
+
+    private static final long TICK_NANOS = 1000;
+    private static final long TICKS_PER_SAMPLE = 10000;
+
+    private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<FakeGattLink> mLinks = new ArrayList<FakeGattLink>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        mScheduler.shutdownNow();
+        for (FakeGattLink link : mLinks) {
+            link.shutdown();
+        }
+    }
+
+    private SensorSession stream(FakeGattLink link) throws InterruptedException {
+        mLinks.add(link);
+        final CountDownLatch streaming = new CountDownLatch(1);
+        SensorSession session = new SensorSession(link, new SensorSession.Listener() {
+            @Override
+            public void onSessionStateChanged(SensorSession session, int state, String message) {
+                if (state == SensorSession.STATE_STREAMING) {
+                    streaming.countDown();
+                }
+            }
+
+            @Override
+            public void onSamplesAvailable(SensorSession session) {
+            }
+        }, mScheduler);
+        session.setStreams(ValedoProfile.ORIENTATION);
+        session.connect();
+        assertTrue(streaming.await(5, TimeUnit.SECONDS));
+        return session;
+    }
+
+    /* Waits for count orientation samples, returns their first channel and timestamps */
+    private static float[] drain(SensorSession session, int count, final long[] timestamps) throws InterruptedException {
+        final float[] received = new float[count];
+        final int[] n = {0};
+        long deadline = System.currentTimeMillis() + 5000;
+        while (n[0] < count && System.currentTimeMillis() < deadline) {
+            session.drain(new SampleRingBuffer.Reader() {
+                @Override
+                public void onSample(long timestamp, float[] values, int offset) {
+                    timestamps[n[0]] = timestamp;
+                    received[n[0]++] = values[offset];
+                }
+            }, null);
+            Thread.sleep(5);
+        }
+        assertEquals(count, n[0]);
+        return received;
+    }
+
+    public void testFormatRoundTrip() {
+        SampleFormat packed = SampleFormat.parse(SampleFormat.packed(TICK_NANOS).encode());
+        assertTrue(packed.isPacked());
+        assertEquals(TICK_NANOS, packed.getTickNanos());
+        assertEquals(2 * TICK_NANOS, packed.elapsedNanos(0xffffffffL, 1));
+
+        assertSame(SampleFormat.SINGLE, SampleFormat.parse(null));
+        assertSame(SampleFormat.SINGLE, SampleFormat.parse(new byte[16]));
+        assertSame(SampleFormat.SINGLE, SampleFormat.parse(new byte[] {1, 0, 0}));
+    }
+
+    public void testSingleSampleFirmware() throws InterruptedException {
+        FakeGattLink link = new FakeGattLink("A");
+        SensorSession session = stream(link);
+        assertEquals(ValedoProfile.PREFERRED_MTU, link.getRequestedMtu());
+        assertEquals(ValedoProfile.CONNECTION_PRIORITY_HIGH, link.getRequestedPriority());
+        assertEquals(ValedoProfile.PREFERRED_MTU, session.getMtu());
+        assertFalse(session.getFormat().isPacked());
+
+        link.notifyOrientation(50, 1f);
+        float[] received = drain(session, 50, new long[50]);
+        for (int i = 0; i < received.length; i++) {
+            assertEquals((float) i, received[i]);
+        }
+        assertEquals(0, session.getMalformed());
+    }
+
+    public void testPackedFirmware() throws InterruptedException {
+        FakeGattLink link = new FakeGattLink("B");
+        link.setFormat(SampleFormat.packed(TICK_NANOS));
+        SensorSession session = stream(link);
+        assertTrue(session.getFormat().isPacked());
+
+        //12 samples fill a 247 byte MTU, the last packet only has one
+        long[] timestamps = new long[121];
+        link.notifyPackedOrientation(121, 12, TICKS_PER_SAMPLE, 2f);
+        float[] received = drain(session, 121, timestamps);
+        for (int i = 0; i < received.length; i++) {
+            assertEquals((float) i, received[i]);
+        }
+        //Samples of a packet keep the sensor's spacing
+        assertEquals(TICKS_PER_SAMPLE * TICK_NANOS, timestamps[1] - timestamps[0]);
+        assertEquals(TICKS_PER_SAMPLE * TICK_NANOS, timestamps[11] - timestamps[10]);
+        assertEquals(0, session.getMalformed());
+    }
+
+    public void testPackedFirmwareStillSendsSingleSamples() throws InterruptedException {
+        FakeGattLink link = new FakeGattLink("C");
+        link.setFormat(SampleFormat.packed(TICK_NANOS));
+        SensorSession session = stream(link);
+
+        link.notifyOrientation(3, 3f);
+        link.notifyPackedOrientation(24, 12, TICKS_PER_SAMPLE, 3f);
+        float[] received = drain(session, 27, new long[27]);
+        assertEquals(2f, received[2]);
+        assertEquals(23f, received[26]);
+        assertEquals(0, session.getMalformed());
+    }
+}
@@ -0,0 +1,93 @@
+package com.xsens.valedohome;
+
+import junit.framework.TestCase;
+
+/**
+ * Single threaded ordering and drops, then a producer and consumer thread racing.
+ */
+public class SampleRingBufferTest extends TestCase {
+
+    private static class Collector implements SampleRingBuffer.Reader {
+        long count;
+        long lastTimestamp = -1;
+        boolean ordered = true;
+        boolean consistent = true;
+
+        @Override
+        public void onSample(long timestamp, float[] values, int offset) {
+            ordered &= timestamp == lastTimestamp + 1;
+            consistent &= values[offset] == timestamp && values[offset + 1] == -timestamp;
+            lastTimestamp = timestamp;
+            count++;
+        }
+    }
+
+    private static boolean offer(SampleRingBuffer ring, long timestamp) {
+        int offset = ring.claim();
+        if (offset < 0) {
+            return false;
+        }
+        ring.values()[offset] = timestamp;
+        ring.values()[offset + 1] = -timestamp;
+        ring.publish(timestamp);
+        return true;
+    }
+
+    public void testRoundsCapacityUp() {
+        assertEquals(8, new SampleRingBuffer(5, 4).capacity());
+        assertEquals(8, new SampleRingBuffer(8, 4).capacity());
+    }
+
+    public void testDrainsInOrderAndCountsDrops() {
+        SampleRingBuffer ring = new SampleRingBuffer(4, 2);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i < 4, offer(ring, i));
+        }
+        assertEquals(2, ring.getDropped());
+        assertEquals(4, ring.getHighWaterMark());
+
+        Collector collector = new Collector();
+        assertEquals(3, ring.drain(collector, 3));
+        assertEquals(1, ring.size());
+        assertTrue(offer(ring, 4));
+        assertEquals(2, ring.drain(collector, 10));
+        assertEquals(5, collector.count);
+        assertTrue(collector.ordered);
+        assertTrue(collector.consistent);
+    }
+
+    public void testUnpublishedClaimIsReused() {
+        SampleRingBuffer ring = new SampleRingBuffer(2, 2);
+        assertEquals(0, ring.claim());
+        assertEquals(0, ring.claim());
+        assertEquals(0, ring.size());
+    }
+
+    public void testConcurrentProducerAndConsumer() throws InterruptedException {
+        final SampleRingBuffer ring = new SampleRingBuffer(64, 2);
+        final int total = 200000;
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < total; ) {
+                    if (offer(ring, i)) {
+                        i++;
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }
+        };
+        producer.start();
+
+        Collector collector = new Collector();
+        while (collector.count < total) {
+            if (ring.drain(collector, 16) == 0) {
+                Thread.yield();
+            }
+        }
+        producer.join();
+        assertTrue(collector.ordered);
+        assertTrue(collector.consistent);
+    }
+}
@@ -0,0 +1,81 @@
+package com.xsens.valedohome;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Advertisement records are built byte by byte, as the scanner hands them over.
+ */
+public class ScanResultsTest extends TestCase {
+
+    /* Flags, then the given 128 bit service UUIDs, then the name, zero padded like a scan record */
+    private static byte[] advertisement(String name, UUID... services) {
+        ByteBuffer record = ByteBuffer.allocate(62).order(ByteOrder.LITTLE_ENDIAN);
+        record.put((byte) 2).put((byte) 0x01).put((byte) 0x06);
+        if (services.length > 0) {
+            record.put((byte) (1 + 16 * services.length)).put((byte) 0x07);
+            for (UUID service : services) {
+                record.putLong(service.getLeastSignificantBits()).putLong(service.getMostSignificantBits());
+            }
+        }
+        if (name != null) {
+            record.put((byte) (1 + name.length())).put((byte) 0x09).put(name.getBytes());
+        }
+        return record.array();
+    }
+
+    public void testServiceUuidIsFound() {
+        UUID other = UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb");
+        assertTrue(AdvertisementData.hasService(advertisement(null, other, ValedoProfile.AWINDA_SERVICE),
+                ValedoProfile.AWINDA_SERVICE));
+        assertFalse(AdvertisementData.hasService(advertisement("ValedoHome", other), ValedoProfile.AWINDA_SERVICE));
+        assertFalse(AdvertisementData.hasService(null, ValedoProfile.AWINDA_SERVICE));
+    }
+
+    public void testLocalName() {
+        assertEquals("ValedoHome", AdvertisementData.getLocalName(advertisement("ValedoHome")));
+        assertNull(AdvertisementData.getLocalName(advertisement(null)));
+        assertTrue(AdvertisementData.hasLocalName(advertisement("ValedoHome"), "ValedoHome".getBytes()));
+        assertFalse(AdvertisementData.hasLocalName(advertisement("ValedoHom"), "ValedoHome".getBytes()));
+    }
+
+    public void testTruncatedRecordIsIgnored() {
+        byte[] record = advertisement("ValedoHome", ValedoProfile.AWINDA_SERVICE);
+        byte[] cut = Arrays.copyOf(record, 12);
+        assertFalse(AdvertisementData.hasService(cut, ValedoProfile.AWINDA_SERVICE));
+        assertNull(AdvertisementData.getLocalName(cut));
+    }
+
+    public void testDevicesAreDedupedByAddress() {
+        ScanResults results = new ScanResults(ValedoProfile.AWINDA_SERVICE, ValedoProfile.DEVICE_NAME);
+        byte[] sensor = advertisement(null, ValedoProfile.AWINDA_SERVICE);
+        assertTrue(results.offer("A", -60, sensor));
+        assertFalse(results.offer("A", -50, sensor));
+        assertFalse(results.offer("B", -40, advertisement("Headphones")));
+        assertTrue(results.offer("C", -70, advertisement("ValedoHome")));
+
+        assertEquals(Arrays.asList("A", "C"), results.getAddresses());
+        assertEquals(-50, results.getRssi("A"));
+        assertEquals(ValedoProfile.DEVICE_NAME, results.getName("A"));
+
+        results.clear();
+        assertEquals(0, results.size());
+        assertTrue(results.offer("A", -60, sensor));
+    }
+
+    public void testCompleteOnceExpectedSensorsAreFound() {
+        ScanResults results = new ScanResults(ValedoProfile.AWINDA_SERVICE, ValedoProfile.DEVICE_NAME);
+        byte[] sensor = advertisement("ValedoHome");
+        results.offer("A", -60, sensor);
+        assertFalse(results.isComplete());
+
+        results.setExpected(Arrays.asList("A", "B"));
+        assertFalse(results.isComplete());
+        results.offer("B", -60, sensor);
+        assertTrue(results.isComplete());
+    }
+}
@@ -0,0 +1,139 @@
+package com.xsens.valedohome;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plain JVM test, samples are handed to the sessions as if they came from the link.
+ */
+public class SensorFeedTest extends TestCase {
+
+    private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private static final SensorSession.Listener IGNORE = new SensorSession.Listener() {
+        @Override
+        public void onSessionStateChanged(SensorSession session, int state, String message) {
+        }
+
+        @Override
+        public void onSamplesAvailable(SensorSession session) {
+        }
+    };
+
+    @Override
+    protected void tearDown() {
+        mScheduler.shutdownNow();
+    }
+
+    private SensorSession session() {
+        return new SensorSession(new FakeGattLink("A"), IGNORE, mScheduler);
+    }
+
+    private static void send(SensorSession session, int count, float first) {
+        byte[] orientation = new byte[SampleCodec.ORIENTATION_SIZE];
+        byte[] velocity = new byte[SampleCodec.VELOCITY_SIZE];
+        for (int i = 0; i < count; i++) {
+            float value = first + i;
+            SampleCodec.encode(new float[] {value, 0f, 0f, 0f}, 0, SampleCodec.ORIENTATION_FLOATS, orientation);
+            SampleCodec.encode(new float[] {value, 0f, 0f}, 0, SampleCodec.VELOCITY_FLOATS, velocity);
+            session.onCharacteristicChanged(ValedoProfile.ORIENTATION, orientation);
+            session.onCharacteristicChanged(ValedoProfile.HIGH_PASS_VELOCITY, velocity);
+        }
+    }
+
+    public void testHistoryContinuesAcrossSessions() {
+        SensorFeed feed = new SensorFeed("A", "ValedoHome");
+        SensorSession first = session();
+        send(first, 10, 0);
+        assertEquals(20, feed.drain(first, true));
+        assertTrue(feed.getLastArrival() > 0);
+
+        //A reconnect of the same sensor appends where the last session left off
+        SensorSession second = session();
+        send(second, 5, 10);
+        assertEquals(10, feed.drain(second, true));
+
+        HistoryBuffer orientation = feed.getOrientation();
+        assertEquals(15, orientation.count());
+        for (int i = 0; i < 15; i++) {
+            assertEquals((float) i, orientation.get(0, i));
+        }
+        assertEquals(15, feed.getVelocity().count());
+    }
+
+    public void testVelocityIsDiscardedWhenHidden() {
+        SensorFeed feed = new SensorFeed("A", "ValedoHome");
+        SensorSession session = session();
+        send(session, 3, 0);
+        assertEquals(6, feed.drain(session, false));
+        assertEquals(3, feed.getOrientation().count());
+        assertEquals(0, feed.getVelocity().count());
+
+        assertEquals(0, feed.drain(session, true));
+        assertEquals(0, feed.getLastArrival());
+    }
+
+    public void testDropsAreReportedOnce() {
+        SensorFeed feed = new SensorFeed("A", "ValedoHome");
+        SensorSession session = session();
+        int capacity = session.getOrientationBuffer().capacity();
+        send(session, capacity + 7, 0);
+        assertEquals(14, feed.takeNewDrops(session));
+        assertEquals(0, feed.takeNewDrops(session));
+
+        //The counters of a new session start from zero again
+        SensorSession next = session();
+        send(next, capacity + 20, 0);
+        assertEquals(40, feed.takeNewDrops(next));
+    }
+
+    public void testPackedSamplesAreTimedFromTheirNotification() throws InterruptedException {
+        FakeGattLink link = new FakeGattLink("B");
+        //The oldest sample of the packet was taken 11 s before the sensor sent it
+        link.setFormat(SampleFormat.packed(1000));
+        final CountDownLatch streaming = new CountDownLatch(1);
+        SensorSession session = new SensorSession(link, new SensorSession.Listener() {
+            @Override
+            public void onSessionStateChanged(SensorSession session, int state, String message) {
+                if (state == SensorSession.STATE_STREAMING) {
+                    streaming.countDown();
+                }
+            }
+
+            @Override
+            public void onSamplesAvailable(SensorSession session) {
+            }
+        }, mScheduler);
+        session.setStreams(ValedoProfile.ORIENTATION);
+        session.connect();
+        try {
+            assertTrue(streaming.await(5, TimeUnit.SECONDS));
+            SensorFeed feed = new SensorFeed("B", "ValedoHome");
+            PipelineStats stats = new PipelineStats();
+            feed.setStats(stats);
+
+            long before = System.nanoTime();
+            link.notifyPackedOrientation(12, 12, 1000000, 1f);
+            int drained = 0;
+            long deadline = System.currentTimeMillis() + 5000;
+            while (drained < 12 && System.currentTimeMillis() < deadline) {
+                drained += feed.drain(session, false);
+                Thread.sleep(5);
+            }
+            assertEquals(12, drained);
+            assertTrue(feed.getLastArrival() >= before);
+
+            long second = TimeUnit.SECONDS.toNanos(1);
+            assertEquals(12, stats.getStage(PipelineStats.DISPATCH).getCount());
+            assertTrue(stats.getStage(PipelineStats.DISPATCH).getMaxNanos() < second);
+            assertEquals(12, stats.getStage(PipelineStats.APPEND).getCount());
+            assertTrue(stats.getStage(PipelineStats.APPEND).getMaxNanos() < second);
+        } finally {
+            link.shutdown();
+        }
+    }
+}
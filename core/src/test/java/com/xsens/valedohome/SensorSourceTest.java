@@ -0,0 +1,200 @@
+package com.xsens.valedohome;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synthetic and replayed sensors stand in for the radio, the sessions run on them unchanged.
+ */
+public class SensorSourceTest extends TestCase {
+
+    /**
+     * Subscribes to both streams the way a session does and collects the velocity x values,
+     * which synthetic sensors set to the sample index.
+     */
+    private static class Collector implements GattLink.Callback {
+        final GattLink link;
+        final List<Float> indices = Collections.synchronizedList(new ArrayList<Float>());
+        final CountDownLatch enabled = new CountDownLatch(2);
+        volatile int orientations;
+
+        Collector(GattLink link) {
+            this.link = link;
+        }
+
+        @Override
+        public void onConnectionStateChange(boolean success, boolean connected) {
+            link.enableNotifications(ValedoProfile.AWINDA_SERVICE, ValedoProfile.ORIENTATION);
+            link.enableNotifications(ValedoProfile.AWINDA_SERVICE, ValedoProfile.HIGH_PASS_VELOCITY);
+        }
+
+        @Override
+        public void onDescriptorWrite(UUID characteristic, boolean success) {
+            enabled.countDown();
+        }
+
+        @Override
+        public void onCharacteristicChanged(UUID characteristic, byte[] value) {
+            if (ValedoProfile.ORIENTATION.equals(characteristic)) {
+                orientations++;
+            } else {
+                indices.add(SampleCodec.readFloat(value, 0));
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(boolean success) {
+        }
+
+        @Override
+        public void onCharacteristicRead(UUID characteristic, byte[] value, boolean success) {
+        }
+
+        @Override
+        public void onCharacteristicWrite(UUID characteristic, boolean success) {
+        }
+
+        @Override
+        public void onMtuChanged(int mtu, boolean success) {
+        }
+
+        @Override
+        public void onReadRemoteRssi(int rssi, boolean success) {
+        }
+    }
+
+    private Collector stream(SensorSource source, String address, long millis) throws InterruptedException {
+        GattLink link = source.create(address);
+        Collector collector = new Collector(link);
+        link.connect(collector);
+        assertTrue(collector.enabled.await(5, TimeUnit.SECONDS));
+        Thread.sleep(millis);
+        link.disconnect();
+        return collector;
+    }
+
+    public void testSyntheticSensorsStreamAtTheirRate() throws InterruptedException {
+        SyntheticSensorSource source = new SyntheticSensorSource(3, 2000f).setJitter(100000);
+        assertEquals(3, source.getAddresses().size());
+
+        Collector collector = stream(source, source.getAddresses().get(2), 300);
+        List<Float> indices = new ArrayList<Float>(collector.indices);
+        assertTrue("only " + indices.size(), indices.size() > 200);
+        //Jitter delays arrivals but never loses or reorders them
+        for (int i = 0; i < indices.size(); i++) {
+            assertEquals((float) i, indices.get(i));
+        }
+        assertTrue(collector.orientations >= indices.size());
+    }
+
+    public void testSyntheticLoss() throws InterruptedException {
+        SyntheticSensorSource source = new SyntheticSensorSource(1, 2000f).setLoss(0.25f).setSeed(7);
+        List<Float> indices = new ArrayList<Float>(stream(source, source.getAddresses().get(0), 300).indices);
+        assertTrue(indices.size() > 200);
+        float last = indices.get(indices.size() - 1);
+        float kept = indices.size() / (last + 1);
+        assertTrue("kept " + kept, kept > 0.65f && kept < 0.85f);
+    }
+
+    public void testReplayDeliversRecordedPayloads() throws Exception {
+        File file = File.createTempFile("replay", SessionHeader.EXTENSION);
+        try {
+            SessionRecorder recorder = new SessionRecorder(file, SessionHeader.forSensor("AA:BB", 0, 100f));
+            float[] values = new float[4];
+            for (int i = 0; i < 500; i++) {
+                values[0] = i;
+                recorder.record(SessionHeader.STREAM_ORIENTATION, recorder.getStartNanos() + i * 10000L, values, 0);
+                recorder.record(SessionHeader.STREAM_VELOCITY, recorder.getStartNanos() + i * 10000L, values, 0);
+            }
+            recorder.close();
+
+            List<File> files = new ArrayList<File>();
+            files.add(file);
+            files.add(file);
+            ReplaySensorSource source = new ReplaySensorSource(files, 0);
+            assertEquals("AA:BB", source.getAddresses().get(0));
+            assertEquals("AA:BB#2", source.getAddresses().get(1));
+
+            Collector collector = stream(source, "AA:BB", 200);
+            assertEquals(500, collector.orientations);
+            assertEquals(500, collector.indices.size());
+            for (int i = 0; i < 500; i++) {
+                assertEquals((float) i, collector.indices.get(i));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Streams four synthetic sensors through sessions for a while.
+     *
+     * @return samples drained per stream, orientation and velocity
+     */
+    private int[] runSessions(UUID... streams) throws InterruptedException {
+        final SyntheticSensorSource source = new SyntheticSensorSource(4, 1000f).setJitter(200000).setLoss(0.05f);
+        final CountDownLatch streaming = new CountDownLatch(4);
+        SessionManager manager = new SessionManager(source, new SensorSession.Listener() {
+            @Override
+            public void onSessionStateChanged(SensorSession session, int state, String message) {
+                if (state == SensorSession.STATE_STREAMING) {
+                    streaming.countDown();
+                }
+            }
+
+            @Override
+            public void onSamplesAvailable(SensorSession session) {
+            }
+        });
+        manager.setStreams(streams);
+        try {
+            for (String address : source.getAddresses()) {
+                manager.connect(address);
+            }
+            assertTrue(streaming.await(5, TimeUnit.SECONDS));
+            Thread.sleep(200);
+
+            final float[] norm = new float[1];
+            final int[] drained = new int[2];
+            for (SensorSession session : manager.getSessions()) {
+                int orientation = drained[0];
+                session.drain(new SampleRingBuffer.Reader() {
+                    @Override
+                    public void onSample(long timestamp, float[] values, int offset) {
+                        float w = values[offset], x = values[offset + 1], y = values[offset + 2], z = values[offset + 3];
+                        norm[0] = Math.max(norm[0], Math.abs(w * w + x * x + y * y + z * z - 1));
+                        drained[0]++;
+                    }
+                }, new SampleRingBuffer.Reader() {
+                    @Override
+                    public void onSample(long timestamp, float[] values, int offset) {
+                        drained[1]++;
+                    }
+                });
+                assertTrue(session.getAddress() + " drained " + (drained[0] - orientation), drained[0] - orientation > 50);
+                assertEquals(0, session.getMalformed());
+            }
+            assertTrue(norm[0] < 1e-5f);
+            return drained;
+        } finally {
+            manager.close();
+        }
+    }
+
+    public void testSessionsRunOnSyntheticSensors() throws InterruptedException {
+        int[] drained = runSessions(SensorSession.ALL_STREAMS);
+        assertTrue(drained[1] > 200);
+    }
+
+    public void testUnsubscribedStreamIsNotSent() throws InterruptedException {
+        int[] drained = runSessions(ValedoProfile.ORIENTATION);
+        assertEquals(0, drained[1]);
+    }
+}
@@ -0,0 +1,132 @@
+package com.xsens.valedohome;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plain JVM test, sensors are simulated with {@link FakeGattLink}.
+ */
+public class SessionManagerTest extends TestCase {
+
+    private final Map<String, FakeGattLink> mLinks = new HashMap<String, FakeGattLink>();
+    private final BlockingQueue<SensorSession> mReady = new LinkedBlockingQueue<SensorSession>();
+    private final CountDownLatch mStreaming = new CountDownLatch(3);
+    private SessionManager mManager;
+
+    @Override
+    protected void setUp() {
+        mManager = new SessionManager(new SessionManager.LinkFactory() {
+            @Override
+            public GattLink create(String address) {
+                FakeGattLink link = new FakeGattLink(address);
+                //The last sensor never answers, as if it went out of range
+                link.setSilent(address.equals("D"));
+                mLinks.put(address, link);
+                return link;
+            }
+        }, new SensorSession.Listener() {
+            @Override
+            public void onSessionStateChanged(SensorSession session, int state, String message) {
+                if (state == SensorSession.STATE_STREAMING) {
+                    mStreaming.countDown();
+                }
+            }
+
+            @Override
+            public void onSamplesAvailable(SensorSession session) {
+                mReady.add(session);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mManager.close();
+        for (FakeGattLink link : mLinks.values()) {
+            link.shutdown();
+        }
+    }
+
+    public void testStalledSensorDoesNotBlockOthers() throws InterruptedException {
+        for (String address : new String[] {"A", "B", "C", "D"}) {
+            mManager.connect(address);
+        }
+        assertTrue(mStreaming.await(5, TimeUnit.SECONDS));
+        assertEquals(SensorSession.STATE_STREAMING, mManager.get("A").getState());
+        assertEquals(SensorSession.STATE_CONNECTING, mManager.get("D").getState());
+        assertTrue(mManager.isSettingUp());
+        assertSame(mManager.get("B"), mManager.connect("B"));
+    }
+
+    public void testSamplesStayWithTheirSensor() throws InterruptedException {
+        String[] addresses = {"A", "B", "C"};
+        for (String address : addresses) {
+            mManager.connect(address);
+        }
+        assertTrue(mStreaming.await(5, TimeUnit.SECONDS));
+
+        //Fits in the session buffers, so nothing may be dropped however late the drain runs
+        final int perSensor = 1000;
+        for (int s = 0; s < addresses.length; s++) {
+            mLinks.get(addresses[s]).notifyOrientation(perSensor, s);
+        }
+
+        final Map<String, int[]> received = new HashMap<String, int[]>();
+        for (String address : addresses) {
+            received.put(address, new int[2]);
+        }
+        int total = 0;
+        while (total < perSensor * addresses.length) {
+            SensorSession session = mReady.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Samples stopped arriving", session);
+            final int id = session.getAddress().charAt(0) - 'A';
+            final int[] counts = received.get(session.getAddress());
+            total += session.drain(new SampleRingBuffer.Reader() {
+                @Override
+                public void onSample(long timestamp, float[] values, int offset) {
+                    //Anything out of order or from another sensor is counted as wrong
+                    if (values[offset] != counts[0] || values[offset + 1] != id) {
+                        counts[1]++;
+                    }
+                    counts[0]++;
+                }
+            }, null);
+        }
+
+        for (String address : addresses) {
+            assertEquals(perSensor, received.get(address)[0]);
+            assertEquals(0, received.get(address)[1]);
+            assertEquals(0, mManager.get(address).getOrientationBuffer().getDropped());
+        }
+    }
+
+    private static void awaitState(SensorSession session, int state) throws InterruptedException {
+        for (int i = 0; i < 500 && session.getState() != state; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(state, session.getState());
+    }
+
+    public void testDroppedSensorReleasesItsLink() throws InterruptedException {
+        SensorSession first = mManager.connect("A");
+        FakeGattLink link = mLinks.get("A");
+        awaitState(first, SensorSession.STATE_STREAMING);
+
+        link.dropConnection();
+        awaitState(first, SensorSession.STATE_DISCONNECTED);
+        assertTrue(link.isReleased());
+
+        //Reconnecting replaces the dead session with one on a new link
+        SensorSession second = mManager.connect("A");
+        assertNotSame(first, second);
+        assertNotSame(link, mLinks.get("A"));
+        awaitState(second, SensorSession.STATE_STREAMING);
+        link.shutdown();
+    }
+}
@@ -0,0 +1,349 @@
+package com.xsens.valedohome;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Sessions are written to temporary files and read back, also after truncation and
+ * corruption.
+ */
+public class SessionRecorderTest extends TestCase {
+
+    private static final long MS = 1000000L;
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        mFile = File.createTempFile("session", SessionHeader.EXTENSION);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    private SessionRecorder record(int orientation, int velocity) throws IOException {
+        SessionRecorder recorder = new SessionRecorder(mFile, SessionHeader.forSensor("00:11:22:33:44:55", 1234L, 100f));
+        long start = recorder.getStartNanos();
+        float[] values = new float[4];
+        for (int i = 0; i < Math.max(orientation, velocity); i++) {
+            values[0] = i;
+            values[1] = -i;
+            values[2] = i / 2f;
+            values[3] = 1f;
+            if (i < orientation) {
+                assertTrue(recorder.record(SessionHeader.STREAM_ORIENTATION, start + i * 1000L, values, 0));
+            }
+            if (i < velocity) {
+                assertTrue(recorder.record(SessionHeader.STREAM_VELOCITY, start + i * 1000L + 1, values, 0));
+            }
+        }
+        return recorder;
+    }
+
+    public void testRecordsAreReadBack() throws IOException {
+        SessionRecorder recorder = record(1000, 500);
+        recorder.close();
+        assertEquals(1500, recorder.getWritten());
+        assertEquals(1500, recorder.getFlushed());
+        assertEquals(0, recorder.getDropped());
+
+        SessionReader reader = new SessionReader(mFile);
+        SessionHeader header = reader.getHeader();
+        assertEquals("00:11:22:33:44:55", header.getAddress());
+        assertEquals(1234L, header.getStartTimeMillis());
+        assertEquals(100f, header.getRate());
+        assertEquals(ValedoProfile.HIGH_PASS_VELOCITY, header.getStream(SessionHeader.STREAM_VELOCITY));
+        assertEquals(1500, reader.getRecordCount());
+        assertFalse(reader.isTruncated());
+
+        final int[] next = new int[2];
+        assertEquals(1500, reader.read(new SessionReader.Callback() {
+            @Override
+            public void onRecord(int stream, long timestamp, float[] values, int offset) {
+                int i = next[stream]++;
+                assertEquals(i * 1000L + stream, timestamp);
+                assertEquals((float) i, values[offset]);
+                assertEquals((float) -i, values[offset + 1]);
+                assertEquals(i / 2f, values[offset + 2]);
+                if (stream == SessionHeader.STREAM_ORIENTATION) {
+                    assertEquals(1f, values[offset + 3]);
+                }
+            }
+        }));
+        assertEquals(1000, next[SessionHeader.STREAM_ORIENTATION]);
+        assertEquals(500, next[SessionHeader.STREAM_VELOCITY]);
+    }
+
+    public void testTornRecordIsRecovered() throws IOException {
+        record(100, 0).close();
+        long valid = mFile.length();
+
+        //A crash in the middle of a write leaves part of a record behind
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.seek(valid - SessionHeader.RECORD_SIZE);
+        byte[] last = new byte[SessionHeader.RECORD_SIZE];
+        raf.readFully(last);
+        raf.write(last, 0, 20);
+        //and a flipped bit in the last complete one
+        raf.seek(valid - 10);
+        raf.write(last[SessionHeader.RECORD_SIZE - 10] ^ 1);
+        raf.close();
+
+        SessionReader reader = new SessionReader(mFile);
+        assertEquals(99, reader.getRecordCount());
+        assertTrue(reader.isTruncated());
+
+        assertEquals(99, SessionReader.recover(mFile));
+        assertEquals(valid - SessionHeader.RECORD_SIZE, mFile.length());
+        assertFalse(new SessionReader(mFile).isTruncated());
+    }
+
+    public void testEmptySessionHasNoRecords() throws IOException {
+        record(0, 0).close();
+        assertEquals(SessionHeader.SIZE, mFile.length());
+        assertEquals(0, new SessionReader(mFile).getRecordCount());
+    }
+
+    public void testCorruptHeaderIsRejected() throws IOException {
+        record(1, 0).close();
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.seek(10);
+        raf.write(0x55);
+        raf.close();
+        try {
+            new SessionReader(mFile);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testHeaderMustFitItsSize() throws IOException {
+        UUID[] streams = new UUID[25];
+        int[] floats = new int[streams.length];
+        for (int i = 0; i < streams.length; i++) {
+            streams[i] = new UUID(i, i);
+            floats[i] = 1;
+        }
+        UUID[] fitting = Arrays.copyOf(streams, 23);
+        int[] fittingFloats = Arrays.copyOf(floats, 23);
+        //23 streams leave room for an address of up to 22 bytes
+        SessionHeader header = new SessionHeader("00:11:22:33:44:55:6677", 0, 0, fitting, fittingFloats);
+        assertEquals(23, SessionHeader.decode(header.encode()).getStreamCount());
+        try {
+            new SessionHeader("00:11:22:33:44:55:66:77", 0, 0, fitting, fittingFloats);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new SessionHeader("", 0, 0, streams, floats);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testRecordAfterCloseIsRefused() throws IOException {
+        SessionRecorder recorder = record(0, 0);
+        recorder.close();
+        assertFalse(recorder.record(SessionHeader.STREAM_ORIENTATION, 0, new float[4], 0));
+    }
+
+    /* Turning about y at half a degree per sample */
+    private static void orientation(int i, float[] out) {
+        double half = Math.toRadians(i * 0.5) / 2;
+        out[0] = (float) Math.cos(half);
+        out[1] = 0f;
+        out[2] = (float) Math.sin(half);
+        out[3] = 0f;
+    }
+
+    private static void velocity(int i, float[] out) {
+        out[0] = i / 100f;
+        out[1] = -i;
+        out[2] = 0.25f;
+    }
+
+    /* 100 Hz of both streams, interleaved like a live recording, the velocity 3 ms late */
+    private BlockWriter writeBlocks(int samples, boolean finish) throws IOException {
+        SessionHeader header = SessionHeader.forSensor("00:11:22:33:44:55", 1234L, 100f).compressed();
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.getChannel().write(header.encode());
+            BlockWriter writer = new BlockWriter(raf.getChannel(), header);
+            float[] values = new float[4];
+            for (int i = 0; i < samples; i++) {
+                orientation(i, values);
+                writer.append(SessionHeader.STREAM_ORIENTATION, i * 10 * MS, values, 0);
+                velocity(i, values);
+                writer.append(SessionHeader.STREAM_VELOCITY, i * 10 * MS + 3 * MS, values, 0);
+            }
+            if (finish) {
+                writer.finish();
+            } else {
+                writer.flush();
+            }
+            return writer;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /* Checks records against what writeBlocks wrote */
+    private static class Expected implements SessionReader.Callback {
+        private final float[] mExpected = new float[4];
+        int mCount;
+        long mFirst = -1;
+
+        @Override
+        public void onRecord(int stream, long timestamp, float[] values, int offset) {
+            if (mFirst < 0) {
+                mFirst = timestamp;
+            }
+            mCount++;
+            if (stream == SessionHeader.STREAM_ORIENTATION) {
+                int i = (int) (timestamp / (10 * MS));
+                assertEquals(i * 10 * MS, timestamp);
+                orientation(i, mExpected);
+                assertTrue(QuaternionMath.angleBetween(mExpected, 0, values, offset) < 0.01f);
+            } else {
+                int i = (int) ((timestamp - 3 * MS) / (10 * MS));
+                assertEquals(i * 10 * MS + 3 * MS, timestamp);
+                velocity(i, mExpected);
+                for (int j = 0; j < 3; j++) {
+                    assertEquals(mExpected[j], values[offset + j], Math.abs(mExpected[j]) / 1000);
+                }
+            }
+        }
+    }
+
+    public void testCompressedSessionIsReadBack() throws IOException {
+        BlockWriter writer = writeBlocks(3000, true);
+        assertEquals(6000, writer.getWritten());
+        assertTrue(writer.getBlockCount() > 10);
+        //Under a third of the uncompressed size
+        assertTrue(mFile.length() * 3 < 6000L * SessionHeader.RECORD_SIZE);
+
+        SessionReader reader = new SessionReader(mFile);
+        assertTrue(reader.getHeader().isCompressed());
+        assertEquals(6000, reader.getRecordCount());
+        assertFalse(reader.isTruncated());
+        Expected expected = new Expected();
+        assertEquals(6000, reader.read(expected));
+        assertEquals(6000, expected.mCount);
+
+        //Any record on its own, in any order
+        Random random = new Random(11);
+        for (int n = 0; n < 200; n++) {
+            int index = random.nextInt(6000);
+            long timestamp = (index / 2) * 10 * MS + (index % 2) * 3 * MS;
+            assertEquals(timestamp, reader.getTimestamp(index));
+            expected.mFirst = -1;
+            assertEquals(1, reader.read(index, 1, expected));
+            assertEquals(timestamp, expected.mFirst);
+        }
+    }
+
+    public void testSeekDecodesOnlyFromNearby() throws IOException {
+        writeBlocks(12000, true);
+        SessionReader reader = new SessionReader(mFile);
+        //Minute one of two
+        long minute = 60000 * MS;
+        int from = reader.seek(minute);
+        assertTrue(from > 0);
+        assertTrue(reader.getTimestamp(from) <= minute);
+        assertTrue(reader.getTimestamp(from) > minute - SessionReader.SEEK_SLACK_NANOS - 10000 * MS / 2);
+
+        final int[] after = new int[1];
+        Expected expected = new Expected() {
+            @Override
+            public void onRecord(int stream, long timestamp, float[] values, int offset) {
+                super.onRecord(stream, timestamp, values, offset);
+                if (timestamp >= 60000 * MS) {
+                    after[0]++;
+                }
+            }
+        };
+        reader.read(from, Integer.MAX_VALUE, expected);
+        assertEquals(12000, after[0]);
+
+        assertEquals(0, reader.seek(0));
+        assertEquals(0, reader.seek(-minute));
+        assertTrue(reader.seek(10 * minute) < reader.getRecordCount());
+    }
+
+    public void testUnclosedCompressedSessionIsRecovered() throws IOException {
+        BlockWriter writer = writeBlocks(3000, false);
+        int blocks = writer.getBlockCount();
+
+        SessionReader reader = new SessionReader(mFile);
+        assertTrue(reader.isTruncated());
+        assertEquals(6000, reader.getRecordCount());
+        assertEquals(6000, reader.read(new Expected()));
+
+        //A crash while rewriting the last block tears it
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.seek(SessionHeader.SIZE + (long) (blocks - 1) * BlockWriter.BLOCK_SIZE + 100);
+        raf.write(new byte[50]);
+        raf.close();
+        reader = new SessionReader(mFile);
+        int records = reader.getRecordCount();
+        assertTrue(records < 6000 && records > 5000);
+
+        assertEquals(records, SessionReader.recover(mFile));
+        reader = new SessionReader(mFile);
+        assertFalse(reader.isTruncated());
+        assertEquals(records, reader.getRecordCount());
+        assertEquals(records, reader.read(new Expected()));
+    }
+
+    public void testRecorderWritesCompressedSession() throws IOException {
+        SessionRecorder recorder = new SessionRecorder(mFile,
+                SessionHeader.forSensor("00:11:22:33:44:55", 1234L, 100f).compressed());
+        long start = recorder.getStartNanos();
+        float[] values = new float[4];
+        for (int i = 0; i < 1000; i++) {
+            orientation(i, values);
+            assertTrue(recorder.record(SessionHeader.STREAM_ORIENTATION, start + i * 10 * MS, values, 0));
+            velocity(i, values);
+            assertTrue(recorder.record(SessionHeader.STREAM_VELOCITY, start + i * 10 * MS + 3 * MS, values, 0));
+        }
+        recorder.close();
+        assertEquals(2000, recorder.getWritten());
+        assertEquals(2000, recorder.getFlushed());
+
+        SessionReader reader = new SessionReader(mFile);
+        assertEquals("00:11:22:33:44:55", reader.getHeader().getAddress());
+        assertFalse(reader.isTruncated());
+        Expected expected = new Expected();
+        assertEquals(2000, reader.read(expected));
+        assertEquals(2000, expected.mCount);
+    }
+
+    public void testSummary() throws IOException {
+        writeBlocks(3000, true);
+        SessionSummary summary = SessionSummary.summarize(mFile);
+        assertEquals("00:11:22:33:44:55", summary.address);
+        assertTrue(summary.compressed);
+        assertFalse(summary.truncated);
+        assertEquals(3000, summary.orientationSamples);
+        assertEquals(3000, summary.velocitySamples);
+        assertEquals(29993 * MS, summary.durationNanos);
+        //Half a degree per 10 ms about y, half a turn away from the start and back every 7.2 s
+        assertEquals(180f, summary.ranges[MotionStats.ANGLE], 0.1f);
+        assertEquals(4, summary.repetitions[MotionStats.ANGLE]);
+        assertEquals(50f, summary.peakSpeed, 0.5f);
+        assertEquals(Math.hypot(29.99, 2999), summary.peakVelocity, 3);
+
+        StringBuilder line = new StringBuilder();
+        summary.appendCsv("a.vhs", line);
+        assertEquals(SessionSummary.CSV_HEADER.split(",").length, line.toString().split(",").length);
+        assertTrue(line.toString().startsWith("a.vhs,00:11:22:33:44:55,1234,29.99,true,false,3000,3000,"));
+    }
+}
@@ -0,0 +1,78 @@
+package com.xsens.valedohome;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Recording and dumping, including the ring wrapping around and writers racing a dump.
+ */
+public class TraceBufferTest extends TestCase {
+
+    public void testKeepsNewestEvents() {
+        TraceBuffer trace = new TraceBuffer(3);
+        for (int i = 0; i < 6; i++) {
+            trace.record(TraceBuffer.EVENT_NOTIFY, i, 16);
+        }
+        assertEquals(6, trace.count());
+
+        StringBuilder out = new StringBuilder();
+        trace.dump(out);
+        String[] lines = out.toString().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0], lines[0].endsWith("notify   2 16"));
+        assertTrue(lines[3], lines[3].endsWith("notify   5 16"));
+    }
+
+    public void testUnknownEventIdsAreDumpedAsNumbers() {
+        TraceBuffer trace = new TraceBuffer(2);
+        trace.record(99, -1, 0);
+        StringBuilder out = new StringBuilder();
+        trace.dump(out);
+        assertTrue(out.toString(), out.toString().endsWith("99       -1 0\n"));
+    }
+
+    public void testDumpSkipsEventsBeingOverwritten() throws InterruptedException {
+        //A small ring, so the writers lap the dump all the time
+        final TraceBuffer trace = new TraceBuffer(16);
+        final AtomicBoolean stop = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(3);
+        for (int t = 0; t < 3; t++) {
+            final int event = t;
+            new Thread() {
+                @Override
+                public void run() {
+                    //Every event has b == -a and an id that follows from a
+                    for (long a = event; !stop.get(); a += 3) {
+                        trace.record((int) (a % 3), a, -a);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        String[] names = {"notify", "drain", "scan"};
+        long dumped = 0;
+        try {
+            long deadline = System.currentTimeMillis() + 500;
+            while (System.currentTimeMillis() < deadline) {
+                StringBuilder out = new StringBuilder();
+                trace.dump(out);
+                for (String line : out.toString().split("\n")) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    String[] fields = line.trim().split(" +");
+                    long a = Long.parseLong(fields[2]);
+                    assertEquals(line, -a, Long.parseLong(fields[3]));
+                    assertEquals(line, names[(int) (a % 3)], fields[1]);
+                    dumped++;
+                }
+            }
+        } finally {
+            stop.set(true);
+            done.await();
+        }
+        assertTrue(dumped > 0);
+    }
+}
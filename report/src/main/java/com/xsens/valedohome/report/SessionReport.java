@@ -0,0 +1,127 @@
+package com.xsens.valedohome.report;
+
+import com.xsens.valedohome.SessionHeader;
+import com.xsens.valedohome.SessionSummary;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summarizes recorded session files into one CSV line each, see {@link SessionSummary}.
+ *
+ * Usage: {@code SessionReport [-t threads] <session file or directory>...}. Directories are
+ * searched for {@value SessionHeader#EXTENSION} files. Sessions are summarized in parallel on
+ * a fork-join pool, one core each by default; every session is independent and read from its
+ * own memory map, so throughput grows with the cores until the disk can't keep up. Lines come
+ * out in path order whatever order they finish in, errors and totals go to stderr.
+ */
+public final class SessionReport {
+
+    private SessionReport() {
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-t".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                collect(new File(args[i]), files);
+            }
+        }
+        if (files.isEmpty() || threads < 1) {
+            System.err.println("Usage: SessionReport [-t threads] <session file or directory>...");
+            System.exit(2);
+        }
+        Collections.sort(files);
+
+        SessionSummary[] summaries = new SessionSummary[files.size()];
+        Exception[] errors = new Exception[files.size()];
+        long start = System.nanoTime();
+        new ForkJoinPool(threads).invoke(new SummaryTask(files, summaries, errors, 0, files.size()));
+        long elapsed = System.nanoTime() - start;
+
+        StringBuilder out = new StringBuilder(SessionSummary.CSV_HEADER).append('\n');
+        long samples = 0;
+        int failed = 0;
+        for (int i = 0; i < summaries.length; i++) {
+            if (errors[i] != null) {
+                //Unexpected failures keep their type, their message alone may say nothing
+                Object error = errors[i] instanceof IOException ? errors[i].getMessage() : errors[i];
+                System.err.println(files.get(i) + ": " + error);
+                failed++;
+                continue;
+            }
+            summaries[i].appendCsv(files.get(i).getName(), out);
+            out.append('\n');
+            samples += summaries[i].orientationSamples + summaries[i].velocitySamples;
+        }
+        System.out.print(out);
+        double seconds = Math.max(elapsed, 1) / 1e9;
+        System.err.println(String.format("%d sessions (%d failed), %d samples in %d ms on %d threads, %.1f M samples/s",
+                summaries.length, failed, samples, TimeUnit.NANOSECONDS.toMillis(elapsed), threads,
+                samples / seconds / 1e6));
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void collect(File file, List<File> out) {
+        File[] children = file.listFiles();
+        if (children == null) {
+            out.add(file);
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory() || child.getName().endsWith(SessionHeader.EXTENSION)) {
+                collect(child, out);
+            }
+        }
+    }
+
+    /*
+     * Splits the files in halves down to single sessions, idle workers steal the other halves
+     */
+    private static class SummaryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> mFiles;
+        private final SessionSummary[] mSummaries;
+        private final Exception[] mErrors;
+        private final int mFrom;
+        private final int mTo;
+
+        SummaryTask(List<File> files, SessionSummary[] summaries, Exception[] errors, int from, int to) {
+            mFiles = files;
+            mSummaries = summaries;
+            mErrors = errors;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom > 1) {
+                int middle = (mFrom + mTo) >>> 1;
+                invokeAll(new SummaryTask(mFiles, mSummaries, mErrors, mFrom, middle),
+                        new SummaryTask(mFiles, mSummaries, mErrors, middle, mTo));
+                return;
+            }
+            try {
+                mSummaries[mFrom] = SessionSummary.summarize(mFiles.get(mFrom));
+            } catch (IOException e) {
+                mErrors[mFrom] = e;
+            } catch (RuntimeException e) {
+                //A corrupt file can fail the decoding anywhere, it shouldn't take the others with it
+                mErrors[mFrom] = e;
+            }
+        }
+    }
+}